@@ -0,0 +1,25 @@
+package at.yawk.fimfiction;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.openjdk.jmh.Main;
+
+/**
+ * Entry point of the benchmark jar. Same as the JMH command line, but enables the GC profiler (allocation rate per
+ * operation) unless another profiler is selected with <code>-prof</code>.
+ *
+ * @author Jonas Konrad (yawkat)
+ */
+public class Benchmarks {
+    private Benchmarks() {}
+
+    public static void main(String[] args) throws Exception {
+        List<String> arguments = new ArrayList<String>(Arrays.asList(args));
+        if (!arguments.contains("-prof") && !arguments.contains("-h") && !arguments.contains("-l")) {
+            arguments.add(0, "-prof");
+            arguments.add(1, "gc");
+        }
+        Main.main(arguments.toArray(new String[arguments.size()]));
+    }
+}
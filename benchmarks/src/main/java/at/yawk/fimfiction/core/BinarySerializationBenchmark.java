@@ -0,0 +1,53 @@
+package at.yawk.fimfiction.core;
+
+import at.yawk.fimfiction.binary.BinaryDeserializer;
+import at.yawk.fimfiction.binary.BinarySerializer;
+import at.yawk.fimfiction.data.Story;
+import com.google.common.io.ByteStreams;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+import org.xml.sax.SAXException;
+
+/**
+ * Writes and reads the story of SerializationBenchmark with BinarySerializer and BinaryDeserializer. The header is
+ * read once as it would be for a file with many stories. Compare with the streaming scores of SerializationBenchmark.
+ *
+ * @author Jonas Konrad (yawkat)
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BinarySerializationBenchmark {
+    private final BinarySerializer serializer = new BinarySerializer();
+
+    private Story story;
+    private BinaryDeserializer deserializer;
+    private byte[] record;
+
+    @Setup
+    public void setup() throws IOException, SAXException {
+        story = JsonParser2Benchmark.parse(Fixtures.load("api/story_content.json"), true);
+        InputStream header = new ByteArrayInputStream(serializer.serializeBundle(Story.createMutable()));
+        deserializer = BinaryDeserializer.readHeader(header);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        serializer.writeBundle(story, out);
+        record = out.toByteArray();
+    }
+
+    @Benchmark
+    public void serialize() throws IOException {
+        serializer.writeBundle(story, ByteStreams.nullOutputStream());
+    }
+
+    @Benchmark
+    public Story deserialize() throws IOException {
+        return deserializer.readBundle(record, Story.class);
+    }
+}
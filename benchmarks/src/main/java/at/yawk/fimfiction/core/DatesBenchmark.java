@@ -0,0 +1,78 @@
+package at.yawk.fimfiction.core;
+
+import java.text.DateFormat;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Dates compared with the SimpleDateFormat usage it replaced: the search parsers kept one formatter per parser
+ * instance, the JSON serializer created a new one for every date.
+ *
+ * @author Jonas Konrad (yawkat)
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DatesBenchmark {
+    private static final String DAY = "12th Dec 2012";
+    private static final String RSS = "2013-10-01T18:22:00+00:00";
+    private static final String ISO = "2011-08-03T19:09Z";
+
+    private final SimpleDateFormat dayFormat = new SimpleDateFormat("d MMM yyyy", Locale.ENGLISH);
+    private final SimpleDateFormat rssFormat = new SimpleDateFormat("yyyy-MM-dd'T'HHmmssZ", Locale.ENGLISH);
+    private final Date date = new Date(1312398540000L);
+
+    @Benchmark
+    public Date parseDaySimpleDateFormat() throws ParseException {
+        return dayFormat.parse(DAY.replaceAll("(st|nd|rd|th)", ""));
+    }
+
+    @Benchmark
+    public Date parseDay() throws ParseException {
+        return Dates.parseDay(DAY);
+    }
+
+    @Benchmark
+    public Date parseRssSimpleDateFormat() throws ParseException {
+        return rssFormat.parse(RSS.replace(":", ""));
+    }
+
+    @Benchmark
+    public Date parseRss() throws ParseException {
+        return Dates.parseIso(RSS);
+    }
+
+    @Benchmark
+    public Date parseIsoSimpleDateFormat() throws ParseException {
+        return createIsoDateFormat().parse(ISO);
+    }
+
+    @Benchmark
+    public Date parseIso() throws ParseException {
+        return Dates.parseIso(ISO);
+    }
+
+    @Benchmark
+    public String formatIsoSimpleDateFormat() {
+        return createIsoDateFormat().format(date);
+    }
+
+    @Benchmark
+    public String formatIso() {
+        return Dates.formatIso(date);
+    }
+
+    private static DateFormat createIsoDateFormat() {
+        DateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm'Z'");
+        dateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+        return dateFormat;
+    }
+}
@@ -0,0 +1,29 @@
+package at.yawk.fimfiction.core;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.ByteStreams;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Access to the recorded pages used by the tests of the library.
+ *
+ * @author Jonas Konrad (yawkat)
+ */
+class Fixtures {
+    private Fixtures() {}
+
+    static byte[] load(String name) throws IOException {
+        InputStream stream = Fixtures.class.getResourceAsStream(name);
+        if (stream == null) { throw new IOException("Missing fixture " + name); }
+        try {
+            return ByteStreams.toByteArray(stream);
+        } finally {
+            stream.close();
+        }
+    }
+
+    static String loadString(String name) throws IOException {
+        return new String(load(name), Charsets.UTF_8);
+    }
+}
@@ -0,0 +1,57 @@
+package at.yawk.fimfiction.core;
+
+import at.yawk.fimfiction.data.FormattedString;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Parses the same chapter text in BB and HTML markup with FormattedStringParser. parseBbLarge parses the BB chapter
+ * repeated to a size of about 250 KB, like the longest chapters on Fimfiction. parseHtmlShort parses a short story
+ * description as found in API responses and RSS feeds.
+ *
+ * @author Jonas Konrad (yawkat)
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FormattedStringParserBenchmark {
+    private String bb;
+    private String html;
+    private String largeBb;
+    private String shortHtml;
+
+    @Setup
+    public void setup() throws IOException {
+        bb = Fixtures.loadString("formatted/chapter.bb");
+        html = Fixtures.loadString("formatted/chapter.html");
+        StringBuilder large = new StringBuilder();
+        for (int i = 0; i < 20; i++) { large.append(bb).append("\n\n"); }
+        largeBb = large.toString();
+        shortHtml = "<p>When <b>Twilight</b> finds an old book in the library, <i>strange</i> things begin to " +
+                    "happen in Ponyville.</p><p>Cover art by <u>someone</u> &amp; friends.</p>";
+    }
+
+    @Benchmark
+    public FormattedString parseBb() {
+        return FormattedStringParser.parseBb(bb);
+    }
+
+    @Benchmark
+    public FormattedString parseBbLarge() {
+        return FormattedStringParser.parseBb(largeBb);
+    }
+
+    @Benchmark
+    public FormattedString parseHtml() {
+        return FormattedStringParser.parseHtml(html);
+    }
+
+    @Benchmark
+    public FormattedString parseHtmlShort() {
+        return FormattedStringParser.parseHtml(shortHtml);
+    }
+}
@@ -0,0 +1,52 @@
+package at.yawk.fimfiction.core;
+
+import at.yawk.fimfiction.data.FormattedString;
+import com.google.common.io.CharStreams;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Renders the parsed chapter fixture with FormattedString#buildFormattedText. The uncached benchmarks render a fresh
+ * copy of the chapter every time, the cached one renders the same instance repeatedly like a serializer writing the
+ * same story again. renderHtmlToWriter streams a fresh copy into a Writer without building the full string.
+ *
+ * @author Jonas Konrad (yawkat)
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FormattedStringRenderBenchmark {
+    private FormattedString chapter;
+    private final Writer writer = CharStreams.nullWriter();
+
+    @Setup
+    public void setup() throws IOException {
+        chapter = FormattedStringParser.parseBb(Fixtures.loadString("formatted/chapter.bb"));
+    }
+
+    @Benchmark
+    public String renderHtml() {
+        return FormattedString.create(chapter, chapter.getTags()).buildFormattedText(FormattedString.Markup.HTML);
+    }
+
+    @Benchmark
+    public String renderBb() {
+        return FormattedString.create(chapter, chapter.getTags()).buildFormattedText(FormattedString.Markup.BB);
+    }
+
+    @Benchmark
+    public Writer renderHtmlToWriter() throws IOException {
+        FormattedString.create(chapter, chapter.getTags()).renderTo(FormattedString.Markup.HTML, writer);
+        return writer;
+    }
+
+    @Benchmark
+    public String renderHtmlCached() {
+        return chapter.buildFormattedText(FormattedString.Markup.HTML);
+    }
+}
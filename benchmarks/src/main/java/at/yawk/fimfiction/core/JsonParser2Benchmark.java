@@ -0,0 +1,51 @@
+package at.yawk.fimfiction.core;
+
+import at.yawk.fimfiction.data.Story;
+import com.google.common.base.Charsets;
+import com.google.gson.stream.JsonReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+import org.xml.sax.SAXException;
+
+/**
+ * Parses recorded story API responses with JsonParser2, once from the metadata API and once from the API that
+ * includes the BB-formatted chapter content.
+ *
+ * @author Jonas Konrad (yawkat)
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class JsonParser2Benchmark {
+    private byte[] story;
+    private byte[] storyWithContent;
+
+    @Setup
+    public void setup() throws IOException {
+        story = Fixtures.load("api/story.json");
+        storyWithContent = Fixtures.load("api/story_content.json");
+    }
+
+    @Benchmark
+    public Story story() throws IOException, SAXException {
+        return parse(story, false);
+    }
+
+    @Benchmark
+    public Story storyWithContent() throws IOException, SAXException {
+        return parse(storyWithContent, true);
+    }
+
+    static Story parse(byte[] json, boolean withContent) throws IOException, SAXException {
+        JsonParser2<Story, Story.StoryKey> parser =
+                JsonParser2.story(new JsonReader(new InputStreamReader(new ByteArrayInputStream(json), Charsets.UTF_8)));
+        parser.skipStatus = withContent;
+        return parser.parse();
+    }
+}
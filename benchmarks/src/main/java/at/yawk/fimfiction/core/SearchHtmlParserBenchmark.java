@@ -0,0 +1,91 @@
+package at.yawk.fimfiction.core;
+
+import com.google.common.io.ByteStreams;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.ccil.cowan.tagsoup.Parser;
+import org.openjdk.jmh.annotations.*;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+
+/**
+ * Parses a recorded category page with SearchHtmlParser, fed either by the TagSoup parser or by HtmlScanner. Run
+ * with <code>-prof gc</code> to compare the allocation per page.
+ *
+ * @author Jonas Konrad (yawkat)
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SearchHtmlParserBenchmark {
+    private byte[] page;
+
+    @Setup
+    public void setup() throws IOException {
+        page = Fixtures.load("search/category_page.html");
+    }
+
+    @Benchmark
+    public List<?> parse() throws IOException, SAXException {
+        return parse(page);
+    }
+
+    @Benchmark
+    public List<?> scan() throws IOException, SAXException {
+        SearchHtmlParser parser = new SearchHtmlParser();
+        new HtmlScanner(new ByteArrayInputStream(page), parser).scan();
+        return parser.finishedStories;
+    }
+
+    /**
+     * ID-only mode, which does not tokenize the page at all.
+     */
+    @Benchmark
+    public int scanIds() throws IOException {
+        return new StoryIdScanner(new ByteArrayInputStream(page), new Search.IdCallback() {
+            @Override
+            public void onId(int id) {}
+        }).scan();
+    }
+
+    /**
+     * Same as #parse but with the debug tracing this parser always performed before it became opt-in. The trace
+     * output is discarded.
+     */
+    @Benchmark
+    @Fork(value = 1, jvmArgsAppend = "-Dat.yawk.fimfiction.core.SearchHtmlParser.debug=true")
+    public List<?> parseWithDebugTracing(DiscardedOutput output) throws IOException, SAXException {
+        return parse(page);
+    }
+
+    static List<?> parse(byte[] page) throws IOException, SAXException {
+        SearchHtmlParser parser = new SearchHtmlParser();
+        XMLReader reader = new Parser();
+        reader.setContentHandler(parser);
+        reader.parse(new InputSource(new ByteArrayInputStream(page)));
+        return parser.finishedStories;
+    }
+
+    @State(Scope.Benchmark)
+    public static class DiscardedOutput {
+        private PrintStream out;
+
+        @Setup
+        public void redirect() {
+            out = System.out;
+            System.setOut(new PrintStream(ByteStreams.nullOutputStream()));
+        }
+
+        @TearDown
+        public void restore() {
+            System.setOut(out);
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package at.yawk.fimfiction.core;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.ccil.cowan.tagsoup.Parser;
+import org.openjdk.jmh.annotations.*;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+
+/**
+ * Parses a recorded unread (tracking) RSS feed with SearchRssParser.
+ *
+ * @author Jonas Konrad (yawkat)
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SearchRssParserBenchmark {
+    private byte[] feed;
+
+    @Setup
+    public void setup() throws IOException {
+        feed = Fixtures.load("rss/tracking.xml");
+    }
+
+    @Benchmark
+    public List<?> parse() throws IOException, SAXException {
+        SearchRssParser parser = new SearchRssParser();
+        XMLReader reader = new Parser();
+        reader.setContentHandler(parser);
+        reader.parse(new InputSource(new ByteArrayInputStream(feed)));
+        return parser.finishedStories;
+    }
+}
@@ -0,0 +1,93 @@
+package at.yawk.fimfiction.core;
+
+import at.yawk.fimfiction.data.Story;
+import at.yawk.fimfiction.json.Deserializer;
+import at.yawk.fimfiction.json.Serializer;
+import com.google.common.base.Charsets;
+import com.google.common.io.ByteStreams;
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+import java.io.*;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+import org.xml.sax.SAXException;
+
+/**
+ * Serializes a story with chapters, author and formatted content to JSON and back with Serializer and Deserializer,
+ * either through a JsonObject tree or streaming.
+ *
+ * @author Jonas Konrad (yawkat)
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SerializationBenchmark {
+    private static final Gson GSON = new Gson();
+
+    private final Serializer serializer = new Serializer();
+    private final Deserializer deserializer = new Deserializer();
+
+    private Story story;
+    private JsonObject json;
+    private byte[] bytes;
+
+    @Setup
+    public void setup() throws IOException, SAXException {
+        story = JsonParser2Benchmark.parse(Fixtures.load("api/story_content.json"), true);
+        json = serializer.serializeBundle(story);
+        bytes = json.toString().getBytes(Charsets.UTF_8);
+    }
+
+    @Benchmark
+    public JsonObject serialize() {
+        return serializer.serializeBundle(story);
+    }
+
+    @Benchmark
+    public Story deserialize() throws Exception {
+        return deserializer.deserializeBundle(json, Story.class);
+    }
+
+    @Benchmark
+    public Story roundTrip() throws Exception {
+        return deserializer.deserializeBundle(serializer.serializeBundle(story), Story.class);
+    }
+
+    /**
+     * The tree based way to write a story to a stream, for comparison with #serializeStreaming.
+     */
+    @Benchmark
+    public void serializeTreeToStream() throws IOException {
+        JsonWriter writer = new JsonWriter(new OutputStreamWriter(ByteStreams.nullOutputStream(), Charsets.UTF_8));
+        GSON.toJson(serializer.serializeBundle(story), writer);
+        writer.flush();
+    }
+
+    /**
+     * The tree based way to read a story from a stream, for comparison with #deserializeStreaming.
+     */
+    @Benchmark
+    public Story deserializeTreeFromStream() throws Exception {
+        Reader reader = new InputStreamReader(new ByteArrayInputStream(bytes), Charsets.UTF_8);
+        return deserializer.deserializeBundle(new JsonParser().parse(reader).getAsJsonObject(), Story.class);
+    }
+
+    @Benchmark
+    public void serializeStreaming() throws IOException {
+        JsonWriter writer = new JsonWriter(new OutputStreamWriter(ByteStreams.nullOutputStream(), Charsets.UTF_8));
+        serializer.serializeBundle(story, writer);
+        writer.flush();
+    }
+
+    @Benchmark
+    public Story deserializeStreaming() throws Exception {
+        JsonReader reader = new JsonReader(new InputStreamReader(new ByteArrayInputStream(bytes), Charsets.UTF_8));
+        return deserializer.deserializeBundle(reader, Story.class);
+    }
+}
@@ -0,0 +1,57 @@
+package at.yawk.fimfiction.core;
+
+import at.yawk.fimfiction.data.Story;
+import at.yawk.fimfiction.store.StoryStore;
+import com.google.common.io.Files;
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+import org.xml.sax.SAXException;
+
+/**
+ * Reads and writes stories of a StoryStore filled with copies of the API story fixture.
+ *
+ * @author Jonas Konrad (yawkat)
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StoryStoreBenchmark {
+    private static final int STORIES = 10000;
+
+    private final Random random = new Random(0);
+
+    private File directory;
+    private StoryStore store;
+    private Story story;
+
+    @Setup
+    public void setup() throws IOException, SAXException {
+        story = JsonParser2Benchmark.parse(Fixtures.load("api/story.json"), false);
+        directory = Files.createTempDir();
+        store = StoryStore.open(directory);
+        for (int i = 0; i < STORIES; i++) { store.put(story.mutableCopy().setInt(Story.StoryKey.ID, i)); }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        store.close();
+        for (File file : directory.listFiles()) { file.delete(); }
+        directory.delete();
+    }
+
+    @Benchmark
+    public Story get() throws IOException {
+        return store.get(random.nextInt(STORIES));
+    }
+
+    @Benchmark
+    public void put() throws IOException {
+        store.put(story.mutableCopy().setInt(Story.StoryKey.ID, random.nextInt(STORIES)));
+    }
+}
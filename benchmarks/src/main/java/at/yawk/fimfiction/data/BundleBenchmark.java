@@ -0,0 +1,78 @@
+package at.yawk.fimfiction.data;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Basic operations on EnumKeyBundle (through Story, the bundle type with the most keys).
+ *
+ * @author Jonas Konrad (yawkat)
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BundleBenchmark {
+    private Story story;
+    private Story immutableStory;
+
+    @Setup
+    public void setup() {
+        story = Story.createMutable()
+                     .set(Story.StoryKey.ID, 10)
+                     .set(Story.StoryKey.TITLE, "Accolade")
+                     .set(Story.StoryKey.WORD_COUNT, 6947)
+                     .set(Story.StoryKey.LIKE_COUNT, 106)
+                     .set(Story.StoryKey.DISLIKE_COUNT, 8)
+                     .set(Story.StoryKey.COMMENT_COUNT, 26)
+                     .set(Story.StoryKey.STATUS, StoryStatus.COMPLETED)
+                     .set(Story.StoryKey.CONTENT_RATING, ContentRating.EVERYONE)
+                     .set(Story.StoryKey.SEX, false)
+                     .set(Story.StoryKey.GORE, false);
+        immutableStory = story.immutableCopy();
+    }
+
+    @Benchmark
+    public void get(Blackhole blackhole) {
+        blackhole.consume(story.getInt(Story.StoryKey.ID));
+        blackhole.consume(story.getString(Story.StoryKey.TITLE));
+        blackhole.consume(story.getInt(Story.StoryKey.WORD_COUNT));
+        blackhole.consume(story.has(Story.StoryKey.DESCRIPTION));
+    }
+
+    @Benchmark
+    public Story set() {
+        return story.set(Story.StoryKey.LIKE_COUNT, 107)
+                    .set(Story.StoryKey.TITLE, "Accolade")
+                    .set(Story.StoryKey.SEX, true);
+    }
+
+    @Benchmark
+    public Story setPrimitive() {
+        return story.setLong(Story.StoryKey.VIEW_COUNT_TOTAL, 1234567L)
+                    .setInt(Story.StoryKey.WORD_COUNT, 6947);
+    }
+
+    @Benchmark
+    public Story mutableCopy() {
+        return story.mutableCopy();
+    }
+
+    @Benchmark
+    public Story immutableCopy() {
+        return story.immutableCopy();
+    }
+
+    @Benchmark
+    public int setKeys() {
+        return story.getSetKeys().size();
+    }
+
+    @Benchmark
+    public boolean equalsAndHashCode() {
+        return story.equals(immutableStory) && story.hashCode() == immutableStory.hashCode();
+    }
+}
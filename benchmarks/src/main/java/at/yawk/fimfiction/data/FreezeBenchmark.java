@@ -0,0 +1,61 @@
+package at.yawk.fimfiction.data;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Makes a story immutable whose author and chapters already are immutable, as is the case for stories assembled
+ * from separately parsed parts. Compare the scores for the different chapter counts.
+ *
+ * @author Jonas Konrad (yawkat)
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FreezeBenchmark {
+    @Param({ "10", "1000" })
+    public int chapters;
+
+    private Story story;
+
+    @Setup
+    public void setup() {
+        List<Chapter> chapterList = new ArrayList<Chapter>();
+        for (int i = 0; i < chapters; i++) {
+            chapterList.add(Chapter.createMutable()
+                                   .setInt(Chapter.ChapterKey.ID, i)
+                                   .set(Chapter.ChapterKey.TITLE, "Chapter " + i)
+                                   .setInt(Chapter.ChapterKey.WORD_COUNT, 2000)
+                                   .set(Chapter.ChapterKey.DATE_MODIFIED, new Date(1400000000000L))
+                                   .immutableCopy());
+        }
+        story = Story.createMutable()
+                     .setInt(Story.StoryKey.ID, 10)
+                     .set(Story.StoryKey.TITLE, "Accolade")
+                     .set(Story.StoryKey.DATE_UPDATED, new Date(1400000000000L))
+                     .set(Story.StoryKey.AUTHOR, User.createMutable()
+                                                     .setInt(User.UserKey.ID, 21412)
+                                                     .set(User.UserKey.NAME, "Author")
+                                                     .immutableCopy())
+                     .set(Story.StoryKey.CHAPTERS, chapterList);
+    }
+
+    @Benchmark
+    public Story immutableCopy() {
+        return story.immutableCopy();
+    }
+
+    /**
+     * Freezes a fresh shallow copy since freezing the same story twice would do nothing.
+     */
+    @Benchmark
+    public Story freeze() {
+        return story.mutableCopy().freeze();
+    }
+}
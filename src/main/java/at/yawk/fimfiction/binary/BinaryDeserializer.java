@@ -0,0 +1,418 @@
+package at.yawk.fimfiction.binary;
+
+import static at.yawk.fimfiction.binary.BinaryFormat.*;
+
+import at.yawk.fimfiction.data.*;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import java.io.*;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * Reads bundles written by BinarySerializer. An instance is created from the header of a stream by #readHeader and
+ * can then read any of the bundles that follow it. Keys and Identifiable values are matched by ID, so data written
+ * by older or newer versions of this library can be read as long as the format version is the same: values of keys
+ * that no longer exist are skipped.
+ * <p/>
+ * Instances are immutable and may be shared between threads. The InputStream methods read byte by byte, so they
+ * should be given a buffered stream.
+ *
+ * @author Jonas Konrad (yawkat)
+ */
+public class BinaryDeserializer {
+    @Nonnull private final BundleSchema[] bundleSchemas;
+    @Nonnull private final Map<Class<?>, BundleSchema> bundleSchemasByType;
+    @Nonnull private final Map<ValueType, Identifiable[]> identifiables;
+    @Nonnull private final Map<ValueType, String[]> identifiableIds;
+
+    private BinaryDeserializer(@Nonnull BundleSchema[] bundleSchemas,
+                               @Nonnull Map<ValueType, Identifiable[]> identifiables,
+                               @Nonnull Map<ValueType, String[]> identifiableIds) {
+        this.bundleSchemas = bundleSchemas;
+        this.identifiables = identifiables;
+        this.identifiableIds = identifiableIds;
+        this.bundleSchemasByType = Maps.newHashMap();
+        for (BundleSchema schema : bundleSchemas) {
+            if (schema.type != null) { bundleSchemasByType.put(schema.type, schema); }
+        }
+    }
+
+    /**
+     * Reads the header written by BinarySerializer#writeHeader and returns a deserializer for the bundles that follow.
+     *
+     * @throws IOException if the stream does not start with a header of a supported version.
+     */
+    @Nonnull
+    public static BinaryDeserializer readHeader(@Nonnull InputStream in) throws IOException {
+        Preconditions.checkNotNull(in);
+
+        for (byte b : MAGIC) {
+            if (readByte(in) != b) { throw new IOException("Not a binary bundle stream"); }
+        }
+        long version = readVarint(in);
+        if (version != VERSION) { throw new IOException("Unsupported format version: " + version); }
+
+        BundleSchema[] bundleSchemas = new BundleSchema[readLength(in)];
+        for (int i = 0; i < bundleSchemas.length; i++) {
+            String name = readString(in);
+            Class<? extends Bundle<?, ?>> type = null;
+            for (Class<? extends Bundle<?, ?>> candidate : BUNDLE_TYPES) {
+                if (candidate.getSimpleName().equals(name)) { type = candidate; }
+            }
+            Map<String, Key> currentKeys = Maps.newHashMap();
+            if (type != null) {
+                for (Key key : createBundle(type).getPossibleKeys()) { currentKeys.put(key.getId(), key); }
+            }
+
+            int keyCount = readLength(in);
+            Key[] keys = new Key[keyCount];
+            ValueType[] valueTypes = new ValueType[keyCount];
+            for (int j = 0; j < keyCount; j++) {
+                String id = readString(in);
+                valueTypes[j] = findValueType(readString(in));
+                Key key = currentKeys.get(id);
+                // keys whose type has changed are skipped like removed ones
+                if (key != null && key.getType() == valueTypes[j]) { keys[j] = key; }
+            }
+            bundleSchemas[i] = new BundleSchema(name, type, keys, valueTypes);
+        }
+
+        Map<ValueType, Identifiable[]> identifiables = Maps.newEnumMap(ValueType.class);
+        Map<ValueType, String[]> identifiableIds = Maps.newEnumMap(ValueType.class);
+        int identifiableTypeCount = readLength(in);
+        for (int i = 0; i < identifiableTypeCount; i++) {
+            ValueType type = findValueType(readString(in));
+            String[] ids = new String[readLength(in)];
+            Identifiable[] values = new Identifiable[ids.length];
+            for (int j = 0; j < ids.length; j++) {
+                ids[j] = readString(in);
+                if (type != null && isIdentifiable(type)) { values[j] = findIdentifiable(type, ids[j]); }
+            }
+            if (type != null) {
+                identifiables.put(type, values);
+                identifiableIds.put(type, ids);
+            }
+        }
+
+        return new BinaryDeserializer(bundleSchemas, identifiables, identifiableIds);
+    }
+
+    /**
+     * Reads a header and a single bundle of the given type as written by BinarySerializer#serializeBundle.
+     */
+    @Nonnull
+    public static <B extends Bundle<B, K>, K extends Key> B deserializeBundle(@Nonnull byte[] data,
+                                                                              @Nonnull Class<B> type)
+            throws IOException {
+        InputStream in = new ByteArrayInput(data, 0, data.length);
+        return readHeader(in).readBundle(in, type);
+    }
+
+    /**
+     * Reads a single bundle of the given type written by BinarySerializer#writeBundle.
+     *
+     * @throws IOException if the data is corrupt or contains a bundle of a different type.
+     */
+    @Nonnull
+    public <B extends Bundle<B, K>, K extends Key> B readBundle(@Nonnull InputStream in, @Nonnull Class<B> type)
+            throws IOException {
+        return readBundle(in, type, readByte(in));
+    }
+
+    /**
+     * Reads a single bundle of the given type from a byte array that contains the output of
+     * BinarySerializer#writeBundle. This is faster than reading the bundle from a ByteArrayInputStream.
+     */
+    @Nonnull
+    public <B extends Bundle<B, K>, K extends Key> B readBundle(@Nonnull byte[] data, @Nonnull Class<B> type)
+            throws IOException {
+        return readBundle(new ByteArrayInput(data, 0, data.length), type);
+    }
+
+    /**
+     * Reads the bundles following a header until the end of the stream is reached and passes them to the callback
+     * one at a time. The stream is not closed.
+     *
+     * @return the amount of bundles read.
+     */
+    public <B extends Bundle<B, K>, K extends Key> int readBundles(@Nonnull InputStream in,
+                                                                   @Nonnull Class<B> type,
+                                                                   @Nonnull Callback<? super B> callback)
+            throws IOException {
+        Preconditions.checkNotNull(callback);
+
+        int count = 0;
+        int first;
+        while ((first = in.read()) != -1) {
+            callback.onBundle(readBundle(in, type, first));
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Reads a header followed by bundles of the given type as written by BinarySerializer#serializeBundles.
+     *
+     * @return the amount of bundles read.
+     */
+    public static <B extends Bundle<B, K>, K extends Key> int deserializeBundles(@Nonnull InputStream in,
+                                                                                 @Nonnull Class<B> type,
+                                                                                 @Nonnull Callback<? super B> callback)
+            throws IOException {
+        InputStream buffered = new BufferedInputStream(in);
+        return readHeader(buffered).readBundles(buffered, type, callback);
+    }
+
+    @Nonnull
+    private <B extends Bundle<B, K>, K extends Key> B readBundle(@Nonnull InputStream in,
+                                                                 @Nonnull Class<B> type,
+                                                                 int first) throws IOException {
+        Preconditions.checkNotNull(in);
+        Preconditions.checkNotNull(type);
+
+        long index = readVarint(in, first);
+        if (index < 0 || index >= bundleSchemas.length) { throw new IOException("Invalid bundle type: " + index); }
+        BundleSchema schema = bundleSchemas[((int) index)];
+        if (schema.type != type) {
+            throw new IOException("Expected " + type.getSimpleName() + " but was " + schema.name);
+        }
+        return readBundleValues(in, type);
+    }
+
+    @Nonnull
+    @SuppressWarnings("unchecked")
+    private <B extends Bundle<B, K>, K extends Key> B readBundleValues(@Nonnull InputStream in,
+                                                                       @Nonnull Class<B> type) throws IOException {
+        BundleSchema schema = getSchema(type);
+        B target = createBundle(type);
+        long keyIndex;
+        while ((keyIndex = readVarint(in)) != 0) {
+            if (keyIndex > schema.keys.length) { throw new IOException("Invalid key in " + schema.name); }
+            K key = (K) schema.keys[((int) keyIndex - 1)];
+            ValueType valueType = schema.valueTypes[((int) keyIndex - 1)];
+            if (key == null) {
+                skipValue(in, valueType);
+            } else if (valueType == ValueType.NUMBER) {
+                // avoid boxing
+                int numberType = readByte(in);
+                if (numberType == NUMBER_INT) {
+                    target.setInt(key, (int) readSignedVarint(in));
+                } else if (numberType == NUMBER_LONG) {
+                    target.setLong(key, readSignedVarint(in));
+                } else {
+                    target.set(key, readNumber(in, numberType));
+                }
+            } else if (valueType == ValueType.BOOLEAN) {
+                target.setBoolean(key, readBoolean(in));
+            } else {
+                target.set(key, readValue(in, valueType));
+            }
+        }
+        return target;
+    }
+
+    @Nonnull
+    @SuppressWarnings("unchecked")
+    private Object readValue(@Nonnull InputStream in, @Nonnull ValueType type) throws IOException {
+        if (type.isContainer()) {
+            assert type.getElementType() != null;
+            if (type.getType() == Optional.class) {
+                return readBoolean(in) ?
+                        Optional.existing(readValue(in, type.getElementType())) :
+                        Optional.missing(type.getElementType().getType());
+            } else if (Collection.class.isAssignableFrom(type.getType())) {
+                int size = readLength(in);
+                // sets keep the order they were written in
+                Collection<Object> d = type.getType() == List.class ?
+                        Lists.newArrayListWithCapacity(size) :
+                        Sets.newLinkedHashSet();
+                for (int i = 0; i < size; i++) { d.add(readValue(in, type.getElementType())); }
+                return d;
+            }
+        } else {
+            if (type == ValueType.BOOLEAN) { return readBoolean(in); }
+            if (type == ValueType.NUMBER) { return readNumber(in, readByte(in)); }
+            if (type == ValueType.URL) {
+                String url = readString(in);
+                try {
+                    return new URL(url);
+                } catch (MalformedURLException e) {
+                    throw new IOException("Invalid URL: " + url, e);
+                }
+            }
+            if (type == ValueType.STRING) { return readString(in); }
+            if (type == ValueType.DATE) { return new Date(readSignedVarint(in)); }
+            if (type == ValueType.FORMATTED_STRING) { return readFormattedString(in); }
+            if (isIdentifiable(type)) { return readIdentifiable(in, type); }
+            if (Bundle.class.isAssignableFrom(type.getType())) {
+                return readBundleValues(in, (Class<? extends Bundle>) type.getType());
+            }
+        }
+
+        throw new UnsupportedOperationException(type + " is not supported for serialization.");
+    }
+
+    /**
+     * Skips a value of a key that does not exist (anymore).
+     */
+    private void skipValue(@Nonnull InputStream in, @Nullable ValueType type) throws IOException {
+        if (type == null) { throw new IOException("Cannot skip value of unknown type"); }
+        if (type.isContainer()) {
+            assert type.getElementType() != null;
+            if (type.getType() == Optional.class) {
+                if (readBoolean(in)) { skipValue(in, type.getElementType()); }
+            } else {
+                int size = readLength(in);
+                for (int i = 0; i < size; i++) { skipValue(in, type.getElementType()); }
+            }
+        } else if (type == ValueType.BOOLEAN) {
+            readByte(in);
+        } else if (type == ValueType.NUMBER) {
+            readNumber(in, readByte(in));
+        } else if (type == ValueType.URL || type == ValueType.STRING) {
+            skipFully(in, readLength(in));
+        } else if (type == ValueType.DATE) {
+            readVarint(in);
+        } else if (type == ValueType.FORMATTED_STRING) {
+            readFormattedString(in);
+        } else if (isIdentifiable(type)) {
+            if (readVarint(in) == 0) { skipFully(in, readLength(in)); }
+        } else if (Bundle.class.isAssignableFrom(type.getType())) {
+            BundleSchema schema = getSchema(type.getType());
+            long keyIndex;
+            while ((keyIndex = readVarint(in)) != 0) {
+                if (keyIndex > schema.keys.length) { throw new IOException("Invalid key in " + schema.name); }
+                skipValue(in, schema.valueTypes[((int) keyIndex - 1)]);
+            }
+        } else {
+            throw new UnsupportedOperationException(type + " is not supported for serialization.");
+        }
+    }
+
+    @Nonnull
+    private BundleSchema getSchema(@Nonnull Class<?> type) throws IOException {
+        BundleSchema schema = bundleSchemasByType.get(type);
+        if (schema == null) { throw new IOException("Missing schema of " + type.getSimpleName()); }
+        return schema;
+    }
+
+    @Nonnull
+    private Identifiable readIdentifiable(@Nonnull InputStream in, @Nonnull ValueType type) throws IOException {
+        long index = readVarint(in);
+        String id;
+        if (index == 0) {
+            id = readString(in);
+        } else {
+            Identifiable[] values = identifiables.get(type);
+            if (values == null || index > values.length) { throw new IOException("Invalid " + type + ": " + index); }
+            Identifiable value = values[((int) index - 1)];
+            if (value != null) { return value; }
+            id = identifiableIds.get(type)[((int) index - 1)];
+        }
+        Identifiable value = findIdentifiable(type, id);
+        if (value == null) { throw new IOException("Unknown " + type + " value: " + id); }
+        return value;
+    }
+
+    @Nonnull
+    private static FormattedString readFormattedString(@Nonnull InputStream in) throws IOException {
+        String text = readString(in);
+        int tagCount = readLength(in);
+        List<FormattedString.Tag> tags = Lists.newArrayListWithCapacity(tagCount);
+        int index = 0;
+        for (int i = 0; i < tagCount; i++) {
+            index += readLength(in);
+            long code = readVarint(in);
+            boolean start = (code & 1) != 0;
+            int formattingCode = (int) (code >>> 1);
+
+            FormattedString.Formatting formatting;
+            if (formattingCode == FORMATTING_SIZE) {
+                FormattedString.SizeUnit[] units = FormattedString.SizeUnit.values();
+                long unit = readVarint(in);
+                if (unit >= units.length) { throw new IOException("Invalid size unit: " + unit); }
+                formatting = FormattedString.size(Float.intBitsToFloat((int) readVarint(in)), units[((int) unit)]);
+            } else {
+                FormattedString.SimpleFormatting[] values = FormattedString.SimpleFormatting.values();
+                if (formattingCode < 0 || formattingCode > values.length) { throw new IOException("Invalid formatting: " + code); }
+                formatting = values[formattingCode - 1];
+            }
+            tags.add(new FormattedString.Tag(formatting, index, start));
+        }
+        if (index > text.length()) { throw new IOException("Tag index out of bounds: " + index); }
+        return FormattedString.create(text, tags);
+    }
+
+    @Nonnull
+    private static Number readNumber(@Nonnull InputStream in, int numberType) throws IOException {
+        switch (numberType) {
+        case NUMBER_LONG:
+            return readSignedVarint(in);
+        case NUMBER_INT:
+            return (int) readSignedVarint(in);
+        case NUMBER_DOUBLE:
+            return Double.longBitsToDouble(readLong(in));
+        default:
+            throw new IOException("Invalid number type: " + numberType);
+        }
+    }
+
+    private static boolean readBoolean(@Nonnull InputStream in) throws IOException {
+        return readByte(in) != 0;
+    }
+
+    private static void skipFully(@Nonnull InputStream in, int length) throws IOException {
+        while (length > 0) {
+            long skipped = in.skip(length);
+            if (skipped <= 0) {
+                readByte(in);
+                skipped = 1;
+            }
+            length -= skipped;
+        }
+    }
+
+    @Nullable
+    private static ValueType findValueType(@Nonnull String name) {
+        try {
+            return ValueType.valueOf(name);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Keys and ValueTypes of a bundle type as written in the header. Keys that do not exist in this version are
+     * null.
+     */
+    private static class BundleSchema {
+        @Nonnull final String name;
+        @Nullable final Class<? extends Bundle<?, ?>> type;
+        @Nonnull final Key[] keys;
+        @Nonnull final ValueType[] valueTypes;
+
+        BundleSchema(@Nonnull String name, @Nullable Class<? extends Bundle<?, ?>> type, @Nonnull Key[] keys,
+                     @Nonnull ValueType[] valueTypes) {
+            this.name = name;
+            this.type = type;
+            this.keys = keys;
+            this.valueTypes = valueTypes;
+        }
+    }
+
+    /**
+     * Receives the bundles read by #readBundles.
+     */
+    public static interface Callback<B> {
+        void onBundle(@Nonnull B bundle);
+    }
+}
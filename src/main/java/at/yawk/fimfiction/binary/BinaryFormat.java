@@ -0,0 +1,177 @@
+package at.yawk.fimfiction.binary;
+
+import at.yawk.fimfiction.data.*;
+import com.google.common.base.Charsets;
+import com.google.common.io.ByteStreams;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * Constants and low-level encoding methods shared by BinarySerializer and BinaryDeserializer.
+ * <p/>
+ * A stream starts with a header: the magic bytes, the format version and the schema, which lists the keys (ID and
+ * ValueType name) of every bundle type and the IDs of all known values of every Identifiable ValueType. Bundles are
+ * written after the header as records that only refer to the schema by index, so a record can be read on its own as
+ * long as the header has been read before. A record is the index of its bundle type followed by the bundle's values,
+ * each prefixed with the index of its key plus one, and a terminating zero.
+ *
+ * @author Jonas Konrad (yawkat)
+ */
+final class BinaryFormat {
+    static final byte[] MAGIC = { 'F', 'I', 'M', 'B' };
+    /**
+     * Has to be incremented whenever the encoding of a value changes. Added or removed keys and Identifiable values
+     * are handled by the schema and do not require a new version.
+     */
+    static final int VERSION = 1;
+
+    /**
+     * Bundle types in the order of the schema.
+     */
+    @SuppressWarnings("unchecked")
+    static final Class<? extends Bundle<?, ?>>[] BUNDLE_TYPES = new Class[]{
+            Story.class, Chapter.class, User.class, Shelf.class, SearchParameters.class, SearchResult.class
+    };
+
+    static final int NUMBER_LONG = 0;
+    static final int NUMBER_INT = 1;
+    static final int NUMBER_DOUBLE = 2;
+
+    /**
+     * Formatting code of FormattedString.Size, SimpleFormatting constants use their ordinal plus one.
+     */
+    static final int FORMATTING_SIZE = 0;
+
+    private BinaryFormat() {}
+
+    @Nonnull
+    @SuppressWarnings("unchecked")
+    static <B extends Bundle<?, ?>> B createBundle(@Nonnull Class<B> type) {
+        if (type == Story.class) { return (B) Story.createMutable(); }
+        if (type == Chapter.class) { return (B) Chapter.createMutable(); }
+        if (type == User.class) { return (B) User.createMutable(); }
+        if (type == SearchParameters.class) { return (B) SearchParameters.createMutable(); }
+        if (type == SearchResult.class) { return (B) SearchResult.createMutable(); }
+        if (type == Shelf.class) { return (B) Shelf.createMutable(); }
+        throw new UnsupportedOperationException("Unsupported bundle type: " + type.getSimpleName());
+    }
+
+    /**
+     * @return true if values of the given type are written by ID.
+     */
+    static boolean isIdentifiable(@Nonnull ValueType type) {
+        return !type.isContainer() && Identifiable.class.isAssignableFrom(type.getType());
+    }
+
+    /**
+     * Returns the values of the given Identifiable type that are listed in the schema.
+     */
+    @Nonnull
+    static Identifiable[] getKnownValues(@Nonnull ValueType type) {
+        if (type == ValueType.CHARACTER) { return FimCharacter.DefaultCharacter.values(); }
+        if (type == ValueType.TIMEFRAME) { return Timeframe.DefaultTimeframe.values(); }
+        Object[] constants = type.getType().getEnumConstants();
+        if (constants == null) {
+            throw new UnsupportedOperationException("Unsupported identifiable type: " + type);
+        }
+        Identifiable[] values = new Identifiable[constants.length];
+        System.arraycopy(constants, 0, values, 0, constants.length);
+        return values;
+    }
+
+    /**
+     * Finds the value of the given Identifiable type with the given ID, including generic characters and timeframes.
+     */
+    @Nullable
+    static Identifiable findIdentifiable(@Nonnull ValueType type, @Nonnull String id) {
+        for (Identifiable value : getKnownValues(type)) {
+            if (value.getId().equals(id)) { return value; }
+        }
+        if (type == ValueType.CHARACTER) { return FimCharacter.DefaultCharacter.forId(id); }
+        if (type == ValueType.TIMEFRAME) { return Timeframe.DefaultTimeframe.forId(id); }
+        return null;
+    }
+
+    // encoding
+
+    static void writeVarint(@Nonnull OutputStream out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    /**
+     * Writes a signed value so that small negative numbers stay small.
+     */
+    static void writeSignedVarint(@Nonnull OutputStream out, long value) throws IOException {
+        writeVarint(out, (value << 1) ^ (value >> 63));
+    }
+
+    static void writeString(@Nonnull OutputStream out, @Nonnull String value) throws IOException {
+        byte[] bytes = value.getBytes(Charsets.UTF_8);
+        writeVarint(out, bytes.length);
+        out.write(bytes);
+    }
+
+    static void writeLong(@Nonnull OutputStream out, long value) throws IOException {
+        for (int shift = 56; shift >= 0; shift -= 8) { out.write((int) (value >>> shift)); }
+    }
+
+    // decoding
+
+    static int readByte(@Nonnull InputStream in) throws IOException {
+        int b = in.read();
+        if (b == -1) { throw new EOFException(); }
+        return b;
+    }
+
+    static long readVarint(@Nonnull InputStream in) throws IOException {
+        return readVarint(in, readByte(in));
+    }
+
+    /**
+     * Reads a varint of which the first byte has already been read.
+     */
+    static long readVarint(@Nonnull InputStream in, int first) throws IOException {
+        long value = first & 0x7F;
+        int shift = 7;
+        int b = first;
+        while ((b & 0x80) != 0) {
+            if (shift > 63) { throw new IOException("Varint too long"); }
+            b = readByte(in);
+            value |= (long) (b & 0x7F) << shift;
+            shift += 7;
+        }
+        return value;
+    }
+
+    static int readLength(@Nonnull InputStream in) throws IOException {
+        long length = readVarint(in);
+        if (length < 0 || length > Integer.MAX_VALUE) { throw new IOException("Invalid length: " + length); }
+        return (int) length;
+    }
+
+    static long readSignedVarint(@Nonnull InputStream in) throws IOException {
+        long value = readVarint(in);
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    @Nonnull
+    static String readString(@Nonnull InputStream in) throws IOException {
+        byte[] bytes = new byte[readLength(in)];
+        ByteStreams.readFully(in, bytes);
+        return new String(bytes, Charsets.UTF_8);
+    }
+
+    static long readLong(@Nonnull InputStream in) throws IOException {
+        long value = 0;
+        for (int i = 0; i < 8; i++) { value = value << 8 | readByte(in); }
+        return value;
+    }
+}
@@ -0,0 +1,246 @@
+package at.yawk.fimfiction.binary;
+
+import static at.yawk.fimfiction.binary.BinaryFormat.*;
+
+import at.yawk.fimfiction.data.*;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Maps;
+import java.io.*;
+import java.net.URL;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import javax.annotation.Nonnull;
+
+/**
+ * Helper class to serialize Bundle instances to a compact binary format that can be read by BinaryDeserializer. See
+ * BinaryFormat for the layout of the data.
+ * <p/>
+ * The output is considerably smaller than JSON and much faster to read back since formatted strings do not have to
+ * be parsed again. It is not meant to be read by other applications. The OutputStream methods write byte by byte, so
+ * they should be given a buffered stream.
+ *
+ * @author Jonas Konrad (yawkat)
+ */
+public class BinarySerializer {
+    /**
+     * Index of each bundle type in the schema.
+     */
+    private final Map<Class<?>, Integer> bundleTypeIndices = Maps.newHashMap();
+    /**
+     * Index of each key in the schema of its bundle type.
+     */
+    private final Map<Key, Integer> keyIndices = Maps.newHashMap();
+    /**
+     * Index of each known value of each Identifiable ValueType.
+     */
+    private final Map<ValueType, Map<Identifiable, Integer>> identifiableIndices = Maps.newEnumMap(ValueType.class);
+
+    public BinarySerializer() {
+        for (int i = 0; i < BUNDLE_TYPES.length; i++) {
+            bundleTypeIndices.put(BUNDLE_TYPES[i], i);
+            int keyIndex = 0;
+            for (Key key : createBundle(BUNDLE_TYPES[i]).getPossibleKeys()) { keyIndices.put(key, keyIndex++); }
+        }
+        for (ValueType type : ValueType.values()) {
+            if (isIdentifiable(type)) {
+                Map<Identifiable, Integer> indices = Maps.newHashMap();
+                for (Identifiable value : getKnownValues(type)) { indices.put(value, indices.size()); }
+                identifiableIndices.put(type, indices);
+            }
+        }
+    }
+
+    /**
+     * Writes the header that has to precede the bundles written by #writeBundle.
+     */
+    public void writeHeader(@Nonnull OutputStream out) throws IOException {
+        out.write(MAGIC);
+        writeVarint(out, VERSION);
+
+        writeVarint(out, BUNDLE_TYPES.length);
+        for (Class<? extends Bundle<?, ?>> bundleType : BUNDLE_TYPES) {
+            writeString(out, bundleType.getSimpleName());
+            Set<? extends Key> keys = createBundle(bundleType).getPossibleKeys();
+            writeVarint(out, keys.size());
+            for (Key key : keys) {
+                writeString(out, key.getId());
+                writeString(out, key.getType().name());
+            }
+        }
+
+        writeVarint(out, identifiableIndices.size());
+        for (ValueType type : identifiableIndices.keySet()) {
+            writeString(out, type.name());
+            Identifiable[] values = getKnownValues(type);
+            writeVarint(out, values.length);
+            for (Identifiable value : values) { writeString(out, value.getId()); }
+        }
+    }
+
+    /**
+     * Writes a single bundle without header. Any amount of bundles can follow a header written by #writeHeader.
+     */
+    public void writeBundle(@Nonnull Bundle<?, ?> bundle, @Nonnull OutputStream out) throws IOException {
+        Preconditions.checkNotNull(bundle);
+        Preconditions.checkNotNull(out);
+
+        writeVarint(out, getBundleTypeIndex(bundle.getClass()));
+        writeBundleValues(bundle, out);
+    }
+
+    /**
+     * Serializes a single bundle including the header.
+     */
+    @Nonnull
+    public byte[] serializeBundle(@Nonnull Bundle<?, ?> bundle) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            writeHeader(out);
+            writeBundle(bundle, out);
+        } catch (IOException e) {
+            // ByteArrayOutputStream does not throw
+            throw new RuntimeException(e);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Writes a header followed by the given bundles. The bundles are requested from the iterable one at a time, so
+     * a lazy Iterable can be used to export any amount of bundles while only one of them is held in memory. The
+     * stream is flushed but not closed.
+     */
+    public void serializeBundles(@Nonnull Iterable<? extends Bundle<?, ?>> bundles, @Nonnull OutputStream out)
+            throws IOException {
+        Preconditions.checkNotNull(bundles);
+
+        OutputStream buffered = new BufferedOutputStream(out);
+        writeHeader(buffered);
+        for (Bundle<?, ?> bundle : bundles) { writeBundle(bundle, buffered); }
+        buffered.flush();
+    }
+
+    private int getBundleTypeIndex(@Nonnull Class<?> type) {
+        Integer index = bundleTypeIndices.get(type);
+        if (index == null) {
+            throw new UnsupportedOperationException("Unsupported bundle type: " + type.getSimpleName());
+        }
+        return index;
+    }
+
+    private <K extends Key> void writeBundleValues(@Nonnull Bundle<?, K> bundle, @Nonnull OutputStream out)
+            throws IOException {
+        for (K key : bundle.getSetKeys()) {
+            writeVarint(out, keyIndices.get(key) + 1);
+            writeValue(out, key.getType(), bundle.get(key));
+        }
+        writeVarint(out, 0);
+    }
+
+    private void writeValue(@Nonnull OutputStream out, @Nonnull ValueType type, @Nonnull Object o)
+            throws IOException {
+        if (type.isContainer()) {
+            assert type.getElementType() != null;
+            if (type.getType() == Optional.class) {
+                if (((Optional) o).exists()) {
+                    out.write(1);
+                    writeValue(out, type.getElementType(), ((Optional) o).get());
+                } else {
+                    out.write(0);
+                }
+                return;
+            } else if (Collection.class.isAssignableFrom(type.getType())) {
+                Collection<?> collection = (Collection<?>) o;
+                writeVarint(out, collection.size());
+                for (Object element : collection) { writeValue(out, type.getElementType(), element); }
+                return;
+            }
+        } else {
+            if (type == ValueType.BOOLEAN) {
+                out.write((Boolean) o ? 1 : 0);
+                return;
+            }
+            if (type == ValueType.NUMBER) {
+                writeNumber(out, (Number) o);
+                return;
+            }
+            if (type == ValueType.URL) {
+                writeString(out, ((URL) o).toExternalForm());
+                return;
+            }
+            if (type == ValueType.STRING) {
+                writeString(out, (String) o);
+                return;
+            }
+            if (type == ValueType.DATE) {
+                writeSignedVarint(out, ((Date) o).getTime());
+                return;
+            }
+            if (type == ValueType.FORMATTED_STRING) {
+                writeFormattedString(out, (FormattedString) o);
+                return;
+            }
+            if (isIdentifiable(type)) {
+                Integer index = identifiableIndices.get(type).get(o);
+                if (index == null) {
+                    // generic characters and timeframes
+                    writeVarint(out, 0);
+                    writeString(out, ((Identifiable) o).getId());
+                } else {
+                    writeVarint(out, index + 1);
+                }
+                return;
+            }
+            if (Bundle.class.isAssignableFrom(type.getType())) {
+                writeBundleValues((Bundle<?, ?>) o, out);
+                return;
+            }
+        }
+
+        throw new UnsupportedOperationException(type + " is not supported for serialization.");
+    }
+
+    private static void writeNumber(@Nonnull OutputStream out, @Nonnull Number number) throws IOException {
+        if (number instanceof Integer || number instanceof Short || number instanceof Byte) {
+            out.write(NUMBER_INT);
+            writeSignedVarint(out, number.intValue());
+        } else if (number instanceof Long) {
+            out.write(NUMBER_LONG);
+            writeSignedVarint(out, number.longValue());
+        } else {
+            out.write(NUMBER_DOUBLE);
+            writeLong(out, Double.doubleToLongBits(number.doubleValue()));
+        }
+    }
+
+    /**
+     * Writes the unformatted text followed by the tags, each as the distance to the previous tag and the formatting
+     * code shifted left by one with the start flag in the lowest bit.
+     */
+    private static void writeFormattedString(@Nonnull OutputStream out, @Nonnull FormattedString string)
+            throws IOException {
+        writeString(out, string.toString());
+        List<FormattedString.Tag> tags = string.getTags();
+        writeVarint(out, tags.size());
+        int previousIndex = 0;
+        for (FormattedString.Tag tag : tags) {
+            writeVarint(out, tag.getIndex() - previousIndex);
+            previousIndex = tag.getIndex();
+
+            FormattedString.Formatting formatting = tag.getFormatting();
+            int startFlag = tag.isStart() ? 1 : 0;
+            if (formatting instanceof FormattedString.SimpleFormatting) {
+                writeVarint(out, (((FormattedString.SimpleFormatting) formatting).ordinal() + 1) << 1 | startFlag);
+            } else if (formatting instanceof FormattedString.Size) {
+                FormattedString.Size size = (FormattedString.Size) formatting;
+                writeVarint(out, FORMATTING_SIZE << 1 | startFlag);
+                writeVarint(out, size.getUnit().ordinal());
+                writeVarint(out, Float.floatToIntBits(size.getSize()) & 0xFFFFFFFFL);
+            } else {
+                throw new IllegalArgumentException("Unsupported formatting: " + formatting);
+            }
+        }
+    }
+}
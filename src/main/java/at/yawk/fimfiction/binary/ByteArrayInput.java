@@ -0,0 +1,49 @@
+package at.yawk.fimfiction.binary;
+
+import java.io.InputStream;
+import javax.annotation.Nonnull;
+
+/**
+ * Unsynchronized replacement of ByteArrayInputStream. The deserializer reads most values byte by byte and the lock
+ * of ByteArrayInputStream#read made up about half of the time needed to read a bundle.
+ *
+ * @author Jonas Konrad (yawkat)
+ */
+final class ByteArrayInput extends InputStream {
+    @Nonnull private final byte[] data;
+    private final int end;
+    private int position;
+
+    ByteArrayInput(@Nonnull byte[] data, int offset, int length) {
+        this.data = data;
+        this.position = offset;
+        this.end = offset + length;
+    }
+
+    @Override
+    public int read() {
+        return position < end ? data[position++] & 0xFF : -1;
+    }
+
+    @Override
+    public int read(@Nonnull byte[] b, int off, int len) {
+        if (len == 0) { return 0; }
+        if (position >= end) { return -1; }
+        int count = Math.min(len, end - position);
+        System.arraycopy(data, position, b, off, count);
+        position += count;
+        return count;
+    }
+
+    @Override
+    public long skip(long n) {
+        long count = Math.max(Math.min(n, end - position), 0);
+        position += count;
+        return count;
+    }
+
+    @Override
+    public int available() {
+        return end - position;
+    }
+}
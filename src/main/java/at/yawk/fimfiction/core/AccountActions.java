@@ -3,15 +3,21 @@ package at.yawk.fimfiction.core;
 import at.yawk.fimfiction.data.*;
 import at.yawk.fimfiction.net.NetUtil;
 import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.AsyncFunction;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
 import com.google.gson.stream.JsonReader;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.Set;
+import java.util.concurrent.Executor;
 import javax.annotation.Nonnull;
 import org.apache.http.HttpResponse;
 import org.apache.http.client.HttpClient;
+import org.apache.http.nio.client.HttpAsyncClient;
 import org.ccil.cowan.tagsoup.Parser;
 import org.xml.sax.Attributes;
 import org.xml.sax.InputSource;
@@ -57,31 +63,61 @@ public class AccountActions {
         Preconditions.checkNotNull(httpClient);
         Preconditions.checkNotNull(story);
 
-        RatingParser parser = new RatingParser();
-
-
-        HttpResponse response = NetUtil.post(httpClient,
-                                             Constants.BASE_URL + "/rate.php",
-                                             "story",
-                                             story.get(Story.StoryKey.ID).toString(),
-                                             "rating",
-                                             like ? "100" : "0");
-
+        HttpResponse response = NetUtil.post(httpClient, Constants.BASE_URL + "/rate.php", likeProperties(story, like));
         try {
-            XMLReader xmlReader = new Parser();
-            xmlReader.setContentHandler(parser);
-            xmlReader.parse(new InputSource(response.getEntity().getContent()));
-
-            return Story.createMutable()
-                        .set(Story.StoryKey.LIKE_COUNT, parser.likeCount)
-                        .set(Story.StoryKey.DISLIKE_COUNT, parser.dislikeCount)
-                        .set(Story.StoryKey.RATING,
-                             parser.liked ? Rating.LIKE : parser.disliked ? Rating.DISLIKE : Rating.NONE);
+            return parseLike(response.getEntity().getContent());
         } finally {
             NetUtil.close(response);
         }
     }
 
+    /**
+     * Non-blocking version of #setLike. The response is parsed on the given executor.
+     *
+     * @see #setLike(org.apache.http.client.HttpClient, at.yawk.fimfiction.data.Story, boolean)
+     */
+    @Nonnull
+    public static ListenableFuture<Story> setLikeAsync(@Nonnull HttpAsyncClient httpClient,
+                                                       @Nonnull Executor parseExecutor,
+                                                       @Nonnull Story story,
+                                                       boolean like) throws MissingKeyException {
+        Preconditions.checkNotNull(httpClient);
+        Preconditions.checkNotNull(parseExecutor);
+        Preconditions.checkNotNull(story);
+
+        ListenableFuture<HttpResponse> response =
+                NetUtil.postAsync(httpClient, Constants.BASE_URL + "/rate.php", likeProperties(story, like));
+        return Futures.transform(response, new AsyncFunction<HttpResponse, Story>() {
+            @Override
+            public ListenableFuture<Story> apply(HttpResponse response) throws Exception {
+                try {
+                    return Futures.immediateFuture(parseLike(response.getEntity().getContent()));
+                } finally {
+                    NetUtil.close(response);
+                }
+            }
+        }, parseExecutor);
+    }
+
+    @Nonnull
+    private static String[] likeProperties(@Nonnull Story story, boolean like) throws MissingKeyException {
+        return new String[]{ "story", story.get(Story.StoryKey.ID).toString(), "rating", like ? "100" : "0" };
+    }
+
+    @Nonnull
+    private static Story parseLike(@Nonnull InputStream stream) throws IOException, SAXException {
+        RatingParser parser = new RatingParser();
+        XMLReader xmlReader = new Parser();
+        xmlReader.setContentHandler(parser);
+        xmlReader.parse(new InputSource(stream));
+
+        return Story.createMutable()
+                    .set(Story.StoryKey.LIKE_COUNT, parser.likeCount)
+                    .set(Story.StoryKey.DISLIKE_COUNT, parser.dislikeCount)
+                    .set(Story.StoryKey.RATING,
+                         parser.liked ? Rating.LIKE : parser.disliked ? Rating.DISLIKE : Rating.NONE);
+    }
+
     /**
      * Sets the favorite status for a story for this user.
      *
@@ -115,39 +151,81 @@ public class AccountActions {
 
         HttpResponse response = NetUtil.post(httpClient,
                                              Constants.BASE_URL + "/ajax/bookshelf_items/post.php",
-                                             "story",
-                                             story.get(Story.StoryKey.ID).toString(),
-                                             "bookshelf",
-                                             shelf.get(Shelf.ShelfKey.ID).toString(),
-                                             "task",
-                                             add ? "add" : "remove");
+                                             shelfProperties(story, shelf, add));
+        try {
+            return parseShelf(response.getEntity().getContent(), story, shelf);
+        } finally {
+            NetUtil.close(response);
+        }
+    }
 
+    /**
+     * Non-blocking version of #setShelf. The response is parsed on the given executor.
+     *
+     * @see #setShelf(org.apache.http.client.HttpClient, at.yawk.fimfiction.data.Story,
+     * at.yawk.fimfiction.data.Shelf, boolean)
+     */
+    @Nonnull
+    public static ListenableFuture<Story> setShelfAsync(@Nonnull HttpAsyncClient httpClient,
+                                                        @Nonnull Executor parseExecutor,
+                                                        @Nonnull final Story story,
+                                                        @Nonnull final Shelf shelf,
+                                                        boolean add) {
+        Preconditions.checkNotNull(httpClient);
+        Preconditions.checkNotNull(parseExecutor);
+        Preconditions.checkNotNull(story);
+        Preconditions.checkNotNull(shelf);
+
+        ListenableFuture<HttpResponse> response = NetUtil.postAsync(httpClient,
+                                                                    Constants.BASE_URL +
+                                                                    "/ajax/bookshelf_items/post.php",
+                                                                    shelfProperties(story, shelf, add));
+        return Futures.transform(response, new AsyncFunction<HttpResponse, Story>() {
+            @Override
+            public ListenableFuture<Story> apply(HttpResponse response) throws Exception {
+                try {
+                    return Futures.immediateFuture(parseShelf(response.getEntity().getContent(), story, shelf));
+                } finally {
+                    NetUtil.close(response);
+                }
+            }
+        }, parseExecutor);
+    }
+
+    @Nonnull
+    private static String[] shelfProperties(@Nonnull Story story, @Nonnull Shelf shelf, boolean add) {
+        return new String[]{
+                "story", story.get(Story.StoryKey.ID).toString(),
+                "bookshelf", shelf.get(Shelf.ShelfKey.ID).toString(),
+                "task", add ? "add" : "remove"
+        };
+    }
+
+    @Nonnull
+    private static Story parseShelf(@Nonnull InputStream stream, @Nonnull Story story, @Nonnull Shelf shelf)
+            throws IOException {
         Set<Shelf> newShelves = new HashSet<Shelf>(story.<Set<Shelf>>get(Story.StoryKey.SHELVES_ADDED));
 
-        try {
-            JsonReader reader = new JsonReader(new InputStreamReader(response.getEntity().getContent()));
-            reader.beginObject();
-            while (reader.hasNext()) {
-                String name = reader.nextName();
-                if (name.equals("added")) {
-                    boolean added = reader.nextBoolean();
-                    for (Iterator<Shelf> iterator = newShelves.iterator(); iterator.hasNext(); ) {
-                        Shelf shel = iterator.next();
-                        if (shel.getInt(Shelf.ShelfKey.ID) == shelf.getInt(Shelf.ShelfKey.ID)) {
-                            iterator.remove();
-                        }
-                    }
-                    if (added) {
-                        newShelves.add(shelf);
+        JsonReader reader = new JsonReader(new InputStreamReader(stream));
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (name.equals("added")) {
+                boolean added = reader.nextBoolean();
+                for (Iterator<Shelf> iterator = newShelves.iterator(); iterator.hasNext(); ) {
+                    Shelf shel = iterator.next();
+                    if (shel.getInt(Shelf.ShelfKey.ID) == shelf.getInt(Shelf.ShelfKey.ID)) {
+                        iterator.remove();
                     }
-                } else {
-                    reader.skipValue();
                 }
+                if (added) {
+                    newShelves.add(shelf);
+                }
+            } else {
+                reader.skipValue();
             }
-            reader.endObject();
-        } finally {
-            NetUtil.close(response);
         }
+        reader.endObject();
 
         Story newStory = story.mutableVersion();
         newStory.set(Story.StoryKey.SHELVES_ADDED, newShelves);
@@ -171,17 +249,50 @@ public class AccountActions {
                                              Constants.BASE_URL + "/ajax/toggle_read.php",
                                              "chapter",
                                              chapter.get(Chapter.ChapterKey.ID).toString());
-
         try {
-            XMLReader r = new Parser();
-            UnreadParser parser = new UnreadParser();
-            r.setContentHandler(parser);
-            r.parse(new InputSource(response.getEntity().getContent()));
-            return Chapter.createMutable().set(Chapter.ChapterKey.UNREAD, parser.unread);
+            return parseUnread(response.getEntity().getContent());
         } finally {
             NetUtil.close(response);
         }
     }
+
+    /**
+     * Non-blocking version of #toggleRead. The response is parsed on the given executor.
+     *
+     * @see #toggleRead(org.apache.http.client.HttpClient, at.yawk.fimfiction.data.Chapter)
+     */
+    @Nonnull
+    public static ListenableFuture<Chapter> toggleReadAsync(@Nonnull HttpAsyncClient httpClient,
+                                                            @Nonnull Executor parseExecutor,
+                                                            @Nonnull Chapter chapter) {
+        Preconditions.checkNotNull(httpClient);
+        Preconditions.checkNotNull(parseExecutor);
+        Preconditions.checkNotNull(chapter);
+
+        ListenableFuture<HttpResponse> response = NetUtil.postAsync(httpClient,
+                                                                    Constants.BASE_URL + "/ajax/toggle_read.php",
+                                                                    "chapter",
+                                                                    chapter.get(Chapter.ChapterKey.ID).toString());
+        return Futures.transform(response, new AsyncFunction<HttpResponse, Chapter>() {
+            @Override
+            public ListenableFuture<Chapter> apply(HttpResponse response) throws Exception {
+                try {
+                    return Futures.immediateFuture(parseUnread(response.getEntity().getContent()));
+                } finally {
+                    NetUtil.close(response);
+                }
+            }
+        }, parseExecutor);
+    }
+
+    @Nonnull
+    private static Chapter parseUnread(@Nonnull InputStream stream) throws IOException, SAXException {
+        XMLReader r = new Parser();
+        UnreadParser parser = new UnreadParser();
+        r.setContentHandler(parser);
+        r.parse(new InputSource(stream));
+        return Chapter.createMutable().set(Chapter.ChapterKey.UNREAD, parser.unread);
+    }
 }
 
 class RatingParser extends DefaultHandler {
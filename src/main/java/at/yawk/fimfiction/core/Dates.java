@@ -0,0 +1,215 @@
+package at.yawk.fimfiction.core;
+
+import java.text.ParseException;
+import java.util.Date;
+import java.util.TimeZone;
+import javax.annotation.Nonnull;
+
+/**
+ * Parsing and formatting of the date formats used by Fimfiction and the JSON serializer. Unlike SimpleDateFormat
+ * these methods are thread-safe and do not need a formatter instance, so they are shared by all parsers.
+ *
+ * @author Jonas Konrad (yawkat)
+ */
+public final class Dates {
+    private static final String[] MONTHS = {
+            "january", "february", "march", "april", "may", "june",
+            "july", "august", "september", "october", "november", "december"
+    };
+    private static final long MILLIS_PER_MINUTE = 60 * 1000L;
+    private static final long MILLIS_PER_DAY = 24 * 60 * MILLIS_PER_MINUTE;
+    /**
+     * Time zone of day dates. Captured once because TimeZone#getDefault returns a new copy on every call.
+     */
+    private static final TimeZone LOCAL_TIME_ZONE = TimeZone.getDefault();
+
+    private Dates() {}
+
+    /**
+     * Parses a day as shown on Fimfiction story cards, for example "10th Feb 2011" (the ordinal suffix is optional
+     * and full month names are accepted as well). The result is midnight of that day in the default time zone.
+     *
+     * @throws ParseException if the text is not in this format.
+     */
+    @Nonnull
+    public static Date parseDay(@Nonnull String text) throws ParseException {
+        int end = text.length();
+        while (end > 0 && Character.isWhitespace(text.charAt(end - 1))) { end--; }
+        int i = skipWhitespace(text, 0, end);
+
+        int dayStart = i;
+        while (i < end && i - dayStart < 2 && isDigit(text.charAt(i))) { i++; }
+        int day = digits(text, dayStart, i - dayStart);
+        // ordinal suffix
+        while (i < end && Character.isLetter(text.charAt(i))) { i++; }
+
+        int monthStart = skipWhitespace(text, i, end);
+        i = monthStart;
+        while (i < end && Character.isLetter(text.charAt(i))) { i++; }
+        int month = month(text, monthStart, i);
+
+        int yearStart = skipWhitespace(text, i, end);
+        if (yearStart == i || end - yearStart > 9) { throw new ParseException(text, yearStart); }
+        int year = digits(text, yearStart, end - yearStart);
+
+        return new Date(localMidnight(daysFromCivil(year, month, day) * MILLIS_PER_DAY));
+    }
+
+    /**
+     * Converts midnight UTC to midnight of the same day in the local time zone. If midnight falls into a DST gap,
+     * the standard offset is used like a lenient Calendar does, which results in 01:00 local time.
+     */
+    private static long localMidnight(long utc) {
+        int offset = LOCAL_TIME_ZONE.getOffset(utc - LOCAL_TIME_ZONE.getRawOffset());
+        int actualOffset = LOCAL_TIME_ZONE.getOffset(utc - offset);
+        if (offset == actualOffset) { return utc - offset; }
+        // there is a transition between our guess and midnight
+        if (LOCAL_TIME_ZONE.getOffset(utc - actualOffset) == actualOffset) { return utc - actualOffset; }
+        return utc - Math.min(offset, actualOffset);
+    }
+
+    /**
+     * Parses an ISO 8601 timestamp with minute or second precision and a time zone, for example
+     * "2013-10-01T18:22:00+00:00" as used in RSS feeds or "2011-08-03T19:09Z" as written by #formatIso.
+     *
+     * @throws ParseException if the text is not in this format.
+     */
+    @Nonnull
+    public static Date parseIso(@Nonnull String text) throws ParseException {
+        int year = digits(text, 0, 4);
+        expect(text, 4, '-');
+        int month = digits(text, 5, 2);
+        expect(text, 7, '-');
+        int day = digits(text, 8, 2);
+        expect(text, 10, 'T');
+        int hour = digits(text, 11, 2);
+        expect(text, 13, ':');
+        int minute = digits(text, 14, 2);
+        int i = 16;
+        int second = 0;
+        int millisecond = 0;
+        if (i < text.length() && text.charAt(i) == ':') {
+            second = digits(text, i + 1, 2);
+            i += 3;
+            if (i < text.length() && text.charAt(i) == '.') {
+                int fractionStart = ++i;
+                while (i < text.length() && isDigit(text.charAt(i))) { i++; }
+                if (i == fractionStart) { throw new ParseException(text, i); }
+                // only milliseconds are kept
+                int length = Math.min(i - fractionStart, 3);
+                millisecond = digits(text, fractionStart, length);
+                for (; length < 3; length++) { millisecond *= 10; }
+            }
+        }
+
+        int offsetMinutes;
+        if (i == text.length()) { throw new ParseException(text, i); }
+        char zone = text.charAt(i++);
+        if (zone == 'Z') {
+            offsetMinutes = 0;
+        } else if (zone == '+' || zone == '-') {
+            int offsetHours = digits(text, i, 2);
+            i += 2;
+            if (i < text.length() && text.charAt(i) == ':') { i++; }
+            offsetMinutes = offsetHours * 60 + digits(text, i, 2);
+            i += 2;
+            if (zone == '-') { offsetMinutes = -offsetMinutes; }
+        } else {
+            throw new ParseException(text, i - 1);
+        }
+        if (i != text.length()) { throw new ParseException(text, i); }
+
+        long minutes = (daysFromCivil(year, month, day) * 24 + hour) * 60 + minute - offsetMinutes;
+        return new Date(minutes * MILLIS_PER_MINUTE + second * 1000L + millisecond);
+    }
+
+    /**
+     * Formats the given date in UTC with minute precision, for example "2011-08-03T19:09Z".
+     */
+    @Nonnull
+    public static String formatIso(@Nonnull Date date) {
+        long millis = date.getTime();
+        long days = millis / MILLIS_PER_DAY;
+        long millisOfDay = millis % MILLIS_PER_DAY;
+        if (millisOfDay < 0) {
+            days--;
+            millisOfDay += MILLIS_PER_DAY;
+        }
+        int minuteOfDay = (int) (millisOfDay / MILLIS_PER_MINUTE);
+
+        // civil from days, see #daysFromCivil
+        long z = days + 719468;
+        long era = (z >= 0 ? z : z - 146096) / 146097;
+        int dayOfEra = (int) (z - era * 146097);
+        int yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+        int dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        int shiftedMonth = (5 * dayOfYear + 2) / 153;
+        int day = dayOfYear - (153 * shiftedMonth + 2) / 5 + 1;
+        int month = shiftedMonth < 10 ? shiftedMonth + 3 : shiftedMonth - 9;
+        long year = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+
+        StringBuilder builder = new StringBuilder(17);
+        String yearString = Long.toString(year);
+        for (int i = yearString.length(); i < 4; i++) { builder.append('0'); }
+        builder.append(yearString).append('-');
+        appendTwoDigits(builder, month).append('-');
+        appendTwoDigits(builder, day).append('T');
+        appendTwoDigits(builder, minuteOfDay / 60).append(':');
+        appendTwoDigits(builder, minuteOfDay % 60).append('Z');
+        return builder.toString();
+    }
+
+    /**
+     * Days since 1970-01-01 of the given day of the proleptic Gregorian calendar. Like a lenient Calendar, days
+     * that exceed their month roll over into the following month. The algorithm counts in eras of 400 years
+     * that start on March 1st so the leap day is the last day of a year.
+     */
+    static long daysFromCivil(long year, int month, int day) {
+        if (month <= 2) { year--; }
+        long era = (year >= 0 ? year : year - 399) / 400;
+        int yearOfEra = (int) (year - era * 400);
+        int dayOfYear = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+        int dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097 + dayOfEra - 719468;
+    }
+
+    private static int month(@Nonnull String text, int start, int end) throws ParseException {
+        int length = end - start;
+        if (length >= 3) {
+            for (int i = 0; i < MONTHS.length; i++) {
+                String month = MONTHS[i];
+                if ((length == 3 || length == month.length()) && month.regionMatches(true, 0, text, start, length)) {
+                    return i + 1;
+                }
+            }
+        }
+        throw new ParseException(text, start);
+    }
+
+    private static int digits(@Nonnull String text, int start, int count) throws ParseException {
+        if (count == 0 || start + count > text.length()) { throw new ParseException(text, start); }
+        int value = 0;
+        for (int i = start; i < start + count; i++) {
+            char c = text.charAt(i);
+            if (!isDigit(c)) { throw new ParseException(text, i); }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+    private static void expect(@Nonnull String text, int index, char expected) throws ParseException {
+        if (index >= text.length() || text.charAt(index) != expected) { throw new ParseException(text, index); }
+    }
+
+    private static int skipWhitespace(@Nonnull String text, int start, int end) {
+        while (start < end && Character.isWhitespace(text.charAt(start))) { start++; }
+        return start;
+    }
+
+    private static boolean isDigit(char c) { return c >= '0' && c <= '9'; }
+
+    @Nonnull
+    private static StringBuilder appendTwoDigits(@Nonnull StringBuilder builder, int value) {
+        return builder.append((char) ('0' + value / 10)).append((char) ('0' + value % 10));
+    }
+}
@@ -3,16 +3,48 @@ package at.yawk.fimfiction.core;
 import at.yawk.fimfiction.data.Chapter;
 import at.yawk.fimfiction.data.Story;
 import at.yawk.fimfiction.net.NetUtil;
+import com.google.common.base.Charsets;
 import com.google.common.base.Preconditions;
+import com.google.common.io.Files;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.net.URI;
+import java.net.URISyntaxException;
 import java.net.URL;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.HttpClient;
 
 /**
- * Utility methods for building download URLs for the content of stories and chapters.
+ * Utility methods for building download URLs for the content of stories and chapters and for downloading that
+ * content to disk.
  *
  * @author Jonas Konrad (yawkat)
  */
 public class Download {
+    /**
+     * Size of the buffer downloads are copied through.
+     */
+    private static final int BUFFER_SIZE = 64 * 1024;
+    /**
+     * Suffix of the file that holds an incomplete download.
+     */
+    static final String PARTIAL_SUFFIX = ".part";
+    /**
+     * Suffix of the file that holds the validator of the response an incomplete download was started with.
+     */
+    static final String VALIDATOR_SUFFIX = ".part.validator";
+    private static final Pattern CONTENT_RANGE = Pattern.compile("bytes (?:(\\d+)-(\\d+)|\\*)/(\\d+|\\*)");
+
     private Download() {}
 
     /**
@@ -58,6 +90,250 @@ public class Download {
         }
     }
 
+    /**
+     * Downloads the given story in the given format to a file.
+     *
+     * @see #fetch(org.apache.http.client.HttpClient, java.net.URL, java.io.File, ProgressListener)
+     */
+    public static long fetch(@Nonnull HttpClient httpClient,
+                             @Nonnull Story story,
+                             @Nonnull Format format,
+                             @Nonnull File target) throws IOException {
+        return fetch(httpClient, story, format, target, null);
+    }
+
+    /**
+     * Downloads the given story in the given format to a file.
+     *
+     * @see #fetch(org.apache.http.client.HttpClient, java.net.URL, java.io.File, ProgressListener)
+     */
+    public static long fetch(@Nonnull HttpClient httpClient,
+                             @Nonnull Story story,
+                             @Nonnull Format format,
+                             @Nonnull File target,
+                             @Nullable ProgressListener listener) throws IOException {
+        return fetch(httpClient, getStoryDownloadUrl(story, format), target, listener);
+    }
+
+    /**
+     * Downloads the given chapter in the given format to a file.
+     *
+     * @throws UnsupportedOperationException for EPUB.
+     * @see #fetch(org.apache.http.client.HttpClient, java.net.URL, java.io.File, ProgressListener)
+     */
+    public static long fetch(@Nonnull HttpClient httpClient,
+                             @Nonnull Chapter chapter,
+                             @Nonnull Format format,
+                             @Nonnull File target) throws IOException {
+        return fetch(httpClient, chapter, format, target, null);
+    }
+
+    /**
+     * Downloads the given chapter in the given format to a file.
+     *
+     * @throws UnsupportedOperationException for EPUB.
+     * @see #fetch(org.apache.http.client.HttpClient, java.net.URL, java.io.File, ProgressListener)
+     */
+    public static long fetch(@Nonnull HttpClient httpClient,
+                             @Nonnull Chapter chapter,
+                             @Nonnull Format format,
+                             @Nonnull File target,
+                             @Nullable ProgressListener listener) throws IOException {
+        return fetch(httpClient, getChapterDownloadUrl(chapter, format), target, listener);
+    }
+
+    /**
+     * Downloads the given URL to a file. The response is copied to the disk through a small buffer, so the download
+     * is never held in memory as a whole.
+     * <p/>
+     * The data is first written to the target path with the suffix <code>.part</code> and only moved to the target
+     * once it is complete. If that partial file already exists, for example because a previous download failed, only
+     * the missing rest is requested with a HTTP Range request. The range is made conditional with If-Range on the
+     * strong ETag or the Last-Modified date of the response the partial file was started with, so a resource that
+     * changed meanwhile is downloaded again as a whole. Partial files without such a validator are discarded. Servers
+     * that do not support ranges send the whole file again, which then replaces the partial file.
+     *
+     * @return the size of the downloaded file in bytes.
+     * @throws IOException if the request fails or the server does not respond with the file. The partial file is
+     *                     kept so the download can be resumed by calling this method again.
+     */
+    public static long fetch(@Nonnull HttpClient httpClient,
+                             @Nonnull URL url,
+                             @Nonnull File target,
+                             @Nullable ProgressListener listener) throws IOException {
+        Preconditions.checkNotNull(httpClient);
+        Preconditions.checkNotNull(url);
+        Preconditions.checkNotNull(target);
+
+        File partial = new File(target.getPath() + PARTIAL_SUFFIX);
+        File validatorFile = new File(target.getPath() + VALIDATOR_SUFFIX);
+        URI uri;
+        try {
+            uri = url.toURI();
+        } catch (URISyntaxException e) {
+            throw new IllegalArgumentException(e);
+        }
+
+        long offset = partial.length(); // 0 if missing
+        String validator = validatorFile.exists() ? Files.toString(validatorFile, Charsets.UTF_8) : "";
+        if (validator.isEmpty()) {
+            // the partial file cannot be resumed safely
+            offset = 0;
+        }
+        HttpResponse response = NetUtil.get(httpClient, uri, offset, validator);
+        boolean complete = false;
+        try {
+            int status = response.getStatusLine().getStatusCode();
+            if (status == HttpStatus.SC_REQUESTED_RANGE_NOT_SATISFIABLE && offset > 0) {
+                // the partial file is either complete or longer than the file on the server
+                long[] range = parseContentRange(response);
+                if (range != null && range[2] == offset) {
+                    complete = true;
+                } else {
+                    delete(partial);
+                    delete(validatorFile);
+                }
+            } else {
+                HttpEntity entity = response.getEntity();
+                if (entity == null) { throw new IOException("No content from " + url); }
+                long total;
+                if (status == HttpStatus.SC_PARTIAL_CONTENT) {
+                    long[] range = parseContentRange(response);
+                    if (range == null || range[0] != offset) {
+                        throw new IOException("Unexpected content range from " + url);
+                    }
+                    total = range[2];
+                } else if (status == HttpStatus.SC_OK) {
+                    offset = 0; // whole file, overwrite the partial one
+                    total = -1;
+                    String newValidator = getValidator(response);
+                    if (newValidator == null) {
+                        delete(validatorFile);
+                    } else {
+                        Files.write(newValidator, validatorFile, Charsets.UTF_8);
+                    }
+                } else {
+                    throw new IOException("Unexpected status " + response.getStatusLine() + " from " + url);
+                }
+                if (total < 0 && entity.getContentLength() >= 0) { total = offset + entity.getContentLength(); }
+
+                offset = copy(entity.getContent(), partial, offset, total, listener);
+                if (total >= 0 && offset != total) {
+                    throw new IOException("Download of " + url + " ended after " + offset + " of " + total + " bytes");
+                }
+                complete = true;
+            }
+        } finally {
+            if (complete) {
+                NetUtil.close(response);
+            } else {
+                NetUtil.abort(response);
+            }
+        }
+        if (!complete) {
+            // the partial file was deleted, start over
+            return fetch(httpClient, url, target, listener);
+        }
+
+        if (!partial.renameTo(target)) {
+            // renameTo does not replace existing files on some platforms
+            delete(target);
+            if (!partial.renameTo(target)) {
+                throw new IOException("Could not rename " + partial + " to " + target);
+            }
+        }
+        delete(validatorFile);
+        return offset;
+    }
+
+    /**
+     * Returns the validator that can be sent as If-Range to resume the body of the given response: its strong ETag
+     * or, without one, its Last-Modified date.
+     *
+     * @return the validator or null if the response has neither.
+     */
+    @Nullable
+    private static String getValidator(@Nonnull HttpResponse response) {
+        Header etag = response.getFirstHeader(HttpHeaders.ETAG);
+        // weak tags are not allowed in If-Range
+        if (etag != null && !etag.getValue().startsWith("W/")) { return etag.getValue(); }
+        Header lastModified = response.getFirstHeader(HttpHeaders.LAST_MODIFIED);
+        return lastModified == null ? null : lastModified.getValue();
+    }
+
+    private static void delete(@Nonnull File file) throws IOException {
+        if (file.exists() && !file.delete()) { throw new IOException("Could not delete " + file); }
+    }
+
+    /**
+     * Writes the stream to the file starting at the given offset, truncating anything after it.
+     *
+     * @return the length of the file.
+     */
+    private static long copy(@Nonnull InputStream in,
+                             @Nonnull File file,
+                             long offset,
+                             long total,
+                             @Nullable ProgressListener listener) throws IOException {
+        long start = System.nanoTime();
+        long position = offset;
+        RandomAccessFile out = new RandomAccessFile(file, "rw");
+        try {
+            out.setLength(offset);
+            out.seek(offset);
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+                position += read;
+                if (listener != null) {
+                    long elapsed = System.nanoTime() - start;
+                    double bytesPerSecond = elapsed == 0 ? 0 : (position - offset) * 1e9 / elapsed;
+                    listener.onProgress(position, total, bytesPerSecond);
+                }
+            }
+        } finally {
+            in.close();
+            out.close();
+        }
+        return position;
+    }
+
+    /**
+     * Parses the Content-Range header of a response.
+     *
+     * @return the first byte, last byte and total length of the header or null if it is missing or malformed. The
+     * first and last byte are -1 for unsatisfied ranges, the total length is -1 if unknown.
+     */
+    @Nullable
+    static long[] parseContentRange(@Nonnull HttpResponse response) {
+        Header header = response.getFirstHeader(HttpHeaders.CONTENT_RANGE);
+        if (header == null) { return null; }
+        Matcher matcher = CONTENT_RANGE.matcher(header.getValue().trim());
+        if (!matcher.matches()) { return null; }
+        long[] range = { -1, -1, -1 };
+        if (matcher.group(1) != null) {
+            range[0] = Long.parseLong(matcher.group(1));
+            range[1] = Long.parseLong(matcher.group(2));
+        }
+        if (!matcher.group(3).equals("*")) { range[2] = Long.parseLong(matcher.group(3)); }
+        return range;
+    }
+
+    /**
+     * Receives the progress of a download.
+     */
+    public static interface ProgressListener {
+        /**
+         * Called after every block of data that was written to the disk.
+         *
+         * @param transferred    the amount of bytes in the file so far, including those of a resumed download.
+         * @param total          the expected size of the file or -1 if the server did not send it.
+         * @param bytesPerSecond the average speed of this download since its request was sent.
+         */
+        void onProgress(long transferred, long total, double bytesPerSecond);
+    }
+
     public static enum Format {
         /**
          * Unformatted text.
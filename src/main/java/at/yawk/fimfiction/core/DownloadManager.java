@@ -0,0 +1,355 @@
+package at.yawk.fimfiction.core;
+
+import at.yawk.fimfiction.data.Story;
+import com.google.common.base.Charsets;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Maps;
+import com.google.common.io.Files;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.annotation.Nonnull;
+import org.apache.http.client.HttpClient;
+
+/**
+ * Downloads many stories to a directory in the background. Every format has its own queue that is worked off by a
+ * fixed amount of threads, so slow EPUB downloads do not hold up text downloads.
+ * <p/>
+ * A story is stored as <code>&lt;id&gt;.&lt;extension&gt;</code> in the directory. After a download the modification
+ * time of the file is set to the Story#DATE_UPDATED of the story it was requested for, so a later job for a story that
+ * was not updated since is skipped without a request. Jobs for a story and format that is already queued or running
+ * are merged with the existing job.
+ * <p/>
+ * Downloads use Download#fetch, so files of failed jobs are resumed by the next job for the same story and format.
+ * The update date a partial file belongs to is stored next to it, and a partial file of a different version of the
+ * story is discarded instead of resumed.
+ * The HttpClient should allow at least as many concurrent connections to Fimfiction as the sum of all
+ * concurrencies. Instances are thread-safe.
+ *
+ * @author Jonas Konrad (yawkat)
+ */
+public class DownloadManager implements Closeable {
+    /**
+     * Length of the window #getBytesPerSecond is averaged over.
+     */
+    private static final int THROUGHPUT_WINDOW_SECONDS = 10;
+    /**
+     * Suffix of the file that holds the Story#DATE_UPDATED, in milliseconds, of the story a partial download is of.
+     */
+    static final String PARTIAL_VERSION_SUFFIX = ".part.updated";
+
+    @Nonnull private final HttpClient httpClient;
+    @Nonnull private final File directory;
+
+    private final Map<Download.Format, Integer> concurrencies = Maps.newEnumMap(Download.Format.class);
+    private final Map<Download.Format, ExecutorService> executors = Maps.newEnumMap(Download.Format.class);
+    private boolean closed = false;
+
+    /**
+     * Queued and running jobs of each format by story ID.
+     */
+    private final Map<Download.Format, ConcurrentMap<Integer, Job>> jobs = Maps.newEnumMap(Download.Format.class);
+
+    private final AtomicInteger queueDepth = new AtomicInteger();
+    private final AtomicInteger completedCount = new AtomicInteger();
+    private final AtomicInteger skippedCount = new AtomicInteger();
+    private final AtomicInteger failureCount = new AtomicInteger();
+    private final AtomicLong transferredBytes = new AtomicLong();
+
+    /**
+     * Bytes transferred in each of the last seconds, indexed by second modulo the window length.
+     */
+    private final long[] windowBytes = new long[THROUGHPUT_WINDOW_SECONDS];
+    private final long[] windowSeconds = new long[THROUGHPUT_WINDOW_SECONDS];
+
+    private DownloadManager(@Nonnull HttpClient httpClient, @Nonnull File directory) {
+        this.httpClient = httpClient;
+        this.directory = directory;
+        for (Download.Format format : Download.Format.values()) {
+            concurrencies.put(format, 2);
+            jobs.put(format, new ConcurrentHashMap<Integer, Job>());
+        }
+    }
+
+    /**
+     * Creates a new manager that stores downloads in the given directory.
+     */
+    @Nonnull
+    public static DownloadManager create(@Nonnull HttpClient httpClient, @Nonnull File directory) {
+        Preconditions.checkNotNull(httpClient);
+        Preconditions.checkNotNull(directory);
+        return new DownloadManager(httpClient, directory);
+    }
+
+    /**
+     * Maximum amount of downloads of each format that are performed at the same time (defaults to 2).
+     *
+     * @throws IllegalStateException if a job was already submitted.
+     */
+    @Nonnull
+    public DownloadManager concurrency(int concurrency) {
+        for (Download.Format format : Download.Format.values()) { concurrency(format, concurrency); }
+        return this;
+    }
+
+    /**
+     * Maximum amount of downloads of the given format that are performed at the same time (defaults to 2).
+     *
+     * @throws IllegalStateException if a job of that format was already submitted.
+     */
+    @Nonnull
+    public synchronized DownloadManager concurrency(@Nonnull Download.Format format, int concurrency) {
+        Preconditions.checkNotNull(format);
+        Preconditions.checkArgument(concurrency > 0);
+        Preconditions.checkState(!executors.containsKey(format), "Already started downloading %s", format);
+        concurrencies.put(format, concurrency);
+        return this;
+    }
+
+    /**
+     * Returns the file the given story is downloaded to in the given format.
+     */
+    @Nonnull
+    public File getFile(int storyId, @Nonnull Download.Format format) {
+        Preconditions.checkNotNull(format);
+        return new File(directory, storyId + "." + getExtension(format));
+    }
+
+    /**
+     * Queues a download of the given story. The story needs an ID and should have a DATE_UPDATED, stories without
+     * it are always downloaded again.
+     *
+     * @return a future that completes with the downloaded file, or with the existing file if the story did not change
+     * since it was downloaded. If the download fails, the future fails with the cause.
+     * @throws IllegalStateException if this manager was closed.
+     */
+    @Nonnull
+    public ListenableFuture<File> submit(@Nonnull Story story, @Nonnull Download.Format format) {
+        Preconditions.checkNotNull(story);
+        Preconditions.checkNotNull(format);
+
+        int id = story.getInt(Story.StoryKey.ID);
+        ConcurrentMap<Integer, Job> formatJobs = jobs.get(format);
+        Job job = new Job(story, format);
+        Job existing = formatJobs.putIfAbsent(id, job);
+        if (existing != null) { return existing.future; }
+
+        queueDepth.incrementAndGet();
+        try {
+            getExecutor(format).execute(job);
+        } catch (RuntimeException e) {
+            // closed, possibly concurrently
+            formatJobs.remove(id, job);
+            queueDepth.decrementAndGet();
+            throw e;
+        }
+        return job.future;
+    }
+
+    @Nonnull
+    private synchronized ExecutorService getExecutor(@Nonnull Download.Format format) {
+        if (closed) { throw new IllegalStateException("Closed"); }
+        ExecutorService executor = executors.get(format);
+        if (executor == null) {
+            executor = Executors.newFixedThreadPool(
+                    concurrencies.get(format),
+                    new ThreadFactoryBuilder().setDaemon(true)
+                                              .setNameFormat("Fimfiction " + format + " download #%d")
+                                              .build());
+            executors.put(format, executor);
+        }
+        return executor;
+    }
+
+    /**
+     * @return The amount of jobs that are queued or running.
+     */
+    public int getQueueDepth() {
+        return queueDepth.get();
+    }
+
+    /**
+     * @return The amount of jobs that downloaded their story successfully.
+     */
+    public int getCompletedCount() {
+        return completedCount.get();
+    }
+
+    /**
+     * @return The amount of jobs that were skipped because the story did not change since its last download.
+     */
+    public int getSkippedCount() {
+        return skippedCount.get();
+    }
+
+    /**
+     * @return The amount of jobs that failed.
+     */
+    public int getFailureCount() {
+        return failureCount.get();
+    }
+
+    /**
+     * @return The amount of bytes downloaded by all jobs so far.
+     */
+    public long getTransferredBytes() {
+        return transferredBytes.get();
+    }
+
+    /**
+     * @return The download speed of all jobs together, averaged over the last ten seconds.
+     */
+    public double getBytesPerSecond() {
+        long now = currentSecond();
+        long sum = 0;
+        synchronized (windowBytes) {
+            for (int i = 0; i < THROUGHPUT_WINDOW_SECONDS; i++) {
+                if (now - windowSeconds[i] < THROUGHPUT_WINDOW_SECONDS) { sum += windowBytes[i]; }
+            }
+        }
+        return (double) sum / THROUGHPUT_WINDOW_SECONDS;
+    }
+
+    private void recordBytes(long bytes) {
+        transferredBytes.addAndGet(bytes);
+        long now = currentSecond();
+        int slot = (int) (now % THROUGHPUT_WINDOW_SECONDS);
+        synchronized (windowBytes) {
+            if (windowSeconds[slot] != now) {
+                windowSeconds[slot] = now;
+                windowBytes[slot] = 0;
+            }
+            windowBytes[slot] += bytes;
+        }
+    }
+
+    private static long currentSecond() {
+        return System.nanoTime() / 1000000000L;
+    }
+
+    /**
+     * Stops all downloads. Queued jobs are cancelled, running jobs are interrupted and fail unless they complete
+     * anyway. Partial files are kept for resuming.
+     */
+    @Override
+    public synchronized void close() {
+        if (closed) { return; }
+        closed = true;
+        for (ExecutorService executor : executors.values()) {
+            for (Runnable queued : executor.shutdownNow()) { ((Job) queued).cancel(); }
+        }
+    }
+
+    @Nonnull
+    private static String getExtension(@Nonnull Download.Format format) {
+        switch (format) {
+        case TEXT:
+            return "txt";
+        case HTML:
+            return "html";
+        case EPUB:
+            return "epub";
+        default:
+            return format.name().toLowerCase();
+        }
+    }
+
+    private class Job implements Runnable {
+        private final Story story;
+        private final Download.Format format;
+        private final SettableFuture<File> future = SettableFuture.create();
+
+        Job(@Nonnull Story story, @Nonnull Download.Format format) {
+            this.story = story;
+            this.format = format;
+        }
+
+        @Override
+        public void run() {
+            int id = story.getInt(Story.StoryKey.ID);
+            File target = getFile(id, format);
+            try {
+                Date updated = story.has(Story.StoryKey.DATE_UPDATED) ?
+                        story.<Date>get(Story.StoryKey.DATE_UPDATED) : null;
+                if (updated != null && isArchived(target, updated)) {
+                    skippedCount.incrementAndGet();
+                    finish(target);
+                    return;
+                }
+
+                File partial = new File(target.getPath() + Download.PARTIAL_SUFFIX);
+                File version = new File(target.getPath() + PARTIAL_VERSION_SUFFIX);
+                String expectedVersion = updated == null ? "" : Long.toString(updated.getTime());
+                if (partial.exists() && !(version.exists() &&
+                                          Files.toString(version, Charsets.UTF_8).equals(expectedVersion))) {
+                    // left by a job for another version of the story or without update date
+                    delete(partial);
+                }
+                Files.write(expectedVersion, version, Charsets.UTF_8);
+
+                final long[] last = { partial.length() };
+                Download.fetch(httpClient, story, format, target, new Download.ProgressListener() {
+                    @Override
+                    public void onProgress(long transferred, long total, double bytesPerSecond) {
+                        // a restarted download counts from 0 again
+                        if (transferred < last[0]) { last[0] = 0; }
+                        recordBytes(transferred - last[0]);
+                        last[0] = transferred;
+                    }
+                });
+                delete(version);
+                if (updated != null && !target.setLastModified(updated.getTime())) {
+                    throw new IOException("Could not set the modification time of " + target);
+                }
+                completedCount.incrementAndGet();
+                finish(target);
+            } catch (Throwable t) {
+                failureCount.incrementAndGet();
+                fail(t);
+            }
+        }
+
+        /**
+         * Compares the modification time of the file to the update date with second precision, which all
+         * common file systems keep.
+         */
+        private boolean isArchived(@Nonnull File target, @Nonnull Date updated) {
+            return target.exists() && target.lastModified() / 1000 == updated.getTime() / 1000;
+        }
+
+        private void delete(@Nonnull File file) throws IOException {
+            if (file.exists() && !file.delete()) { throw new IOException("Could not delete " + file); }
+        }
+
+        void cancel() {
+            done();
+            future.cancel(false);
+        }
+
+        private void finish(@Nonnull File file) {
+            done();
+            future.set(file);
+        }
+
+        private void fail(@Nonnull Throwable cause) {
+            done();
+            future.setException(cause);
+        }
+
+        private void done() {
+            jobs.get(format).remove(story.getInt(Story.StoryKey.ID), this);
+            queueDepth.decrementAndGet();
+        }
+    }
+}
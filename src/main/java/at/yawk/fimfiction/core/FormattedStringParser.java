@@ -1,13 +1,12 @@
 package at.yawk.fimfiction.core;
 
 import at.yawk.fimfiction.data.FormattedString;
-import java.io.IOException;
-import java.io.StringReader;
-import org.ccil.cowan.tagsoup.Parser;
+import java.util.Arrays;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import org.apache.commons.lang.StringEscapeUtils;
 import org.xml.sax.Attributes;
-import org.xml.sax.InputSource;
 import org.xml.sax.SAXException;
-import org.xml.sax.XMLReader;
 import org.xml.sax.helpers.DefaultHandler;
 
 /**
@@ -16,103 +15,332 @@ import org.xml.sax.helpers.DefaultHandler;
  * @author Jonas Konrad (yawkat)
  */
 public class FormattedStringParser {
+    /**
+     * Parses BB markup. Tags are matched case-insensitively, unknown tags are removed from the text. This scans the
+     * input once and copies text between tags directly into the result.
+     */
     public static FormattedString parseBb(String val) {
-        FormattedString.FormattedStringBuilder builder = FormattedString.builder();
+        int length = val.length();
+        FormattedString.FormattedStringBuilder builder = FormattedString.builder(length);
         int i = 0;
         while (true) {
-            int nextPara = val.indexOf('[', i);
-            if (nextPara == -1) {
-                builder.append(val.substring(i));
-                break;
+            int open = val.indexOf('[', i);
+            if (open == -1) { break; }
+            int close = val.indexOf(']', open);
+            if (close == -1) { break; }
+            builder.append(val, i, open);
+            // the tag ends after the slash so close > open + 1 for end tags
+            boolean start = val.charAt(open + 1) != '/';
+            appendBbTag(builder, val, start ? open + 1 : open + 2, close, start);
+            i = close + 1;
+        }
+        builder.append(val, i, length);
+        return builder.build();
+    }
+
+    /**
+     * Appends the formatting of the tag body between from and to, if known.
+     */
+    private static void appendBbTag(FormattedString.FormattedStringBuilder builder,
+                                    String val,
+                                    int from,
+                                    int to,
+                                    boolean start) {
+        switch (to - from) {
+        case 1:
+            switch (toLowerCaseAscii(val.charAt(from))) {
+            case 'i':
+                builder.append(FormattedString.SimpleFormatting.ITALIC, start);
+                return;
+            case 'b':
+                builder.append(FormattedString.SimpleFormatting.BOLD, start);
+                return;
+            case 'u':
+                builder.append(FormattedString.SimpleFormatting.UNDERLINE, start);
+                return;
+            case 's':
+                builder.append(FormattedString.SimpleFormatting.STRIKETHROUGH, start);
+                return;
+            default:
+                return;
             }
-            builder.append(val.substring(i, nextPara));
-            i = nextPara;
-            nextPara = val.indexOf(']', i);
-            if (nextPara == -1) {
-                builder.append(val.substring(i));
-                break;
+        case 4:
+            if (regionEqualsIgnoreCase(val, from, "size")) {
+                builder.append(FormattedString.size(0, FormattedString.SizeUnit.PX), start);
+            }
+            return;
+        case 6:
+            if (regionEqualsIgnoreCase(val, from, "center")) {
+                builder.append(FormattedString.SimpleFormatting.CENTER, start);
+                return;
             }
-            boolean start = val.charAt(i + 1) != '/';
-            String tag = val.substring(i + (start ? 1 : 2), nextPara).toLowerCase();
-            for (FormattedString.Formatting formatting : FormattedString.SimpleFormatting.values()) {
-                if (formatting.getTag(FormattedString.Markup.BB, start).equals(tag)) {
-                    builder.append(formatting, start);
-                    break;
+            break;
+        }
+        if (to - from >= 5 && regionEqualsIgnoreCase(val, from, "size=")) {
+            FormattedString.Formatting size = parseSize(val.substring(from + 5, to).toLowerCase());
+            if (size != null) { builder.append(size, start); }
+        }
+    }
+
+    /**
+     * Parses a lower case size such as "1.5em", "12pt" or "12px". Sizes without unit are in pixels.
+     *
+     * @return the size or null if the value is malformed.
+     */
+    @Nullable
+    private static FormattedString.Formatting parseSize(String value) {
+        FormattedString.SizeUnit unit;
+        String num;
+        if (value.endsWith("em")) {
+            unit = FormattedString.SizeUnit.EM;
+            num = value.substring(0, value.length() - 2);
+        } else if (value.endsWith("pt")) {
+            unit = FormattedString.SizeUnit.PT;
+            num = value.substring(0, value.length() - 2);
+        } else if (value.endsWith("px")) {
+            unit = FormattedString.SizeUnit.PX;
+            num = value.substring(0, value.length() - 2);
+        } else {
+            unit = FormattedString.SizeUnit.PX;
+            num = value;
+        }
+        try {
+            return FormattedString.size(Float.parseFloat(num), unit);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Compares the region of val starting at the given index to the given lower case ASCII string, ignoring the case
+     * of ASCII letters in val. The region must be at least as long as the string.
+     */
+    private static boolean regionEqualsIgnoreCase(CharSequence val, int from, String lowerCase) {
+        for (int i = 0; i < lowerCase.length(); i++) {
+            if (toLowerCaseAscii(val.charAt(from + i)) != lowerCase.charAt(i)) { return false; }
+        }
+        return true;
+    }
+
+    private static char toLowerCaseAscii(char c) {
+        return c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c;
+    }
+
+    /**
+     * Parses HTML markup as used in story descriptions. Only the elements that can be represented by a
+     * FormattedString are interpreted: p and br become line breaks, b, i, u, s and center their SimpleFormatting and
+     * font (size attribute) and span (font-size style) a size. Other tags, comments and declarations are dropped,
+     * entities are decoded. Elements that are not closed explicitly end with the parent element or the input.
+     * <p/>
+     * This is a small tokenizer that reads the given sequence directly instead of going through a full HTML parser,
+     * so it is cheap even for very short descriptions.
+     */
+    @Nonnull
+    public static FormattedString parseHtml(@Nonnull CharSequence val) {
+        int length = val.length();
+        FormattedStringHandler handler = new FormattedStringHandler(length);
+        int i = 0;
+        while (i < length) {
+            char c = val.charAt(i);
+            if (c == '<') {
+                int end = scanHtmlTag(val, i, handler);
+                if (end != -1) {
+                    i = end;
+                    continue;
+                }
+            } else if (c == '&') {
+                int end = scanHtmlEntity(val, i, handler);
+                if (end != -1) {
+                    i = end;
+                    continue;
                 }
             }
-            if (tag.startsWith("size=")) {
-                try {
-                    FormattedString.SizeUnit unit = FormattedString.SizeUnit.PX;
-                    String num;
-                    if (tag.endsWith("em")) {
-                        unit = FormattedString.SizeUnit.EM;
-                        num = tag.substring(5, tag.length() - 2);
-                    } else if (tag.endsWith("pt")) {
-                        unit = FormattedString.SizeUnit.PT;
-                        num = tag.substring(5, tag.length() - 2);
-                    } else if (tag.endsWith("px")) {
-                        unit = FormattedString.SizeUnit.PX;
-                        num = tag.substring(5, tag.length() - 2);
-                    } else {
-                        unit = FormattedString.SizeUnit.PX;
-                        num = tag.substring(5);
-                    }
-                    builder.append(FormattedString.size(Float.parseFloat(num), unit), start);
-                } catch (NumberFormatException ignored) {}
-            } else if ("size".equals(tag)) {
-                builder.append(FormattedString.size(0, FormattedString.SizeUnit.PX), start);
+            // plain text up to the next markup character
+            int end = i + 1;
+            while (end < length && (c = val.charAt(end)) != '<' && c != '&') { end++; }
+            handler.text(val, i, end);
+            i = end;
+        }
+        return handler.build();
+    }
+
+    /**
+     * Reads the markup starting with the '<' at the given index.
+     *
+     * @return the index after the markup or -1 if the '<' does not start markup and is text.
+     */
+    private static int scanHtmlTag(CharSequence val, int i, FormattedStringHandler handler) {
+        int length = val.length();
+        int j = i + 1;
+        if (j >= length) { return -1; }
+        char c = val.charAt(j);
+        if (c == '!') {
+            if (regionEquals(val, j + 1, "--")) {
+                int end = indexOf(val, "-->", j + 3);
+                return end == -1 ? length : end + 3;
             }
-            i = nextPara + 1;
+            return skipTo(val, '>', j);
         }
-        return builder.build();
+        if (c == '?') { return skipTo(val, '>', j); }
+
+        boolean end = c == '/';
+        if (end) { j++; }
+        int nameStart = j;
+        while (j < length && isAsciiLetterOrDigit(val.charAt(j))) { j++; }
+        if (j == nameStart) { return end ? skipTo(val, '>', j) : -1; }
+        String name = toLowerCaseAscii(val, nameStart, j);
+        if (end) {
+            handler.end(name);
+            return skipTo(val, '>', j);
+        }
+
+        // attributes, only size and style are kept
+        String size = null;
+        String style = null;
+        while (j < length) {
+            c = val.charAt(j);
+            if (c == '>') {
+                j++;
+                break;
+            }
+            if (!isAsciiLetterOrDigit(c) && c != '-') {
+                j++;
+                continue;
+            }
+            int attributeStart = j;
+            while (j < length && (isAsciiLetterOrDigit(c = val.charAt(j)) || c == '-')) { j++; }
+            int attributeEnd = j;
+            while (j < length && SearchHtmlParser.isWhitespace(val.charAt(j))) { j++; }
+            if (j >= length || val.charAt(j) != '=') { continue; }
+            j++;
+            while (j < length && SearchHtmlParser.isWhitespace(val.charAt(j))) { j++; }
+            if (j >= length) { break; }
+            int valueStart;
+            int valueEnd;
+            char quote = val.charAt(j);
+            if (quote == '"' || quote == '\'') {
+                valueStart = j + 1;
+                valueEnd = valueStart;
+                while (valueEnd < length && val.charAt(valueEnd) != quote) { valueEnd++; }
+                j = Math.min(valueEnd + 1, length);
+            } else {
+                valueStart = j;
+                while (j < length && (c = val.charAt(j)) != '>' && !SearchHtmlParser.isWhitespace(c)) { j++; }
+                valueEnd = j;
+            }
+            int attributeLength = attributeEnd - attributeStart;
+            if (attributeLength == 4 && regionEqualsIgnoreCase(val, attributeStart, "size")) {
+                size = val.subSequence(valueStart, valueEnd).toString();
+            } else if (attributeLength == 5 && regionEqualsIgnoreCase(val, attributeStart, "style")) {
+                style = val.subSequence(valueStart, valueEnd).toString();
+            }
+        }
+        handler.start(name, size, style);
+        return j;
     }
 
-    public static FormattedString parseHtml(String val) throws IOException, SAXException {
-        XMLReader reader = new Parser();
-        FormattedStringHandler handler = new FormattedStringHandler();
-        reader.setContentHandler(handler);
-        reader.parse(new InputSource(new StringReader(val)));
-        return handler.build();
+    /**
+     * Reads the entity starting with the '&' at the given index.
+     *
+     * @return the index after the entity or -1 if it is not a known entity and the '&' is text.
+     */
+    private static int scanHtmlEntity(CharSequence val, int i, FormattedStringHandler handler) {
+        int limit = Math.min(val.length(), i + MAX_ENTITY_LENGTH);
+        for (int j = i + 1; j < limit; j++) {
+            char c = val.charAt(j);
+            if (c == ';') {
+                String entity = val.subSequence(i, j + 1).toString();
+                String decoded = StringEscapeUtils.unescapeHtml(entity);
+                if (decoded.equals(entity)) { return -1; }
+                handler.text(decoded, 0, decoded.length());
+                return j + 1;
+            }
+            if (!isAsciiLetterOrDigit(c) && c != '#') { return -1; }
+        }
+        return -1;
     }
 
+    private static final int MAX_ENTITY_LENGTH = 32;
+
+    private static int skipTo(CharSequence val, char c, int from) {
+        int length = val.length();
+        for (int i = from; i < length; i++) {
+            if (val.charAt(i) == c) { return i + 1; }
+        }
+        return length;
+    }
+
+    private static int indexOf(CharSequence val, String search, int from) {
+        int last = val.length() - search.length();
+        for (int i = from; i <= last; i++) {
+            if (regionEquals(val, i, search)) { return i; }
+        }
+        return -1;
+    }
+
+    private static boolean regionEquals(CharSequence val, int from, String search) {
+        if (from + search.length() > val.length()) { return false; }
+        for (int i = 0; i < search.length(); i++) {
+            if (val.charAt(from + i) != search.charAt(i)) { return false; }
+        }
+        return true;
+    }
+
+    private static boolean isAsciiLetterOrDigit(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9');
+    }
+
+    /**
+     * Element names that are returned as constants by #toLowerCaseAscii(CharSequence, int, int).
+     */
+    private static final String[] KNOWN_ELEMENTS = { "p", "br", "b", "i", "u", "s", "center", "font", "span" };
+
+    private static String toLowerCaseAscii(CharSequence val, int from, int to) {
+        for (String known : KNOWN_ELEMENTS) {
+            if (known.length() == to - from && regionEqualsIgnoreCase(val, from, known)) { return known; }
+        }
+        char[] chars = new char[to - from];
+        for (int i = 0; i < chars.length; i++) { chars[i] = toLowerCaseAscii(val.charAt(from + i)); }
+        return new String(chars);
+    }
+
+    /**
+     * Builds a FormattedString from HTML elements and text, either reported as SAX events or directly by
+     * #parseHtml. Formatting elements are tracked on a stack so an end tag also ends the elements opened after its
+     * start tag and end tags without start tag are ignored.
+     */
     static class FormattedStringHandler extends DefaultHandler {
-        private final FormattedString.FormattedStringBuilder builder = FormattedString.builder();
+        private final FormattedString.FormattedStringBuilder builder;
+
+        private String[] openNames = new String[8];
+        private FormattedString.Formatting[] openFormattings = new FormattedString.Formatting[8];
+        private int depth;
 
+        FormattedStringHandler() {
+            this(16);
+        }
+
+        FormattedStringHandler(int capacity) {
+            builder = FormattedString.builder(capacity);
+        }
+
+        /**
+         * Ends all open elements and returns the result.
+         */
         public FormattedString build() {
+            close(0);
             return builder.build();
         }
 
         @Override
         public void startElement(String uri, String localName, String qName, Attributes attributes)
                 throws SAXException {
-            if ("br".equals(qName) || "p".equals(qName)) {
-                if (builder.length() > 0) { builder.append('\n'); }
-            } else if ("b".equals(qName)) {
-                builder.append(FormattedString.SimpleFormatting.BOLD, true);
-            } else if ("i".equals(qName)) {
-                builder.append(FormattedString.SimpleFormatting.BOLD, true);
-            } else if ("s".equals(qName)) {
-                builder.append(FormattedString.SimpleFormatting.BOLD, true);
-            } else if ("center".equals(qName)) {
-                builder.append(FormattedString.SimpleFormatting.BOLD, true);
-            } else if ("u".equals(qName)) {
-                builder.append(FormattedString.SimpleFormatting.BOLD, true);
-            }
+            start(qName, attributes.getValue("size"), attributes.getValue("style"));
         }
 
         @Override
         public void endElement(String uri, String localName, String qName) throws SAXException {
-            if ("b".equals(qName)) {
-                builder.append(FormattedString.SimpleFormatting.BOLD, false);
-            } else if ("i".equals(qName)) {
-                builder.append(FormattedString.SimpleFormatting.BOLD, false);
-            } else if ("s".equals(qName)) {
-                builder.append(FormattedString.SimpleFormatting.BOLD, false);
-            } else if ("center".equals(qName)) {
-                builder.append(FormattedString.SimpleFormatting.BOLD, false);
-            } else if ("u".equals(qName)) {
-                builder.append(FormattedString.SimpleFormatting.BOLD, false);
-            }
+            end(qName);
         }
 
         @Override
@@ -126,5 +354,90 @@ public class FormattedStringParser {
             }
             builder.append(ch, start, length);
         }
+
+        /**
+         * Handles a start tag with the given lower case name and the values of its size and style attributes.
+         */
+        void start(String name, @Nullable String size, @Nullable String style) {
+            if ("br".equals(name)) {
+                // void element
+                newLine();
+                return;
+            }
+            if ("p".equals(name)) { newLine(); }
+
+            FormattedString.Formatting formatting = getFormatting(name, size, style);
+            if (depth == openNames.length) {
+                openNames = Arrays.copyOf(openNames, depth * 2);
+                openFormattings = Arrays.copyOf(openFormattings, depth * 2);
+            }
+            openNames[depth] = name;
+            openFormattings[depth] = formatting;
+            depth++;
+            if (formatting != null) { builder.append(formatting, true); }
+        }
+
+        /**
+         * Handles an end tag with the given lower case name.
+         */
+        void end(String name) {
+            for (int i = depth - 1; i >= 0; i--) {
+                if (openNames[i].equals(name)) {
+                    close(i);
+                    return;
+                }
+            }
+        }
+
+        void text(CharSequence text, int start, int end) {
+            // clip leading whitespace
+            if (builder.length() == 0) {
+                while (start < end && SearchHtmlParser.isWhitespace(text.charAt(start))) { start++; }
+            }
+            builder.append(text, start, end);
+        }
+
+        private void newLine() {
+            if (builder.length() > 0) { builder.append('\n'); }
+        }
+
+        /**
+         * Ends the open elements down to the given depth.
+         */
+        private void close(int newDepth) {
+            while (depth > newDepth) {
+                depth--;
+                if (openFormattings[depth] != null) { builder.append(openFormattings[depth], false); }
+                openNames[depth] = null;
+                openFormattings[depth] = null;
+            }
+        }
+
+        @Nullable
+        private static FormattedString.Formatting getFormatting(String name,
+                                                                @Nullable String size,
+                                                                @Nullable String style) {
+            if ("b".equals(name)) { return FormattedString.SimpleFormatting.BOLD; }
+            if ("i".equals(name)) { return FormattedString.SimpleFormatting.ITALIC; }
+            if ("u".equals(name)) { return FormattedString.SimpleFormatting.UNDERLINE; }
+            if ("s".equals(name)) { return FormattedString.SimpleFormatting.STRIKETHROUGH; }
+            if ("center".equals(name)) { return FormattedString.SimpleFormatting.CENTER; }
+            if ("font".equals(name) && size != null) { return parseSize(size.trim().toLowerCase()); }
+            if ("span".equals(name) && style != null) { return parseFontSizeStyle(style.toLowerCase()); }
+            return null;
+        }
+
+        /**
+         * Reads the font-size property of a lower case style attribute.
+         */
+        @Nullable
+        private static FormattedString.Formatting parseFontSizeStyle(String style) {
+            int property = style.indexOf("font-size");
+            if (property == -1) { return null; }
+            int colon = style.indexOf(':', property);
+            if (colon == -1) { return null; }
+            int end = style.indexOf(';', colon);
+            return parseSize(style.substring(colon + 1, end == -1 ? style.length() : end).trim());
+        }
     }
 }
@@ -0,0 +1,552 @@
+package at.yawk.fimfiction.core;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import org.apache.commons.lang.StringEscapeUtils;
+import org.xml.sax.Attributes;
+import org.xml.sax.ContentHandler;
+import org.xml.sax.SAXException;
+
+/**
+ * Small incremental HTML tokenizer for fimfiction pages that reads UTF-8 encoded bytes directly and reports elements
+ * and text to a SAX ContentHandler. It is a replacement for the TagSoup parser for consumers that only look at
+ * element names, attributes and text (such as SearchHtmlParser) and does far less work: there is no schema,
+ * no document normalization and attribute values are only turned into strings when they are requested.
+ * <p/>
+ * The event stream follows TagSoup where it matters for these consumers: element and attribute names are lower
+ * case, void elements are ended immediately, entities are decoded, script and style contents are reported as one
+ * block of text, whitespace-only text is dropped in elements that may not contain text, end tags close all elements
+ * opened after the matching start tag and unmatched end tags are ignored. Comments, processing instructions and
+ * declarations are skipped.
+ *
+ * @author Jonas Konrad (yawkat)
+ */
+class HtmlScanner {
+    /**
+     * Element names that are reported as constant strings instead of allocating a new string for every tag.
+     */
+    private static final String[] KNOWN_NAMES = {
+            "a", "b", "i", "p", "s", "u", "br", "hr", "li", "ul", "ol", "td", "tr", "th", "div", "img", "nav",
+            "span", "font", "form", "head", "html", "body", "link", "meta", "center", "script", "style", "title",
+            "input", "label", "table", "button", "select", "option", "strong", "header", "footer", "iframe",
+            "noscript", "textarea"
+    };
+    private static final Set<String> VOID_ELEMENTS = new HashSet<String>(Arrays.asList(
+            "area", "base", "br", "col", "embed", "hr", "img", "input", "link", "meta", "param", "source", "wbr"));
+    private static final Set<String> NO_TEXT_ELEMENTS = new HashSet<String>(Arrays.asList(
+            "html", "head", "ul", "ol", "dl", "table", "thead", "tbody", "tfoot", "tr", "colgroup", "select",
+            "optgroup", "frameset"));
+
+    private static final int MAX_ENTITY_LENGTH = 32;
+
+    @Nonnull private final InputStream in;
+    @Nonnull private final ContentHandler handler;
+
+    private final byte[] buffer = new byte[8192];
+    private int position;
+    private int limit;
+
+    private char[] text = new char[256];
+    private int textLength;
+
+    private char[] name = new char[16];
+    private final char[] entity = new char[MAX_ENTITY_LENGTH];
+    private final LazyAttributes attributes = new LazyAttributes();
+
+    private String[] openElements = new String[32];
+    private int depth;
+
+    HtmlScanner(@Nonnull InputStream in, @Nonnull ContentHandler handler) {
+        this.in = in;
+        this.handler = handler;
+    }
+
+    /**
+     * Reads the whole input and reports it to the handler. The input stream is not closed.
+     */
+    void scan() throws IOException, SAXException {
+        handler.startDocument();
+        int c;
+        while ((c = read()) != -1) {
+            if (c == '<') {
+                markup();
+            } else if (c == '&') {
+                textLength = appendEntity(text(textLength + MAX_ENTITY_LENGTH + 2), textLength);
+            } else {
+                textLength = appendCodePoint(text(textLength + 2), textLength, c);
+            }
+        }
+        flushText();
+        while (depth > 0) {
+            endElement(openElements[--depth]);
+        }
+        handler.endDocument();
+    }
+
+    private void markup() throws IOException, SAXException {
+        int c = read();
+        if (c == '/') {
+            endTag();
+        } else if (isLetter(c)) {
+            startTag(c);
+        } else if (c == '!') {
+            flushText();
+            int d = read();
+            if (d == '-' && read() == '-') {
+                skipComment();
+            } else if (d != '>') {
+                skipTo('>');
+            }
+        } else if (c == '?') {
+            flushText();
+            skipTo('>');
+        } else {
+            // a lone '<' is text
+            text(textLength + 1)[textLength++] = '<';
+            if (c != -1) { position--; }
+        }
+    }
+
+    private void startTag(int first) throws IOException, SAXException {
+        int c = first;
+        int nameLength = 0;
+        do {
+            name(nameLength + 1)[nameLength++] = toLowerCase(c);
+            c = read();
+        } while (isNameChar(c));
+        String elementName = intern(name, nameLength);
+
+        attributes.clear();
+        boolean selfClosing = false;
+        while (true) {
+            while (isWhitespace(c)) { c = read(); }
+            if (c == -1 || c == '>') { break; }
+            if (c == '/') {
+                c = read();
+                if (c == '>') {
+                    selfClosing = true;
+                    break;
+                }
+                continue;
+            }
+            c = attribute(c);
+        }
+
+        flushText();
+        handler.startElement("", elementName, elementName, attributes);
+        if (selfClosing || VOID_ELEMENTS.contains(elementName)) {
+            endElement(elementName);
+        } else if (elementName.equals("script") || elementName.equals("style")) {
+            rawText(elementName);
+            endElement(elementName);
+        } else {
+            if (depth == openElements.length) { openElements = Arrays.copyOf(openElements, depth * 2); }
+            openElements[depth++] = elementName;
+        }
+    }
+
+    /**
+     * Reads one attribute starting with the given character and returns the first character after it.
+     */
+    private int attribute(int c) throws IOException {
+        int nameStart = attributes.length;
+        do {
+            attributes.chars(attributes.length + 1)[attributes.length++] = toLowerCase(c);
+            c = read();
+        } while (c != -1 && c != '=' && c != '>' && c != '/' && !isWhitespace(c));
+        int nameEnd = attributes.length;
+
+        while (isWhitespace(c)) { c = read(); }
+        if (c != '=') {
+            // attributes without value have their name as value
+            attributes.add(nameStart, nameEnd, nameStart, nameEnd);
+            return c;
+        }
+        c = read();
+        while (isWhitespace(c)) { c = read(); }
+
+        int valueStart = attributes.length;
+        if (c == '"' || c == '\'') {
+            int quote = c;
+            while ((c = read()) != -1 && c != quote) {
+                appendAttributeValue(c);
+            }
+            c = read();
+        } else {
+            while (c != -1 && c != '>' && !isWhitespace(c)) {
+                appendAttributeValue(c);
+                c = read();
+            }
+        }
+        attributes.add(nameStart, nameEnd, valueStart, attributes.length);
+        return c;
+    }
+
+    private void appendAttributeValue(int c) throws IOException {
+        if (c == '&') {
+            attributes.length = appendEntity(attributes.chars(attributes.length + MAX_ENTITY_LENGTH + 2),
+                                             attributes.length);
+        } else {
+            attributes.length = appendCodePoint(attributes.chars(attributes.length + 2), attributes.length, c);
+        }
+    }
+
+    private void endTag() throws IOException, SAXException {
+        int c = read();
+        if (!isLetter(c)) {
+            // "</>" or garbage, skip it like a comment
+            if (c != '>') { skipTo('>'); }
+            return;
+        }
+        int nameLength = 0;
+        do {
+            name(nameLength + 1)[nameLength++] = toLowerCase(c);
+            c = read();
+        } while (isNameChar(c));
+        if (c != '>') { skipTo('>'); }
+
+        flushText();
+        for (int i = depth - 1; i >= 0; i--) {
+            if (equals(openElements[i], name, nameLength)) {
+                while (depth > i) {
+                    endElement(openElements[--depth]);
+                }
+                return;
+            }
+        }
+        // unmatched end tags are ignored
+    }
+
+    /**
+     * Reads the contents of a script or style element up to its end tag and reports it as a single text block.
+     */
+    private void rawText(@Nonnull String elementName) throws IOException, SAXException {
+        int c;
+        while ((c = read()) != -1) {
+            if (c == '<' && matchEndTag(elementName)) {
+                break;
+            }
+            textLength = appendCodePoint(text(textLength + 2), textLength, c);
+        }
+        if (textLength > 0) {
+            handler.characters(text, 0, textLength);
+            textLength = 0;
+        }
+    }
+
+    /**
+     * Checks whether the bytes after a '<' are the end tag of the given element and consumes the end tag if they
+     * are. Otherwise, the '<' and consumed characters are appended to the text.
+     */
+    private boolean matchEndTag(@Nonnull String elementName) throws IOException {
+        text(textLength + elementName.length() + 2)[textLength++] = '<';
+        int c = read();
+        if (c != '/') {
+            if (c != -1) { position--; }
+            return false;
+        }
+        text[textLength++] = '/';
+        for (int i = 0; i < elementName.length(); i++) {
+            c = read();
+            if (toLowerCase(c) != elementName.charAt(i)) {
+                if (c != -1) { position--; }
+                return false;
+            }
+            text[textLength++] = (char) c;
+        }
+        c = read();
+        if (c != '>' && !isWhitespace(c)) {
+            if (c != -1) { position--; }
+            return false;
+        }
+        textLength -= elementName.length() + 2;
+        if (c != '>') { skipTo('>'); }
+        return true;
+    }
+
+    private void skipComment() throws IOException {
+        int dashes = 0;
+        int c;
+        while ((c = read()) != -1) {
+            if (c == '>' && dashes >= 2) { return; }
+            dashes = c == '-' ? dashes + 1 : 0;
+        }
+    }
+
+    private void skipTo(char end) throws IOException {
+        int c;
+        do {
+            c = read();
+        } while (c != -1 && c != end);
+    }
+
+    private void flushText() throws SAXException {
+        if (textLength == 0) { return; }
+        if (depth == 0 || NO_TEXT_ELEMENTS.contains(openElements[depth - 1])) {
+            boolean whitespace = true;
+            for (int i = 0; i < textLength && whitespace; i++) {
+                whitespace = Character.isWhitespace(text[i]);
+            }
+            if (whitespace) {
+                textLength = 0;
+                return;
+            }
+        }
+        // the handler may modify the array, which is fine because it is cleared afterwards
+        handler.characters(text, 0, textLength);
+        textLength = 0;
+    }
+
+    private void endElement(@Nonnull String elementName) throws SAXException {
+        handler.endElement("", elementName, elementName);
+    }
+
+    /**
+     * Reads the next byte or returns -1 at the end of the input. After a byte was read, position can be decremented
+     * once to read it again.
+     */
+    private int read() throws IOException {
+        if (position == limit) {
+            int read = in.read(buffer, 0, buffer.length);
+            if (read <= 0) { return -1; }
+            position = 0;
+            limit = read;
+        }
+        return buffer[position++] & 0xff;
+    }
+
+    /**
+     * Decodes the UTF-8 sequence started by the given byte and appends it to the given array, which must have room
+     * for two more chars. Returns the new length.
+     */
+    private int appendCodePoint(@Nonnull char[] target, int length, int first) throws IOException {
+        if (first < 0x80) {
+            target[length] = (char) first;
+            return length + 1;
+        }
+        int codePoint;
+        int continuation;
+        if (first >= 0xf0 && first < 0xf8) {
+            codePoint = first & 0x07;
+            continuation = 3;
+        } else if (first >= 0xe0) {
+            codePoint = first & 0x0f;
+            continuation = 2;
+        } else if (first >= 0xc0) {
+            codePoint = first & 0x1f;
+            continuation = 1;
+        } else {
+            target[length] = '\ufffd';
+            return length + 1;
+        }
+        for (int i = 0; i < continuation; i++) {
+            int c = read();
+            if ((c & 0xc0) != 0x80) {
+                // malformed sequence, do not swallow the following character
+                if (c != -1) { position--; }
+                target[length] = '\ufffd';
+                return length + 1;
+            }
+            codePoint = codePoint << 6 | c & 0x3f;
+        }
+        return length + Character.toChars(codePoint, target, length);
+    }
+
+    /**
+     * Decodes the entity following a '&' and appends it to the given array, which must have room for
+     * MAX_ENTITY_LENGTH + 2 more chars. Entities that cannot be decoded are appended as they are. Returns the new
+     * length.
+     */
+    private int appendEntity(@Nonnull char[] target, int length) throws IOException {
+        int entityLength = 0;
+        int c = -1;
+        while (entityLength < MAX_ENTITY_LENGTH && (isNameChar(c = read()) || c == '#')) {
+            entity[entityLength++] = (char) c;
+        }
+        boolean terminated = false;
+        if (entityLength < MAX_ENTITY_LENGTH) {
+            if (c == ';') {
+                terminated = true;
+            } else if (c != -1) {
+                position--;
+            }
+        }
+
+        int codePoint = resolveEntity(entity, entityLength);
+        if (codePoint >= 0) {
+            return length + Character.toChars(codePoint, target, length);
+        }
+        target[length++] = '&';
+        System.arraycopy(entity, 0, target, length, entityLength);
+        length += entityLength;
+        if (terminated) { target[length++] = ';'; }
+        return length;
+    }
+
+    private static int resolveEntity(@Nonnull char[] entity, int length) {
+        if (length == 0) { return -1; }
+        if (entity[0] == '#') {
+            try {
+                int codePoint;
+                if (length > 1 && (entity[1] == 'x' || entity[1] == 'X')) {
+                    codePoint = Integer.parseInt(new String(entity, 2, length - 2), 16);
+                } else {
+                    codePoint = Integer.parseInt(new String(entity, 1, length - 1));
+                }
+                return codePoint >= 0 && codePoint <= Character.MAX_CODE_POINT ? codePoint : -1;
+            } catch (NumberFormatException e) {
+                return -1;
+            }
+        }
+        String encoded = '&' + new String(entity, 0, length) + ';';
+        String decoded = StringEscapeUtils.unescapeHtml(encoded);
+        return decoded.equals(encoded) ? -1 : decoded.codePointAt(0);
+    }
+
+    @Nonnull
+    private char[] text(int capacity) {
+        if (capacity > text.length) { text = Arrays.copyOf(text, Math.max(capacity, text.length * 2)); }
+        return text;
+    }
+
+    @Nonnull
+    private char[] name(int capacity) {
+        if (capacity > name.length) { name = Arrays.copyOf(name, Math.max(capacity, name.length * 2)); }
+        return name;
+    }
+
+    @Nonnull
+    private static String intern(@Nonnull char[] chars, int length) {
+        for (String known : KNOWN_NAMES) {
+            if (equals(known, chars, length)) { return known; }
+        }
+        return new String(chars, 0, length);
+    }
+
+    private static boolean equals(@Nonnull String string, @Nonnull char[] chars, int length) {
+        if (string.length() != length) { return false; }
+        for (int i = 0; i < length; i++) {
+            if (string.charAt(i) != chars[i]) { return false; }
+        }
+        return true;
+    }
+
+    private static boolean isLetter(int c) { return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z'); }
+
+    private static boolean isNameChar(int c) {
+        return isLetter(c) || (c >= '0' && c <= '9') || c == '-' || c == '_' || c == ':' || c == '.';
+    }
+
+    private static boolean isWhitespace(int c) { return c == ' ' || c == '\n' || c == '\r' || c == '\t' || c == '\f'; }
+
+    private static char toLowerCase(int c) { return (char) (c >= 'A' && c <= 'Z' ? c + ('a' - 'A') : c); }
+
+    /**
+     * Attributes of the current start tag. Names and values are stored in one shared char array and only converted
+     * to strings when requested; the instance is reused for every tag.
+     */
+    private static class LazyAttributes implements Attributes {
+        private char[] chars = new char[256];
+        private int length;
+
+        private int[] ranges = new int[32];
+        private String[] names = new String[8];
+        private String[] values = new String[8];
+        private int count;
+
+        void clear() {
+            length = 0;
+            for (int i = 0; i < count; i++) {
+                names[i] = null;
+                values[i] = null;
+            }
+            count = 0;
+        }
+
+        @Nonnull
+        char[] chars(int capacity) {
+            if (capacity > chars.length) { chars = Arrays.copyOf(chars, Math.max(capacity, chars.length * 2)); }
+            return chars;
+        }
+
+        void add(int nameStart, int nameEnd, int valueStart, int valueEnd) {
+            if (count == names.length) {
+                ranges = Arrays.copyOf(ranges, count * 8);
+                names = Arrays.copyOf(names, count * 2);
+                values = Arrays.copyOf(values, count * 2);
+            }
+            ranges[count * 4] = nameStart;
+            ranges[count * 4 + 1] = nameEnd;
+            ranges[count * 4 + 2] = valueStart;
+            ranges[count * 4 + 3] = valueEnd;
+            count++;
+        }
+
+        @Override
+        public int getLength() { return count; }
+
+        @Override
+        public String getURI(int index) { return index < 0 || index >= count ? null : ""; }
+
+        @Override
+        public String getLocalName(int index) { return getQName(index); }
+
+        @Override
+        public String getQName(int index) {
+            if (index < 0 || index >= count) { return null; }
+            if (names[index] == null) {
+                names[index] = new String(chars, ranges[index * 4], ranges[index * 4 + 1] - ranges[index * 4]);
+            }
+            return names[index];
+        }
+
+        @Override
+        public String getType(int index) { return index < 0 || index >= count ? null : "CDATA"; }
+
+        @Override
+        public String getValue(int index) {
+            if (index < 0 || index >= count) { return null; }
+            if (values[index] == null) {
+                values[index] = new String(chars, ranges[index * 4 + 2], ranges[index * 4 + 3] - ranges[index * 4 + 2]);
+            }
+            return values[index];
+        }
+
+        @Override
+        public int getIndex(String uri, String localName) {
+            return uri == null || uri.isEmpty() ? getIndex(localName) : -1;
+        }
+
+        @Override
+        public int getIndex(@Nullable String qName) {
+            if (qName == null) { return -1; }
+            outer:
+            for (int i = 0; i < count; i++) {
+                int start = ranges[i * 4];
+                if (ranges[i * 4 + 1] - start != qName.length()) { continue; }
+                for (int j = 0; j < qName.length(); j++) {
+                    if (chars[start + j] != qName.charAt(j)) { continue outer; }
+                }
+                return i;
+            }
+            return -1;
+        }
+
+        @Override
+        public String getType(String uri, String localName) { return getType(getIndex(uri, localName)); }
+
+        @Override
+        public String getType(String qName) { return getType(getIndex(qName)); }
+
+        @Override
+        public String getValue(String uri, String localName) { return getValue(getIndex(uri, localName)); }
+
+        @Override
+        public String getValue(String qName) { return getValue(getIndex(qName)); }
+    }
+}
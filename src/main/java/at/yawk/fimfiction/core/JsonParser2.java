@@ -125,6 +125,21 @@ class JsonParser2<B extends Bundle<B, K>, K extends Key> {
             input.nextString();
             return true;
         }
+        if (key.getType() == ValueType.NUMBER) {
+            long value;
+            try {
+                value = input.nextLong();
+            } catch (NumberFormatException e) {
+                bundle.set(key, input.nextDouble());
+                return true;
+            }
+            bundle.setLong(key, value);
+            return true;
+        }
+        if (key.getType() == ValueType.BOOLEAN) {
+            bundle.setBoolean(key, input.nextBoolean());
+            return true;
+        }
         Object value;
         if (key == User.UserKey.URL_PROFILE_IMAGE && input.peek() == JsonToken.BEGIN_OBJECT) {
             input.beginObject();
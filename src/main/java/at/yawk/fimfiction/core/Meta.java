@@ -4,12 +4,19 @@ import at.yawk.fimfiction.data.Story;
 import at.yawk.fimfiction.net.NetUtil;
 import com.google.common.base.Charsets;
 import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.AsyncFunction;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
 import com.google.gson.stream.JsonReader;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.util.Collection;
+import java.util.concurrent.Executor;
 import javax.annotation.Nonnull;
 import org.apache.http.HttpResponse;
 import org.apache.http.client.HttpClient;
+import org.apache.http.nio.client.HttpAsyncClient;
 import org.xml.sax.SAXException;
 
 /**
@@ -29,6 +36,17 @@ public class Meta {
      */
     public static Meta create() { return new Meta(); }
 
+    /**
+     * Creates a batch request for the metadata of all given stories.
+     *
+     * @see MetaBatch
+     */
+    @Nonnull
+    public static MetaBatch batch(@Nonnull Collection<Integer> storyIds) {
+        Preconditions.checkNotNull(storyIds);
+        return new MetaBatch(storyIds);
+    }
+
     /**
      * Setter for the story id.
      */
@@ -72,18 +90,49 @@ public class Meta {
      */
     @Nonnull
     public Story request(@Nonnull HttpClient httpClient) throws IOException, SAXException {
-        HttpResponse response = NetUtil.get(httpClient,
-                                            withContent ?
-                                                    Constants.BASE_URL + "/api/v1/story/" + storyId + "?chapters" :
-                                                    Constants.BASE_URL + "/api/story.php?story=" + storyId);
+        HttpResponse response = NetUtil.get(httpClient, getUrl());
         try {
-            JsonParser2<Story, Story.StoryKey> parser =
-                    JsonParser2.story(new JsonReader(new InputStreamReader(response.getEntity().getContent(),
-                                                                           Charsets.UTF_8)));
-            parser.skipStatus = withContent;
-            return parser.parse();
+            return parse(response.getEntity().getContent(), withContent);
         } finally {
             NetUtil.close(response);
         }
     }
+
+    /**
+     * Perform the request with the current parameters without blocking the calling thread. The response is parsed
+     * on the given executor, which should be a bounded worker pool.
+     */
+    @Nonnull
+    public ListenableFuture<Story> requestAsync(@Nonnull HttpAsyncClient httpClient,
+                                                @Nonnull Executor parseExecutor) {
+        Preconditions.checkNotNull(httpClient);
+        Preconditions.checkNotNull(parseExecutor);
+
+        final boolean withContent = this.withContent;
+        return Futures.transform(NetUtil.getAsync(httpClient, getUrl()), new AsyncFunction<HttpResponse, Story>() {
+            @Override
+            public ListenableFuture<Story> apply(HttpResponse response) throws Exception {
+                try {
+                    return Futures.immediateFuture(parse(response.getEntity().getContent(), withContent));
+                } finally {
+                    NetUtil.close(response);
+                }
+            }
+        }, parseExecutor);
+    }
+
+    @Nonnull
+    private String getUrl() {
+        return withContent ?
+                Constants.BASE_URL + "/api/v1/story/" + storyId + "?chapters" :
+                Constants.BASE_URL + "/api/story.php?story=" + storyId;
+    }
+
+    @Nonnull
+    private static Story parse(@Nonnull InputStream stream, boolean withContent) throws IOException, SAXException {
+        JsonParser2<Story, Story.StoryKey> parser =
+                JsonParser2.story(new JsonReader(new InputStreamReader(stream, Charsets.UTF_8)));
+        parser.skipStatus = withContent;
+        return parser.parse();
+    }
 }
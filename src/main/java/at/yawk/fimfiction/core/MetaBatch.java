@@ -0,0 +1,205 @@
+package at.yawk.fimfiction.core;
+
+import at.yawk.fimfiction.data.Story;
+import at.yawk.fimfiction.net.TokenBucket;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import org.apache.http.client.HttpClient;
+
+/**
+ * Builder class for requesting the metadata of many stories at once. The requests are spread over a fixed amount
+ * of threads sharing one HttpClient, optionally limited to a maximum request rate. Results are passed to a callback
+ * as they complete; a failed request only affects its own story.
+ * <p/>
+ * The threads are taken from a shared pool of daemon threads unless an executor is given. The HttpClient should
+ * allow at least as many concurrent connections to Fimfiction as the configured concurrency.
+ *
+ * @author Jonas Konrad (yawkat)
+ */
+public class MetaBatch {
+    /**
+     * Executor used if none is given, idle threads are kept for a minute.
+     */
+    private static final ExecutorService DEFAULT_EXECUTOR = Executors.newCachedThreadPool(
+            new ThreadFactoryBuilder().setDaemon(true).setNameFormat("Fimfiction meta batch #%d").build());
+
+    @Nonnull private final List<Integer> storyIds;
+    private boolean withContent;
+    private int concurrency = 8;
+    private double requestsPerSecond = 0;
+    @Nullable private ExecutorService executor;
+
+    MetaBatch(@Nonnull Collection<Integer> storyIds) {
+        this.storyIds = new ArrayList<Integer>(storyIds);
+        Preconditions.checkArgument(!this.storyIds.contains(null), "Null story ID");
+    }
+
+    /**
+     * Request content.
+     */
+    @Nonnull
+    public MetaBatch content() {
+        this.withContent = true;
+        return this;
+    }
+
+    /**
+     * Do not request content.
+     */
+    @Nonnull
+    public MetaBatch noContent() {
+        this.withContent = false;
+        return this;
+    }
+
+    /**
+     * Maximum amount of requests that are performed at the same time (defaults to 8).
+     */
+    @Nonnull
+    public MetaBatch concurrency(int concurrency) {
+        Preconditions.checkArgument(concurrency > 0);
+        this.concurrency = concurrency;
+        return this;
+    }
+
+    /**
+     * Maximum amount of requests started per second, over all threads of this batch. All requests go to the same
+     * host and EndpointClass#API, so this is the rate for both; requests are spaced out evenly without bursts. 0
+     * means unlimited (default). A rate limiter set with NetUtil#setRateLimiter applies in addition to this one.
+     */
+    @Nonnull
+    public MetaBatch rateLimit(double requestsPerSecond) {
+        Preconditions.checkArgument(requestsPerSecond >= 0);
+        this.requestsPerSecond = requestsPerSecond;
+        return this;
+    }
+
+    /**
+     * Executor the requests are performed on, for example SessionManager#getWorkerExecutor(). It has to be able to
+     * run as many tasks at the same time as the configured concurrency. Defaults to a shared pool of daemon threads.
+     */
+    @Nonnull
+    public MetaBatch executor(@Nonnull ExecutorService executor) {
+        this.executor = Preconditions.checkNotNull(executor);
+        return this;
+    }
+
+    /**
+     * Performs the requests and blocks until all of them completed. The callback is invoked from the request
+     * threads, possibly concurrently, and must not throw. If it does, no further requests are started, the running
+     * ones are cancelled and the exception is rethrown.
+     *
+     * @throws InterruptedException if the calling thread is interrupted while waiting. Pending requests are
+     *                              cancelled in that case.
+     */
+    public void request(@Nonnull final HttpClient httpClient, @Nonnull final Callback callback)
+            throws InterruptedException {
+        Preconditions.checkNotNull(httpClient);
+        Preconditions.checkNotNull(callback);
+
+        final Iterator<Integer> remaining = storyIds.iterator();
+        final TokenBucket rateLimiter = requestsPerSecond > 0 ? new TokenBucket(requestsPerSecond, 1) : null;
+        int threads = Math.min(concurrency, storyIds.size());
+        if (threads == 0) { return; }
+
+        // set once a callback threw so the other workers stop taking stories
+        final AtomicBoolean failed = new AtomicBoolean();
+        Runnable worker = new Runnable() {
+            @Override
+            public void run() {
+                Integer storyId;
+                while (!failed.get() && !Thread.currentThread().isInterrupted() &&
+                       (storyId = next(remaining)) != null) {
+                    if (rateLimiter != null) {
+                        try {
+                            rateLimiter.acquire();
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            return;
+                        }
+                    }
+                    try {
+                        request(httpClient, storyId, callback);
+                    } catch (RuntimeException e) {
+                        failed.set(true);
+                        throw e;
+                    } catch (Error e) {
+                        failed.set(true);
+                        throw e;
+                    }
+                }
+            }
+        };
+        ExecutorService executor = this.executor == null ? DEFAULT_EXECUTOR : this.executor;
+        // workers are awaited in the order they finish so a failed one is noticed at once
+        CompletionService<Void> completion = new ExecutorCompletionService<Void>(executor);
+        List<Future<Void>> workers = new ArrayList<Future<Void>>(threads);
+        boolean completed = false;
+        try {
+            for (int i = 0; i < threads; i++) { workers.add(completion.submit(worker, null)); }
+            for (int i = 0; i < threads; i++) {
+                try {
+                    completion.take().get();
+                } catch (ExecutionException e) {
+                    // thrown by the callback
+                    throw Throwables.propagate(e.getCause());
+                }
+            }
+            completed = true;
+        } finally {
+            if (!completed) {
+                for (Future<Void> future : workers) { future.cancel(true); }
+            }
+        }
+    }
+
+    private void request(@Nonnull HttpClient httpClient, int storyId, @Nonnull Callback callback) {
+        Story story;
+        try {
+            Meta meta = Meta.create().story(storyId);
+            if (withContent) { meta.content(); }
+            story = meta.request(httpClient);
+        } catch (Exception e) {
+            callback.onFailure(storyId, e);
+            return;
+        }
+        callback.onResult(storyId, story);
+    }
+
+    @Nullable
+    private static Integer next(@Nonnull Iterator<Integer> iterator) {
+        synchronized (iterator) {
+            return iterator.hasNext() ? iterator.next() : null;
+        }
+    }
+
+    /**
+     * Receives the results of a batch request.
+     */
+    public static interface Callback {
+        /**
+         * Called with the metadata of a story once its request completed.
+         */
+        void onResult(int storyId, @Nonnull Story story);
+
+        /**
+         * Called when the request for a story failed, either because of a network error or an unparseable response
+         * (for example for a deleted story).
+         */
+        void onFailure(int storyId, @Nonnull Exception cause);
+    }
+}
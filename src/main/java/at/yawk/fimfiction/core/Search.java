@@ -3,14 +3,24 @@ package at.yawk.fimfiction.core;
 import at.yawk.fimfiction.data.*;
 import at.yawk.fimfiction.net.NetUtil;
 import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.AsyncFunction;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import org.apache.http.HttpResponse;
 import org.apache.http.client.HttpClient;
+import org.apache.http.nio.client.HttpAsyncClient;
 import org.ccil.cowan.tagsoup.Parser;
 import org.xml.sax.InputSource;
 import org.xml.sax.SAXException;
@@ -106,7 +116,10 @@ public class Search {
 
     /**
      * Sets the search mode to MODE_ID. Only returns the story IDs of the search. In the past,
-     * this has been the most reliable method to not break with website changes.
+     * this has been the most reliable method to not break with website changes. The page is not tokenized in this
+     * mode so it is also much faster than MODE_FULL; the logged in user and shelves are not part of the result.
+     *
+     * @see #searchIds(org.apache.http.client.HttpClient, at.yawk.fimfiction.core.Search.IdCallback)
      */
     @Nonnull
     public Search idOnly() {
@@ -145,40 +158,159 @@ public class Search {
         Preconditions.checkState(uri != null, "Not initialized properly (missing URI)");
 
         HttpResponse response = NetUtil.get(httpClient, uri);
+        try {
+            return parse(response.getEntity().getContent(), mode);
+        } finally {
+            NetUtil.close(response);
+        }
+    }
+
+    /**
+     * Performs the search and passes the story IDs to the given callback as soon as they are read from the
+     * response, regardless of the search mode. Returns the amount of IDs found.
+     *
+     * @throws IllegalStateException if this search is in unread feed mode.
+     */
+    public int searchIds(@Nonnull HttpClient httpClient, @Nonnull IdCallback callback) throws IOException {
+        Preconditions.checkNotNull(httpClient);
+        Preconditions.checkNotNull(callback);
+        Preconditions.checkState(uri != null, "Not initialized properly (missing URI)");
+        Preconditions.checkState(mode != MODE_UNREAD_FEED, "Cannot read IDs from the unread feed");
 
+        HttpResponse response = NetUtil.get(httpClient, uri);
         try {
-            SearchParser searchParser;
+            return new StoryIdScanner(response.getEntity().getContent(), callback).scan();
+        } finally {
+            NetUtil.close(response);
+        }
+    }
+
+    /**
+     * Performs the search without blocking the calling thread. The request is sent using the given asynchronous
+     * client and the response is parsed on the given executor, which should be a bounded worker pool.
+     */
+    @Nonnull
+    public ListenableFuture<SearchResult> searchAsync(@Nonnull HttpAsyncClient httpClient,
+                                                      @Nonnull Executor parseExecutor) {
+        Preconditions.checkNotNull(httpClient);
+        Preconditions.checkNotNull(parseExecutor);
+        Preconditions.checkState(uri != null, "Not initialized properly (missing URI)");
+
+        final byte mode = this.mode;
+        return Futures.transform(NetUtil.getAsync(httpClient, uri), new AsyncFunction<HttpResponse, SearchResult>() {
+            @Override
+            public ListenableFuture<SearchResult> apply(HttpResponse response) throws Exception {
+                try {
+                    return Futures.immediateFuture(parse(response.getEntity().getContent(), mode));
+                } finally {
+                    NetUtil.close(response);
+                }
+            }
+        }, parseExecutor);
+    }
+
+    /**
+     * Lazily iterates over the stories of all pages of the search with the given parameters,
+     * using the current search mode. While the caller processes a page, the next prefetch pages are requested on
+     * the given executor. Iteration ends on the first empty page. Each call to Iterable#iterator() starts again
+     * at the first page.
+     * <p/>
+     * Failed page requests are rethrown from the iterator wrapped in an UncheckedExecutionException.
+     *
+     * @throws IllegalStateException if this search is in unread feed mode.
+     */
+    @Nonnull
+    public Iterable<Story> stream(@Nonnull final HttpClient httpClient,
+                                  @Nonnull final SearchUrl.CompiledSearchParameters parameters,
+                                  @Nonnull final ExecutorService executor,
+                                  final int prefetch) {
+        Preconditions.checkNotNull(httpClient);
+        Preconditions.checkNotNull(parameters);
+        Preconditions.checkNotNull(executor);
+        Preconditions.checkArgument(prefetch >= 0);
+        Preconditions.checkState(mode != MODE_UNREAD_FEED, "Cannot stream the unread feed");
 
-            if (mode == MODE_UNREAD_FEED) {
-                searchParser = new SearchRssParser();
-            } else {
-                searchParser = new SearchHtmlParser();
-                ((SearchHtmlParser) searchParser).idOnly = mode == MODE_ID;
+        final Search template = page(parameters, 0);
+        return new Iterable<Story>() {
+            @Override
+            public Iterator<Story> iterator() {
+                return new SearchStream(template, httpClient, parameters, executor, prefetch);
             }
+        };
+    }
+
+    /**
+     * Lazily iterates over the stories of all pages of the search with the given parameters.
+     *
+     * @see #stream(org.apache.http.client.HttpClient, at.yawk.fimfiction.core.SearchUrl.CompiledSearchParameters,
+     * java.util.concurrent.ExecutorService, int)
+     */
+    @Nonnull
+    public Iterable<Story> stream(@Nonnull HttpClient httpClient,
+                                  @Nonnull SearchParameters parameters,
+                                  @Nonnull ExecutorService executor,
+                                  int prefetch) {
+        Preconditions.checkNotNull(parameters);
+
+        return stream(httpClient, SearchUrl.CompiledSearchParameters.compile(parameters), executor, prefetch);
+    }
+
+    /**
+     * Creates a new search in the same mode as this one for the given page.
+     */
+    @Nonnull
+    Search page(@Nonnull SearchUrl.CompiledSearchParameters parameters, int page) {
+        Search search = new Search();
+        search.mode = mode;
+        return search.parameters(parameters, page);
+    }
 
+    @Nonnull
+    private static SearchResult parse(@Nonnull InputStream stream, byte mode) throws IOException, SAXException {
+        if (mode == MODE_ID) {
+            final List<Story> stories = new ArrayList<Story>();
+            new StoryIdScanner(stream, new IdCallback() {
+                @Override
+                public void onId(int id) {
+                    stories.add(Story.createMutable().setInt(Story.StoryKey.ID, id));
+                }
+            }).scan();
+            return SearchResult.createMutable().set(SearchResult.SearchResultKey.STORIES, stories);
+        }
+
+        SearchParser searchParser;
+        if (mode == MODE_UNREAD_FEED) {
+            searchParser = new SearchRssParser();
             XMLReader reader = new Parser();
             reader.setContentHandler(searchParser);
-            reader.parse(new InputSource(response.getEntity().getContent()));
-
-            SearchResult result = SearchResult.createMutable();
-            result.set(SearchResult.SearchResultKey.STORIES, searchParser.finishedStories);
-            if (searchParser instanceof SearchHtmlParser) {
-                SearchHtmlParser searchHtmlParser = (SearchHtmlParser) searchParser;
-                if (searchHtmlParser.loggedIn != null) {
-                    result.set(SearchResult.SearchResultKey.LOGGED_IN_USER, searchHtmlParser.loggedIn);
-                }
-                result.set(SearchResult.SearchResultKey.LOGOUT_NONCE,
-                           searchHtmlParser.nonce == null ?
-                                   Optional.missing(String.class) :
-                                   Optional.existing(searchHtmlParser.nonce));
-                if (searchHtmlParser.globalShelves != null) {
-                    result.set(SearchResult.SearchResultKey.SHELVES, searchHtmlParser.globalShelves);
-                }
+            reader.parse(new InputSource(stream));
+        } else {
+            searchParser = new SearchHtmlParser();
+            new HtmlScanner(stream, searchParser).scan();
+        }
+
+        SearchResult result = SearchResult.createMutable();
+        result.set(SearchResult.SearchResultKey.STORIES, searchParser.finishedStories);
+        if (searchParser instanceof SearchHtmlParser) {
+            SearchHtmlParser searchHtmlParser = (SearchHtmlParser) searchParser;
+            if (searchHtmlParser.loggedIn != null) {
+                result.set(SearchResult.SearchResultKey.LOGGED_IN_USER, searchHtmlParser.loggedIn);
+            }
+            result.set(SearchResult.SearchResultKey.LOGOUT_NONCE,
+                       searchHtmlParser.nonce == null ?
+                               Optional.missing(String.class) :
+                               Optional.existing(searchHtmlParser.nonce));
+            if (searchHtmlParser.globalShelves != null) {
+                result.set(SearchResult.SearchResultKey.SHELVES, searchHtmlParser.globalShelves);
             }
-            return result;
-        } finally {
-            NetUtil.close(response);
         }
+        return result;
     }
-}
 
+    /**
+     * Receives story IDs as they are found by #searchIds.
+     */
+    public static interface IdCallback {
+        void onId(int id);
+    }
+}
@@ -5,7 +5,6 @@ import at.yawk.fimfiction.data.Optional;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.text.ParseException;
-import java.text.SimpleDateFormat;
 import java.util.*;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -27,11 +26,12 @@ class SearchHtmlParser extends SearchParser {
      * complex lexer parser classes.
      */
 
-    final SimpleDateFormat fimfictionDateFormat = new SimpleDateFormat("d MMM yyyy", Locale.ENGLISH);
-
-    private static final boolean DEBUG = true;
-
-    boolean idOnly;
+    /**
+     * Debug tracing of every SAX event. Enabled by setting the system property
+     * <code>at.yawk.fimfiction.core.SearchHtmlParser.debug</code> to true; it is only read once so the JIT can
+     * remove the tracing code entirely when it is off.
+     */
+    private static final boolean DEBUG = Boolean.getBoolean("at.yawk.fimfiction.core.SearchHtmlParser.debug");
 
     int stage;
 
@@ -93,7 +93,7 @@ class SearchHtmlParser extends SearchParser {
         case 996:
             if (qName.equals("div") && "story_content_box".equals(attributes.getValue("class"))) { // story id
                 assert story != null;
-                story.set(Story.StoryKey.ID, toIntLenient(attributes.getValue("id")));
+                story.setInt(Story.StoryKey.ID, toIntLenient(attributes.getValue("id")));
                 stage = 997;
             }
             break;
@@ -122,14 +122,14 @@ class SearchHtmlParser extends SearchParser {
         case 880:
             if (qName.equals("span")) {
                 assert story != null;
-                story.set(COMMENT_COUNT, toIntLenient(attributes.getValue("title")));
+                story.setInt(COMMENT_COUNT, toIntLenient(attributes.getValue("title")));
                 stage = 881;
             }
             break;
         case 881:
             if (qName.equals("span")) {
                 assert story != null;
-                story.set(VIEW_COUNT_TOTAL, toIntLenient(attributes.getValue("title")));
+                story.setInt(VIEW_COUNT_TOTAL, toIntLenient(attributes.getValue("title")));
                 // TODO VIEW_COUNT_MAXIMUM_CHAPTER
                 stage = 996;
             }
@@ -163,7 +163,7 @@ class SearchHtmlParser extends SearchParser {
                     String title = attributes.getValue("title");
                     boolean selected = "1".equals(attributes.getValue("data-added"));
                     Shelf shelf = Shelf.createMutable();
-                    shelf.set(Shelf.ShelfKey.ID, id);
+                    shelf.setInt(Shelf.ShelfKey.ID, id);
                     shelf.set(Shelf.ShelfKey.NAME, title);
                     if (selected) {
                         assert shelves != null;
@@ -182,7 +182,7 @@ class SearchHtmlParser extends SearchParser {
                     int id = Integer.parseInt(idString);
                     String name = attributes.getValue("data-name");
                     assert globalShelves != null;
-                    globalShelves.add(Shelf.createMutable().set(Shelf.ShelfKey.ID, id).set(Shelf.ShelfKey.NAME, name));
+                    globalShelves.add(Shelf.createMutable().setInt(Shelf.ShelfKey.ID, id).set(Shelf.ShelfKey.NAME, name));
                 }
             }
             break;
@@ -293,7 +293,7 @@ class SearchHtmlParser extends SearchParser {
                 assert story != null;
                 assert chapters != null;
                 story.set(CHAPTERS, chapters);
-                story.set(CHAPTER_COUNT, chapters.size());
+                story.setInt(CHAPTER_COUNT, chapters.size());
                 chapters = null;
                 stage = 883;
             }
@@ -341,7 +341,7 @@ class SearchHtmlParser extends SearchParser {
         case 37:
             if ("a".equals(qName)) {
                 assert chapter != null;
-                chapter.set(Chapter.ChapterKey.ID, toIntLenient(attributes.getValue("href")));
+                chapter.setInt(Chapter.ChapterKey.ID, toIntLenient(attributes.getValue("href")));
                 assert chapters != null;
                 chapters.add(chapter);
                 chapter = null;
@@ -351,8 +351,8 @@ class SearchHtmlParser extends SearchParser {
         case 203:
             if ("div".equals(qName)) {
                 assert story != null;
-                if (!story.has(SEX)) { story.set(SEX, false); }
-                if (!story.has(GORE)) { story.set(GORE, false); }
+                if (!story.has(SEX)) { story.setBoolean(SEX, false); }
+                if (!story.has(GORE)) { story.setBoolean(GORE, false); }
                 stage = 204;
             }
             break;
@@ -532,12 +532,12 @@ class SearchHtmlParser extends SearchParser {
         switch (stage) {
         case 993:
             assert story != null;
-            story.set(Story.StoryKey.LIKE_COUNT, toIntLenient(asString));
+            story.setInt(Story.StoryKey.LIKE_COUNT, toIntLenient(asString));
             stage = 994;
             break;
         case 995:
             assert story != null;
-            story.set(Story.StoryKey.DISLIKE_COUNT, toIntLenient(asString));
+            story.setInt(Story.StoryKey.DISLIKE_COUNT, toIntLenient(asString));
             stage = 880;
             break;
         case 999:
@@ -576,7 +576,7 @@ class SearchHtmlParser extends SearchParser {
             int c = toIntLenient(asString, -1);
             if (c >= -1) {
                 assert chapter != null;
-                chapter.set(Chapter.ChapterKey.WORD_COUNT, c);
+                chapter.setInt(Chapter.ChapterKey.WORD_COUNT, c);
             }
             break;
         case 203:
@@ -597,16 +597,16 @@ class SearchHtmlParser extends SearchParser {
             } else if ("Mature".equals(asString)) {
                 story.set(CONTENT_RATING, ContentRating.MATURE);
             } else if ("Sex".equals(asString)) {
-                story.set(SEX, true);
+                story.setBoolean(SEX, true);
             } else if ("Gore".equals(asString)) {
-                story.set(GORE, true);
+                story.setBoolean(GORE, true);
             }
             break;
         case 204:
             int words = toIntLenient(asString, -1);
             if (words >= 0) {
                 assert story != null;
-                story.set(WORD_COUNT, words); // TODO I think this moved
+                story.setInt(WORD_COUNT, words); // TODO I think this moved
                 stage = 205;
             }
             break;
@@ -627,7 +627,7 @@ class SearchHtmlParser extends SearchParser {
     @Nonnull
     private Date parseDate(@Nonnull String date) throws SAXException {
         try {
-            return fimfictionDateFormat.parse(date.replaceAll("(st|nd|rd|th)", ""));
+            return Dates.parseDay(date);
         } catch (ParseException e) {
             throw new SAXException(e);
         }
@@ -1,12 +1,9 @@
 package at.yawk.fimfiction.core;
 
 import at.yawk.fimfiction.data.Story;
-import java.io.IOException;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.text.ParseException;
-import java.text.SimpleDateFormat;
-import java.util.Locale;
 import javax.annotation.Nullable;
 import org.xml.sax.Attributes;
 import org.xml.sax.SAXException;
@@ -22,7 +19,6 @@ class SearchRssParser extends SearchParser {
     private static final int LINK = 4;
     private static final int UPDATE_DATE = 5;
 
-    private final SimpleDateFormat rssDateFormat = new SimpleDateFormat("yyyy-MM-dd'T'HHmmssZ", Locale.ENGLISH);
 
     @Nullable Story story;
     int stage = NONE;
@@ -63,11 +59,7 @@ class SearchRssParser extends SearchParser {
             if ("description".equals(qName)) {
                 assert story != null;
                 assert descriptionBuilder != null;
-                try {
-                    story.set(Story.StoryKey.DESCRIPTION, FormattedStringParser.parseHtml(descriptionBuilder.toString()));
-                } catch (IOException e) {
-                    throw new SAXException(e);
-                }
+                story.set(Story.StoryKey.DESCRIPTION, FormattedStringParser.parseHtml(descriptionBuilder));
                 descriptionBuilder = null;
                 stage = NONE_STORY;
             }
@@ -109,7 +101,7 @@ class SearchRssParser extends SearchParser {
         case UPDATE_DATE:
             try {
                 assert story != null;
-                story.set(Story.StoryKey.DATE_UPDATED, rssDateFormat.parse(asString.replace(":", "")));
+                story.set(Story.StoryKey.DATE_UPDATED, Dates.parseIso(asString));
             } catch (ParseException e) {
                 throw new SAXException(e);
             }
@@ -0,0 +1,104 @@
+package at.yawk.fimfiction.core;
+
+import at.yawk.fimfiction.data.SearchResult;
+import at.yawk.fimfiction.data.Story;
+import com.google.common.collect.AbstractIterator;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import org.apache.http.client.HttpClient;
+
+/**
+ * Iterator over the stories of a multi-page search. Pages are requested in order on an executor,
+ * keeping a fixed amount of pages ahead of the page that is currently consumed. Iteration ends on the first empty
+ * page.
+ *
+ * @author Jonas Konrad (yawkat)
+ */
+class SearchStream extends AbstractIterator<Story> {
+    @Nonnull private final Search template;
+    @Nonnull private final HttpClient httpClient;
+    @Nonnull private final SearchUrl.CompiledSearchParameters parameters;
+    @Nonnull private final ExecutorService executor;
+    private final int prefetch;
+
+    private final Queue<Future<SearchResult>> pending = new ArrayDeque<Future<SearchResult>>();
+    private int nextPage = 0;
+    @Nullable private Iterator<Story> current;
+
+    SearchStream(@Nonnull Search template,
+                 @Nonnull HttpClient httpClient,
+                 @Nonnull SearchUrl.CompiledSearchParameters parameters,
+                 @Nonnull ExecutorService executor,
+                 int prefetch) {
+        this.template = template;
+        this.httpClient = httpClient;
+        this.parameters = parameters;
+        this.executor = executor;
+        this.prefetch = prefetch;
+    }
+
+    @Override
+    protected Story computeNext() {
+        while (current == null || !current.hasNext()) {
+            if (pending.isEmpty()) { request(); }
+            SearchResult page;
+            try {
+                page = await(pending.remove());
+            } catch (RuntimeException e) {
+                // the iterator cannot continue after a failure
+                cancelPending();
+                throw e;
+            }
+            List<Story> stories = page.get(SearchResult.SearchResultKey.STORIES);
+            if (stories.isEmpty()) {
+                // the end has been reached, pages that were requested after this one are not needed anymore
+                cancelPending();
+                current = null;
+                return endOfData();
+            }
+            current = stories.iterator();
+            // request the following pages while the caller processes this one
+            while (pending.size() < prefetch) { request(); }
+        }
+        return current.next();
+    }
+
+    /**
+     * Submits the request for the next page.
+     */
+    private void request() {
+        final Search page = template.page(parameters, nextPage++);
+        pending.add(executor.submit(new Callable<SearchResult>() {
+            @Override
+            public SearchResult call() throws Exception {
+                return page.search(httpClient);
+            }
+        }));
+    }
+
+    private void cancelPending() {
+        for (Future<SearchResult> future : pending) { future.cancel(true); }
+        pending.clear();
+    }
+
+    @Nonnull
+    private SearchResult await(@Nonnull Future<SearchResult> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new UncheckedExecutionException(e);
+        } catch (ExecutionException e) {
+            throw new UncheckedExecutionException(e.getCause());
+        }
+    }
+}
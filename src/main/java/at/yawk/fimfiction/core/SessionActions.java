@@ -2,10 +2,16 @@ package at.yawk.fimfiction.core;
 
 import at.yawk.fimfiction.net.NetUtil;
 import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.AsyncFunction;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
 import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.Executor;
 import javax.annotation.Nonnull;
 import org.apache.http.HttpResponse;
 import org.apache.http.client.HttpClient;
+import org.apache.http.nio.client.HttpAsyncClient;
 
 /**
  * Methods for managing the current session identified by the HttpClient's cookies.
@@ -28,29 +34,64 @@ public class SessionActions {
 
         HttpResponse response = NetUtil.post(httpClient,
                                              Constants.BASE_URL + "/ajax/login.php",
-                                             "keep_logged_in",
-                                             "1",
-                                             "username",
-                                             username,
-                                             "password",
-                                             password);
+                                             loginProperties(username, password));
         try {
-            int firstByte = response.getEntity().getContent().read();
-            switch (firstByte) {
-            case '0':
-                return LoginStatus.SUCCESSFUL;
-            case '1':
-                return LoginStatus.INVALID_PASSWORD;
-            case '2':
-                return LoginStatus.INVALID_USERNAME;
-            default:
-                return LoginStatus.UNKNOWN;
-            }
+            return parseLoginStatus(response.getEntity().getContent());
         } finally {
             NetUtil.close(response);
         }
     }
 
+    /**
+     * Non-blocking version of #login. The login status is read on the given executor.
+     *
+     * @see #login(org.apache.http.client.HttpClient, String, String)
+     */
+    @Nonnull
+    public static ListenableFuture<LoginStatus> loginAsync(@Nonnull HttpAsyncClient httpClient,
+                                                           @Nonnull Executor executor,
+                                                           @Nonnull String username,
+                                                           @Nonnull String password) {
+        Preconditions.checkNotNull(httpClient);
+        Preconditions.checkNotNull(executor);
+        Preconditions.checkNotNull(username);
+        Preconditions.checkNotNull(password);
+
+        ListenableFuture<HttpResponse> response = NetUtil.postAsync(httpClient,
+                                                                    Constants.BASE_URL + "/ajax/login.php",
+                                                                    loginProperties(username, password));
+        return Futures.transform(response, new AsyncFunction<HttpResponse, LoginStatus>() {
+            @Override
+            public ListenableFuture<LoginStatus> apply(HttpResponse response) throws Exception {
+                try {
+                    return Futures.immediateFuture(parseLoginStatus(response.getEntity().getContent()));
+                } finally {
+                    NetUtil.close(response);
+                }
+            }
+        }, executor);
+    }
+
+    @Nonnull
+    private static String[] loginProperties(@Nonnull String username, @Nonnull String password) {
+        return new String[]{ "keep_logged_in", "1", "username", username, "password", password };
+    }
+
+    @Nonnull
+    private static LoginStatus parseLoginStatus(@Nonnull InputStream stream) throws IOException {
+        int firstByte = stream.read();
+        switch (firstByte) {
+        case '0':
+            return LoginStatus.SUCCESSFUL;
+        case '1':
+            return LoginStatus.INVALID_PASSWORD;
+        case '2':
+            return LoginStatus.INVALID_USERNAME;
+        default:
+            return LoginStatus.UNKNOWN;
+        }
+    }
+
     /**
      * Attempts to log out of the current account.
      * <p/>
@@ -0,0 +1,194 @@
+package at.yawk.fimfiction.core;
+
+import java.io.IOException;
+import java.io.InputStream;
+import javax.annotation.Nonnull;
+
+/**
+ * Extracts the story IDs from a search page without tokenizing it. The raw bytes are searched for div start tags,
+ * and only those tags are looked at more closely: the ID of every div with the class "story_content_box" is
+ * reported to the callback as soon as the tag has been read. All other markup and text is skipped byte by byte.
+ *
+ * @author Jonas Konrad (yawkat)
+ */
+class StoryIdScanner {
+    private static final byte[] STORY_CLASS = { 's', 't', 'o', 'r', 'y', '_', 'c', 'o', 'n', 't', 'e', 'n', 't', '_',
+                                                'b', 'o', 'x' };
+    /**
+     * Longer tags are not story boxes and are skipped without looking at their attributes.
+     */
+    private static final int MAX_TAG_LENGTH = 512;
+
+    @Nonnull private final InputStream in;
+    @Nonnull private final Search.IdCallback callback;
+
+    private final byte[] buffer = new byte[8192];
+    private int position;
+    private int limit;
+
+    private final byte[] tag = new byte[MAX_TAG_LENGTH];
+
+    StoryIdScanner(@Nonnull InputStream in, @Nonnull Search.IdCallback callback) {
+        this.in = in;
+        this.callback = callback;
+    }
+
+    /**
+     * Reads the whole input and returns the amount of IDs found. The input stream is not closed.
+     */
+    int scan() throws IOException {
+        int found = 0;
+        while (skipTo('<')) {
+            if (!next('d') || !next('i') || !next('v')) { continue; }
+            int c = read();
+            if (!isWhitespace(c)) {
+                if (c != -1) { position--; }
+                continue;
+            }
+            int tagLength = readTag();
+            if (tagLength != -1) {
+                int id = storyId(tag, tagLength);
+                if (id != -1) {
+                    callback.onId(id);
+                    found++;
+                }
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Reads the next byte and returns whether it is the given lower case letter, ignoring case. If it is not,
+     * the byte is left in the input.
+     */
+    private boolean next(char letter) throws IOException {
+        int c = read();
+        if ((c | 0x20) == letter) { return true; }
+        if (c != -1) { position--; }
+        return false;
+    }
+
+    /**
+     * Reads the attributes of a start tag up to the closing '>' into the tag buffer and returns their length, or -1
+     * if the tag is too long.
+     */
+    private int readTag() throws IOException {
+        int length = 0;
+        int quote = 0;
+        int c;
+        while ((c = read()) != -1) {
+            if (quote == 0 && c == '>') { return length; }
+            if (c == quote) {
+                quote = 0;
+            } else if (quote == 0 && (c == '"' || c == '\'')) {
+                quote = c;
+            }
+            if (length == MAX_TAG_LENGTH) {
+                if (quote == 0) { position--; }
+                return -1;
+            }
+            tag[length++] = (byte) c;
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the story ID of the given div attributes or -1 if they do not belong to a story box. Like the full
+     * parser, the ID is made up of all digits in the id attribute.
+     */
+    private static int storyId(@Nonnull byte[] tag, int length) {
+        boolean storyBox = false;
+        int id = -1;
+        int i = 0;
+        while (i < length) {
+            while (i < length && isWhitespace(tag[i])) { i++; }
+            int nameStart = i;
+            while (i < length && tag[i] != '=' && !isWhitespace(tag[i])) { i++; }
+            int nameEnd = i;
+            while (i < length && isWhitespace(tag[i])) { i++; }
+            if (i == length || tag[i] != '=') { continue; }
+            i++;
+            while (i < length && isWhitespace(tag[i])) { i++; }
+            int valueStart;
+            int valueEnd;
+            if (i < length && (tag[i] == '"' || tag[i] == '\'')) {
+                byte quote = tag[i++];
+                valueStart = i;
+                while (i < length && tag[i] != quote) { i++; }
+                valueEnd = i++;
+            } else {
+                valueStart = i;
+                while (i < length && !isWhitespace(tag[i])) { i++; }
+                valueEnd = i;
+            }
+
+            if (isName(tag, nameStart, nameEnd, "class")) {
+                storyBox = valueEnd - valueStart == STORY_CLASS.length &&
+                           regionMatches(tag, valueStart, STORY_CLASS);
+            } else if (isName(tag, nameStart, nameEnd, "id")) {
+                id = digits(tag, valueStart, valueEnd);
+            }
+        }
+        return storyBox ? id : -1;
+    }
+
+    private static int digits(@Nonnull byte[] tag, int start, int end) {
+        int result = -1;
+        for (int i = start; i < end; i++) {
+            int value = tag[i] - '0';
+            if (value >= 0 && value < 10) {
+                result = result == -1 ? value : result * 10 + value;
+            }
+        }
+        return result;
+    }
+
+    private static boolean isName(@Nonnull byte[] tag, int start, int end, @Nonnull String name) {
+        if (end - start != name.length()) { return false; }
+        for (int i = 0; i < name.length(); i++) {
+            if ((tag[start + i] | 0x20) != name.charAt(i)) { return false; }
+        }
+        return true;
+    }
+
+    private static boolean regionMatches(@Nonnull byte[] tag, int start, @Nonnull byte[] expected) {
+        for (int i = 0; i < expected.length; i++) {
+            if (tag[start + i] != expected[i]) { return false; }
+        }
+        return true;
+    }
+
+    private static boolean isWhitespace(int c) { return c == ' ' || c == '\n' || c == '\r' || c == '\t'; }
+
+    /**
+     * Skips input up to and including the next occurrence of the given byte. Returns false if the end of the input
+     * was reached first.
+     */
+    private boolean skipTo(char b) throws IOException {
+        while (true) {
+            for (int i = position; i < limit; i++) {
+                if (buffer[i] == b) {
+                    position = i + 1;
+                    return true;
+                }
+            }
+            position = limit;
+            if (read() == -1) { return false; }
+            position--;
+        }
+    }
+
+    /**
+     * Reads the next byte or returns -1 at the end of the input. After a byte was read, position can be decremented
+     * once to read it again.
+     */
+    private int read() throws IOException {
+        if (position == limit) {
+            int read = in.read(buffer, 0, buffer.length);
+            if (read <= 0) { return -1; }
+            position = 0;
+            limit = read;
+        }
+        return buffer[position++] & 0xff;
+    }
+}
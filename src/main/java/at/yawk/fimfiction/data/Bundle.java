@@ -91,9 +91,8 @@ public abstract class Bundle<B extends Bundle, K extends Key> {
     public final B set(@Nonnull B other) {
         Preconditions.checkNotNull(other);
         Preconditions.checkArgument(other.getClass() == getClass());
-        for (K key : _keySet()) {
-            Object value = other._get(key);
-            if (value != null) { _set(key, value); }
+        for (K key : ((Bundle<?, K>) other)._setKeys()) {
+            _set(key, other._get(key));
         }
         return self();
     }
@@ -105,7 +104,7 @@ public abstract class Bundle<B extends Bundle, K extends Key> {
      * @see #has(Key)
      */
     public final boolean has(@Nonnull String id) {
-        return _get(key(id)) != null;
+        return _has(key(id));
     }
 
     /**
@@ -114,7 +113,7 @@ public abstract class Bundle<B extends Bundle, K extends Key> {
      */
     public final boolean has(@Nonnull K key) {
         Preconditions.checkNotNull(key);
-        return _get(key) != null;
+        return _has(key);
     }
 
     /**
@@ -131,12 +130,7 @@ public abstract class Bundle<B extends Bundle, K extends Key> {
      */
     @Nonnull
     public final Set<K> getSetKeys() {
-        return Sets.filter(getPossibleKeys(), new Predicate<K>() {
-            @Override
-            public boolean apply(@Nullable K input) {
-                return input != null && has(input);
-            }
-        });
+        return _setKeys();
     }
 
     /**
@@ -165,10 +159,64 @@ public abstract class Bundle<B extends Bundle, K extends Key> {
         return self();
     }
 
+    /**
+     * Assign the given number to the given key. Unlike #set(Key, Object) this does not box the value.
+     *
+     * @return this object.
+     * @throws NullPointerException     if the key is null.
+     * @throws IllegalArgumentException if the given key does not accept numbers.
+     */
+    @Nonnull
+    public final B setLong(@Nonnull K key, long value) {
+        checkValueType(key, ValueType.NUMBER);
+        _setLong(key, value, false);
+        return self();
+    }
+
+    /**
+     * Same as #setLong but #get(Key) will return an Integer instead of a Long for this key.
+     */
+    @Nonnull
+    public final B setInt(@Nonnull K key, int value) {
+        checkValueType(key, ValueType.NUMBER);
+        _setLong(key, value, true);
+        return self();
+    }
+
+    /**
+     * Assign the given boolean to the given key. Unlike #set(Key, Object) this does not box the value.
+     *
+     * @return this object.
+     * @throws NullPointerException     if the key is null.
+     * @throws IllegalArgumentException if the given key does not accept booleans.
+     */
+    @Nonnull
+    public final B setBoolean(@Nonnull K key, boolean value) {
+        checkValueType(key, ValueType.BOOLEAN);
+        _setBoolean(key, value);
+        return self();
+    }
+
+    /**
+     * Convenience method equivalent to #get(Key) that returns a long. Numbers set through #setLong or #setInt are
+     * returned without boxing.
+     */
+    public final long getLong(@Nonnull K key) throws MissingKeyException {
+        Preconditions.checkNotNull(key);
+        if (!_has(key)) { throw new MissingKeyException(key); }
+        return _getLong(key);
+    }
+
+    /**
+     * Convenience method that returns either the value associated to the given key or the default value if no such
+     * value exists.
+     */
+    public final long getLong(@Nonnull K key, long defaultValue) { return has(key) ? _getLong(key) : defaultValue; }
+
     /**
      * Convenience method equivalent to #get(Key) that returns an integer.
      */
-    public final int getInt(@Nonnull K key) { return (this.<Number>get(key)).intValue(); }
+    public final int getInt(@Nonnull K key) { return (int) getLong(key); }
 
     /**
      * Convenience method that returns either the value associated to the given key or the default value if no such
@@ -179,7 +227,11 @@ public abstract class Bundle<B extends Bundle, K extends Key> {
     /**
      * Convenience method equivalent to #get(Key) that returns an boolean.
      */
-    public final boolean getBoolean(@Nonnull K key) { return get(key); }
+    public final boolean getBoolean(@Nonnull K key) {
+        Preconditions.checkNotNull(key);
+        if (!_has(key)) { throw new MissingKeyException(key); }
+        return _getBoolean(key);
+    }
 
     /**
      * Convenience method that returns either the value associated to the given key or the default value if no such
@@ -221,6 +273,20 @@ public abstract class Bundle<B extends Bundle, K extends Key> {
         return _immutable() ? self() : _copy(true);
     }
 
+    /**
+     * Makes this Bundle and all bundles reachable from it immutable in place. Unlike #immutableCopy nothing is
+     * copied: the caller hands over this object along with its values (for example Date instances) and must not
+     * modify them afterwards. Values that already are immutable are left alone, so freezing a bundle whose children
+     * are frozen does not depend on the size of those children.
+     *
+     * @return this object.
+     */
+    @Nonnull
+    public final B freeze() {
+        if (!_immutable()) { _freeze(); }
+        return self();
+    }
+
     /**
      * Method used to ensure a Bundle is mutable and thus suitable for following #set and #unset operations.
      *
@@ -235,28 +301,15 @@ public abstract class Bundle<B extends Bundle, K extends Key> {
     @Override
     @SuppressWarnings("unchecked")
     public final boolean equals(Object o) {
+        if (o == this) { return true; }
         if (o == null || o.getClass() != getClass()) { return false; }
 
-        for (K key : getPossibleKeys()) {
-            Object v1 = _get(key);
-            Object v2 = ((Bundle<?, K>) o)._get(key);
-            if (v1 == null ? v2 != null : !v1.equals(v2)) {
-                return false;
-            }
-        }
-        return true;
+        return _equals((B) o);
     }
 
     @Override
     public final int hashCode() {
-        int h = 0;
-        int o = 0;
-        for (K key : getPossibleKeys()) {
-            Object v = _get(key);
-            h ^= v == null ? 0 : v.hashCode();
-            o = (o + 7) % 25;
-        }
-        return h;
+        return _hashCode();
     }
 
     @Override
@@ -300,6 +353,13 @@ public abstract class Bundle<B extends Bundle, K extends Key> {
         return object;
     }
 
+    private static void checkValueType(@Nonnull Key key, @Nonnull ValueType type) throws IllegalArgumentException {
+        if (key.getType() != type) {
+            throw new IllegalArgumentException("Invalid value on key '" + key.getId() + "': " + type + " " +
+                                               "Required type: " + key.getType());
+        }
+    }
+
     @SuppressWarnings("unchecked")
     @Nonnull
     private B self() {
@@ -316,6 +376,11 @@ public abstract class Bundle<B extends Bundle, K extends Key> {
     @Nonnull
     protected abstract B _copy(boolean immutable);
 
+    /**
+     * Makes this mutable bundle immutable in place, see #freeze.
+     */
+    protected abstract void _freeze();
+
     @Nullable
     protected abstract Object _get(@Nonnull K key);
 
@@ -325,4 +390,62 @@ public abstract class Bundle<B extends Bundle, K extends Key> {
     protected abstract Set<K> _keySet();
 
     protected boolean _immutable() { return false; }
+
+    protected boolean _has(@Nonnull K key) { return _get(key) != null; }
+
+    /**
+     * Returns the number set to the given key, which must be present.
+     */
+    @SuppressWarnings("ConstantConditions")
+    protected long _getLong(@Nonnull K key) { return ((Number) _get(key)).longValue(); }
+
+    /**
+     * Returns the boolean set to the given key, which must be present.
+     */
+    @SuppressWarnings("ConstantConditions")
+    protected boolean _getBoolean(@Nonnull K key) { return (Boolean) _get(key); }
+
+    /**
+     * Sets a number value. If intValue is true the value fits into an int and should be returned as an Integer by
+     * #_get.
+     */
+    protected void _setLong(@Nonnull K key, long value, boolean intValue) {
+        _set(key, intValue ? Integer.valueOf((int) value) : Long.valueOf(value));
+    }
+
+    protected void _setBoolean(@Nonnull K key, boolean value) { _set(key, value); }
+
+    /**
+     * Live view of the keys that are set in this bundle.
+     */
+    @Nonnull
+    protected Set<K> _setKeys() {
+        return Sets.filter(getPossibleKeys(), new Predicate<K>() {
+            @Override
+            public boolean apply(@Nullable K input) {
+                return input != null && has(input);
+            }
+        });
+    }
+
+    /**
+     * Compares the values of this bundle with those of another bundle of the same class.
+     */
+    @SuppressWarnings("unchecked")
+    protected boolean _equals(@Nonnull B other) {
+        for (K key : getPossibleKeys()) {
+            Object v1 = _get(key);
+            Object v2 = ((Bundle<?, K>) other)._get(key);
+            if (v1 == null ? v2 != null : !v1.equals(v2)) { return false; }
+        }
+        return true;
+    }
+
+    protected int _hashCode() {
+        int hash = 0;
+        for (K key : getSetKeys()) {
+            hash ^= _get(key).hashCode();
+        }
+        return hash;
+    }
 }
@@ -4,7 +4,10 @@ import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Maps;
 import java.lang.reflect.Constructor;
+import java.util.AbstractSet;
+import java.util.Iterator;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Set;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -31,6 +34,32 @@ abstract class EnumKeyBundle<T extends EnumKeyBundle, K extends Enum<K> & Key> e
      * Underlying data array. Indexes are the ordinal of the enum.
      */
     Object[] data;
+    /**
+     * Bit mask of the set entries in #data: bit n is set if the key with ordinal n has a value.
+     */
+    long present;
+    /**
+     * Values of Integer, Long and Boolean entries, which are stored here instead of boxed in #data. Created on the
+     * first such entry.
+     */
+    @Nullable long[] primitives;
+    /**
+     * Bit masks of the entries stored in #primitives, and of those among them that have to be boxed as Integer or
+     * Boolean (Long otherwise) when they are read through #_get.
+     */
+    long primitiveMask;
+    long intMask;
+    long booleanMask;
+    /**
+     * Bit mask of the entries in #data that are immutable already (see ValueType#isImmutable) or owned by this
+     * bundle after #_freeze. #_copy and #_freeze skip these entries.
+     */
+    long immutableValueMask;
+    /**
+     * Cached hash code of an immutable bundle or 0 if it has not been computed yet. Like String#hashCode, this is
+     * racy but safe since every thread computes the same value.
+     */
+    private int hash;
 
     @SuppressWarnings("unchecked")
     EnumKeyBundle() {
@@ -175,23 +204,52 @@ abstract class EnumKeyBundle<T extends EnumKeyBundle, K extends Enum<K> & Key> e
      */
     @Nonnull
     @Override
-    @SuppressWarnings({"unchecked", "RedundantCast"})
     protected T _copy(boolean immutable) {
-        T t = (T) mutable((Class<T>) getClass());
+        // no need to allocate an empty data array like #mutable does
+        T t = getBundleTypeData().create();
         t.data = this.data.clone();
+        t.present = this.present;
+        if (this.primitives != null) { t.primitives = this.primitives.clone(); }
+        t.primitiveMask = this.primitiveMask;
+        t.intMask = this.intMask;
+        t.booleanMask = this.booleanMask;
         if (immutable) {
             t.immutable = true;
             // make entries immutable as well
-            for (int i = 0; i < t.data.length; i++) {
-                if (data[i] != null) {
-                    ValueType v = getBundleTypeData().getKey(i).getType();
-                    data[i] = v.immutableCopy(data[i]);
-                }
+            for (long remaining = mutableValues(); remaining != 0; remaining &= remaining - 1) {
+                int i = Long.numberOfTrailingZeros(remaining);
+                ValueType v = getBundleTypeData().getKey(i).getType();
+                t.data[i] = v.immutableCopy(t.data[i]);
             }
+            t.immutableValueMask = t.present & ~t.primitiveMask;
+        } else {
+            // values frozen or copied by an immutable bundle may still be mutable objects such as Date, so only
+            // keep the values whose type guarantees immutability
+            t.immutableValueMask = this.immutableValueMask & ~getBundleTypeData().unshareableMask;
         }
         return t;
     }
 
+    /**
+     * Marks this bundle immutable and freezes its values. The flag is set first so reference cycles terminate.
+     */
+    @Override
+    protected void _freeze() {
+        immutable = true;
+        for (long remaining = mutableValues(); remaining != 0; remaining &= remaining - 1) {
+            int i = Long.numberOfTrailingZeros(remaining);
+            data[i] = getBundleTypeData().getKey(i).getType().freeze(data[i]);
+        }
+        immutableValueMask = present & ~primitiveMask;
+    }
+
+    /**
+     * Bit mask of the entries in #data that are not known to be immutable.
+     */
+    private long mutableValues() {
+        return present & ~primitiveMask & ~immutableValueMask;
+    }
+
     /**
      * Returns the value for the given key or null if it is unset.
      */
@@ -199,7 +257,37 @@ abstract class EnumKeyBundle<T extends EnumKeyBundle, K extends Enum<K> & Key> e
     @Override
     protected Object _get(@Nonnull K key) {
         validateKey(getBundleTypeData(), key);
-        return data[key.ordinal()];
+        int ordinal = key.ordinal();
+        return (primitiveMask & (1L << ordinal)) != 0 ? box(ordinal) : data[ordinal];
+    }
+
+    @Nonnull
+    @SuppressWarnings("ConstantConditions")
+    private Object box(int ordinal) {
+        long bit = 1L << ordinal;
+        long value = primitives[ordinal];
+        if ((booleanMask & bit) != 0) { return value != 0; }
+        if ((intMask & bit) != 0) { return (int) value; }
+        return value;
+    }
+
+    @Override
+    @SuppressWarnings("ConstantConditions")
+    protected long _getLong(@Nonnull K key) {
+        validateKey(getBundleTypeData(), key);
+        int ordinal = key.ordinal();
+        long bit = 1L << ordinal;
+        if ((primitiveMask & bit) != 0 && (booleanMask & bit) == 0) { return primitives[ordinal]; }
+        return super._getLong(key);
+    }
+
+    @Override
+    @SuppressWarnings("ConstantConditions")
+    protected boolean _getBoolean(@Nonnull K key) {
+        validateKey(getBundleTypeData(), key);
+        int ordinal = key.ordinal();
+        if ((booleanMask & (1L << ordinal)) != 0) { return primitives[ordinal] != 0; }
+        return super._getBoolean(key);
     }
 
     /**
@@ -210,7 +298,143 @@ abstract class EnumKeyBundle<T extends EnumKeyBundle, K extends Enum<K> & Key> e
     protected void _set(@Nonnull K key, @Nullable Object value) {
         if (immutable) { throw new UnsupportedOperationException(); }
         validateKey(getBundleTypeData(), key);
-        data[key.ordinal()] = value;
+        int ordinal = key.ordinal();
+        if (value instanceof Integer || value instanceof Long) {
+            setPrimitive(ordinal, ((Number) value).longValue(), value instanceof Integer, false);
+        } else if (value instanceof Boolean) {
+            setPrimitive(ordinal, (Boolean) value ? 1 : 0, false, true);
+        } else {
+            long bit = 1L << ordinal;
+            data[ordinal] = value;
+            present = value == null ? present & ~bit : present | bit;
+            immutableValueMask = value != null && key.getType().isImmutable(value) ?
+                    immutableValueMask | bit : immutableValueMask & ~bit;
+            primitiveMask &= ~bit;
+            intMask &= ~bit;
+            booleanMask &= ~bit;
+        }
+    }
+
+    @Override
+    protected void _setLong(@Nonnull K key, long value, boolean intValue) {
+        if (immutable) { throw new UnsupportedOperationException(); }
+        validateKey(getBundleTypeData(), key);
+        setPrimitive(key.ordinal(), value, intValue, false);
+    }
+
+    @Override
+    protected void _setBoolean(@Nonnull K key, boolean value) {
+        if (immutable) { throw new UnsupportedOperationException(); }
+        validateKey(getBundleTypeData(), key);
+        setPrimitive(key.ordinal(), value ? 1 : 0, false, true);
+    }
+
+    private void setPrimitive(int ordinal, long value, boolean intValue, boolean booleanValue) {
+        if (primitives == null) { primitives = new long[data.length]; }
+        long bit = 1L << ordinal;
+        primitives[ordinal] = value;
+        data[ordinal] = null;
+        present |= bit;
+        primitiveMask |= bit;
+        intMask = intValue ? intMask | bit : intMask & ~bit;
+        booleanMask = booleanValue ? booleanMask | bit : booleanMask & ~bit;
+    }
+
+    @Override
+    protected boolean _has(@Nonnull K key) {
+        validateKey(getBundleTypeData(), key);
+        return (present & (1L << key.ordinal())) != 0;
+    }
+
+    /**
+     * Set of the keys that are set, backed by the presence mask.
+     */
+    @Nonnull
+    @Override
+    protected Set<K> _setKeys() {
+        return new AbstractSet<K>() {
+            @Override
+            public Iterator<K> iterator() {
+                return new Iterator<K>() {
+                    long remaining = present;
+
+                    @Override
+                    public boolean hasNext() { return remaining != 0; }
+
+                    @Override
+                    public K next() {
+                        if (remaining == 0) { throw new NoSuchElementException(); }
+                        int ordinal = Long.numberOfTrailingZeros(remaining);
+                        remaining &= remaining - 1;
+                        return getBundleTypeData().getKey(ordinal);
+                    }
+
+                    @Override
+                    public void remove() { throw new UnsupportedOperationException(); }
+                };
+            }
+
+            @Override
+            public int size() { return Long.bitCount(present); }
+
+            @Override
+            public boolean isEmpty() { return present == 0; }
+
+            @Override
+            public boolean contains(Object o) {
+                return getBundleTypeData().keyType.isInstance(o) &&
+                       (present & (1L << ((Enum<?>) o).ordinal())) != 0;
+            }
+        };
+    }
+
+    /**
+     * Compares the presence masks first and then only the values that are set in both bundles. Immutable bundles
+     * with a cached hash code are also compared by that before looking at any values.
+     */
+    @Override
+    protected boolean _equals(@Nonnull T other) {
+        EnumKeyBundle<?, ?> o = other;
+        if (present != o.present || primitiveMask != o.primitiveMask || intMask != o.intMask ||
+            booleanMask != o.booleanMask) { return false; }
+        if (hash != 0 && o.hash != 0 && hash != o.hash) { return false; }
+        for (long remaining = present; remaining != 0; remaining &= remaining - 1) {
+            int ordinal = Long.numberOfTrailingZeros(remaining);
+            if ((primitiveMask & (1L << ordinal)) != 0) {
+                //noinspection ConstantConditions
+                if (primitives[ordinal] != o.primitives[ordinal]) { return false; }
+            } else if (!data[ordinal].equals(o.data[ordinal])) { return false; }
+        }
+        return true;
+    }
+
+    /**
+     * XOR of the hash codes of all set values. The result is cached for immutable bundles, whose values are
+     * expected not to change.
+     */
+    @Override
+    protected int _hashCode() {
+        int h = hash;
+        if (h == 0) {
+            for (long remaining = present; remaining != 0; remaining &= remaining - 1) {
+                h ^= hashCode(Long.numberOfTrailingZeros(remaining));
+            }
+            if (immutable) { hash = h; }
+        }
+        return h;
+    }
+
+    /**
+     * Hash code of the value at the given index, same as the hash code of the boxed value.
+     */
+    @SuppressWarnings("ConstantConditions")
+    private int hashCode(int ordinal) {
+        long bit = 1L << ordinal;
+        if ((primitiveMask & bit) == 0) { return data[ordinal].hashCode(); }
+        long value = primitives[ordinal];
+        if ((booleanMask & bit) != 0) { return value != 0 ? 1231 : 1237; }
+        if ((intMask & bit) != 0) { return (int) value; }
+        return (int) (value ^ (value >>> 32));
     }
 
     /**
@@ -246,6 +470,10 @@ class BundleTypeData<T extends EnumKeyBundle, K extends Enum<K> & Key> {
      * The enum class used for the key.
      */
     @Nonnull final Class<K> keyType;
+    /**
+     * All keys indexed by ordinal. Class#getEnumConstants clones its array on every call so it is cached here.
+     */
+    @Nonnull private final K[] keysByOrdinal;
     /**
      * The set of possible keys.
      */
@@ -254,14 +482,27 @@ class BundleTypeData<T extends EnumKeyBundle, K extends Enum<K> & Key> {
      * A singleton instance of this bundle that is immutable and contains no elements.
      */
     @Nonnull final T emptyImmutableSingleton;
+    /**
+     * Bit mask of the keys whose values may still be mutable objects in an immutable bundle (see
+     * ValueType#isShareable).
+     */
+    final long unshareableMask;
 
     BundleTypeData(@Nonnull Class<T> bundleType, @Nonnull Class<K> keyType) {
         this.keyType = keyType;
+        this.keysByOrdinal = keyType.getEnumConstants();
+        // the presence mask of EnumKeyBundle has one bit per key
+        Preconditions.checkArgument(keysByOrdinal.length <= 64, "Too many keys in " + keyType);
         try { // find constructor
             this.constructor = bundleType.getDeclaredConstructor();
         } catch (NoSuchMethodException e) { throw new AssertionError(e); }
         map();
         keySet = ImmutableSet.copyOf(keys.values());
+        long unshareableMask = 0;
+        for (K key : keysByOrdinal) {
+            if (!key.getType().isShareable()) { unshareableMask |= 1L << key.ordinal(); }
+        }
+        this.unshareableMask = unshareableMask;
         // create singleton
         emptyImmutableSingleton = create();
         emptyImmutableSingleton.bundleTypeData = this;
@@ -278,7 +519,7 @@ class BundleTypeData<T extends EnumKeyBundle, K extends Enum<K> & Key> {
     K getKey(@Nonnull String id) { return keys.get(id); }
 
     @Nonnull
-    K getKey(int ordinal) { return keyType.getEnumConstants()[ordinal]; }
+    K getKey(int ordinal) { return keysByOrdinal[ordinal]; }
 
     @Nonnull
     T create() {
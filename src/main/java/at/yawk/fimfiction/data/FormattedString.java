@@ -2,6 +2,8 @@ package at.yawk.fimfiction.data;
 
 import com.google.common.base.Preconditions;
 import com.google.common.collect.Lists;
+import java.io.IOException;
+import java.io.Writer;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
@@ -12,13 +14,21 @@ import org.apache.commons.lang.StringEscapeUtils;
 /**
  * A HTML-like formatted string class. It contains a CharSequence as the actual content and a list of start and end
  * tags for formatting. Overridden CharSequence methods (including toString) will work with unformatted content.
+ * <p/>
+ * Instances are immutable. The markup built by #buildFormattedText is cached per Markup.
  *
  * @author Jonas Konrad (yawkat)
  */
 public class FormattedString implements CharSequence {
-    @Nonnull private final CharSequence sequence;
+    @Nonnull private final String sequence;
     private final List<Tag> tags;
 
+    /**
+     * Results of #buildFormattedText, set on first use. Strings are safe to publish through a data race.
+     */
+    private String html;
+    private String bb;
+
     // CharSequence
 
     @Override
@@ -55,42 +65,160 @@ public class FormattedString implements CharSequence {
         return create(value, Arrays.asList(tags));
     }
 
-    private FormattedString(@Nonnull CharSequence value, @Nonnull List<Tag> tags) {
+    private FormattedString(@Nonnull String value, @Nonnull List<Tag> tags) {
         this.sequence = value;
-        Collections.sort(tags, new Comparator<Tag>() {
-            @Override
-            public int compare(@Nonnull Tag o1, @Nonnull Tag o2) {
-                return o1.index - o2.index;
-            }
-        });
+        // tags from builders and parsers are usually in order already
+        if (!isSorted(tags)) { Collections.sort(tags, TAG_ORDER); }
         this.tags = Collections.unmodifiableList(tags);
     }
 
+    private static final Comparator<Tag> TAG_ORDER = new Comparator<Tag>() {
+        @Override
+        public int compare(@Nonnull Tag o1, @Nonnull Tag o2) {
+            return o1.index - o2.index;
+        }
+    };
+
+    private static boolean isSorted(@Nonnull List<Tag> tags) {
+        int previousIndex = Integer.MIN_VALUE;
+        for (Tag tag : tags) {
+            if (tag.index < previousIndex) { return false; }
+            previousIndex = tag.index;
+        }
+        return true;
+    }
+
     // Formatting
 
     /**
-     * Builds a string with appropriate tags in the given markup.
+     * @return The tags of this string, sorted by index.
+     */
+    @Nonnull
+    public List<Tag> getTags() { return tags; }
+
+    /**
+     * Builds a string with appropriate tags in the given markup. The result is built in a single pass over the text
+     * and then cached, so repeated calls return the same instance.
      */
     @Nonnull
     public String buildFormattedText(@Nonnull Markup markup) {
         Preconditions.checkNotNull(markup);
+        String result = markup == Markup.HTML ? html : bb;
+        if (result == null) {
+            StringBuilder builder = new StringBuilder(length() + (length() >> 4) + tags.size() * 8);
+            try {
+                render(markup, builder);
+            } catch (IOException e) { throw new AssertionError(e); }
+            result = builder.toString();
+            if (markup == Markup.HTML) {
+                html = result;
+            } else {
+                bb = result;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Writes the text with appropriate tags in the given markup to the given sink, as returned by
+     * #buildFormattedText. Unless the markup was built before, the text is escaped and written piece by piece, so no
+     * string of the full size is created. Text is passed to a Writer with Writer#write(String, int, int) rather
+     * than Writer#append(CharSequence, int, int), which would copy it into a substring first.
+     */
+    public void renderTo(@Nonnull Markup markup, @Nonnull Appendable out) throws IOException {
+        Preconditions.checkNotNull(markup);
+        Preconditions.checkNotNull(out);
+        String built = markup == Markup.HTML ? html : bb;
+        if (built != null) {
+            out.append(built);
+        } else {
+            render(markup, out);
+        }
+    }
 
-        StringBuilder result = new StringBuilder();
+    private void render(@Nonnull Markup markup, @Nonnull Appendable out) throws IOException {
         int textPosition = 0;
         for (Tag tag : tags) {
-            result.append(transformText(markup, subSequence(textPosition, tag.index)));
+            appendText(markup, out, textPosition, tag.index);
             textPosition = tag.index;
-            result.append(tag.getTag(markup));
+            tag.appendTo(markup, out);
+        }
+        appendText(markup, out, textPosition, length());
+    }
+
+    /**
+     * Appends the text between the given indices. In HTML, the text is escaped like StringEscapeUtils#escapeHtml
+     * does and line breaks are replaced with br tags.
+     */
+    private void appendText(@Nonnull Markup markup, @Nonnull Appendable out, int from, int to) throws IOException {
+        if (markup != Markup.HTML) {
+            appendRegion(out, from, to);
+            return;
         }
-        result.append(transformText(markup, subSequence(textPosition, length())));
-        return result.toString();
+        // start of the text that was not appended yet
+        int run = from;
+        for (int i = from; i < to; i++) {
+            char c = sequence.charAt(i);
+            String escaped;
+            if (c < ASCII_ESCAPES.length) {
+                escaped = ASCII_ESCAPES[c];
+                if (escaped == null) { continue; }
+            } else {
+                escaped = c < HtmlEntities.NAMES.length ? HtmlEntities.NAMES[c] : null;
+            }
+            appendRegion(out, run, i);
+            if (escaped == null) {
+                out.append("&#");
+                appendDecimal(out, c);
+                out.append(';');
+            } else {
+                out.append(escaped);
+            }
+            run = i + 1;
+        }
+        appendRegion(out, run, to);
+    }
+
+    private void appendRegion(@Nonnull Appendable out, int from, int to) throws IOException {
+        if (out instanceof Writer) {
+            ((Writer) out).write(sequence, from, to - from);
+        } else {
+            out.append(sequence, from, to);
+        }
+    }
+
+    private static void appendDecimal(@Nonnull Appendable out, int value) throws IOException {
+        int divisor = 1;
+        while (divisor <= value / 10) { divisor *= 10; }
+        for (; divisor > 0; divisor /= 10) { out.append((char) ('0' + value / divisor % 10)); }
+    }
+
+    /**
+     * HTML replacements of the ASCII characters, null for characters that are written as they are.
+     */
+    private static final String[] ASCII_ESCAPES = new String[0x80];
+
+    static {
+        ASCII_ESCAPES['"'] = "&quot;";
+        ASCII_ESCAPES['&'] = "&amp;";
+        ASCII_ESCAPES['<'] = "&lt;";
+        ASCII_ESCAPES['>'] = "&gt;";
+        ASCII_ESCAPES['\n'] = "<br/>";
     }
 
-    private CharSequence transformText(Markup markup, CharSequence sequence) {
-        if (markup == Markup.HTML) {
-            sequence = StringEscapeUtils.escapeHtml(sequence.toString()).replace("\n", "<br/>");
+    /**
+     * The named HTML 4.0 entities StringEscapeUtils#escapeHtml uses for non-ASCII characters, loaded on first use.
+     * All of them are below U+2700; characters without a name are escaped numerically.
+     */
+    private static class HtmlEntities {
+        static final String[] NAMES = new String[0x2700];
+
+        static {
+            for (char c = 0x80; c < NAMES.length; c++) {
+                String escaped = StringEscapeUtils.escapeHtml(String.valueOf(c));
+                if (!escaped.startsWith("&#")) { NAMES[c] = escaped; }
+            }
         }
-        return sequence;
     }
 
     /**
@@ -109,6 +237,19 @@ public class FormattedString implements CharSequence {
             this.start = start;
         }
 
+        @Nonnull
+        public Formatting getFormatting() { return formatting; }
+
+        /**
+         * @return The position of this tag in the unformatted text.
+         */
+        public int getIndex() { return index; }
+
+        /**
+         * @return true if this is a start tag, false if it is an end tag.
+         */
+        public boolean isStart() { return start; }
+
         /**
          * Format this tag in the given markup, including brackets.
          */
@@ -116,12 +257,18 @@ public class FormattedString implements CharSequence {
         public String getTag(@Nonnull Markup markup) {
             Preconditions.checkNotNull(markup);
             StringBuilder builder = new StringBuilder();
-            builder.append(markup == Markup.HTML ? '<' : '[');
-            if (!start) { builder.append('/'); }
-            builder.append(formatting.getTag(markup, start));
-            builder.append(markup == Markup.HTML ? '>' : ']');
+            try {
+                appendTo(markup, builder);
+            } catch (IOException e) { throw new AssertionError(e); }
             return builder.toString();
         }
+
+        void appendTo(@Nonnull Markup markup, @Nonnull Appendable out) throws IOException {
+            out.append(markup == Markup.HTML ? '<' : '[');
+            if (!start) { out.append('/'); }
+            out.append(formatting.getTag(markup, start));
+            out.append(markup == Markup.HTML ? '>' : ']');
+        }
     }
 
     /**
@@ -171,22 +318,42 @@ public class FormattedString implements CharSequence {
      */
     @Nonnull
     public static Formatting size(float size, @Nonnull SizeUnit unit) {
-        Preconditions.checkNotNull(unit);
-        final String sizeString = size + (unit == SizeUnit.EM ? "em" : unit == SizeUnit.PT ? "pt" : "px");
-        return new Formatting() {
-            @Nonnull
-            @Override
-            public String getTag(Markup markup, boolean start) {
-                Preconditions.checkNotNull(markup);
-                StringBuilder tag = new StringBuilder();
-                if (start) {
-                    tag.append(markup == Markup.BB ? "size=" + sizeString : "font size=\"" + sizeString + "\"");
-                } else {
-                    tag.append(markup == Markup.BB ? "size" : "font");
-                }
-                return tag.toString();
+        return new Size(size, unit);
+    }
+
+    /**
+     * Font size formatting, see #size.
+     */
+    public static class Size implements Formatting {
+        private final float size;
+        @Nonnull private final SizeUnit unit;
+        @Nonnull private final String bbStartTag;
+        @Nonnull private final String htmlStartTag;
+
+        private Size(float size, @Nonnull SizeUnit unit) {
+            Preconditions.checkNotNull(unit);
+            this.size = size;
+            this.unit = unit;
+            String sizeString = size + (unit == SizeUnit.EM ? "em" : unit == SizeUnit.PT ? "pt" : "px");
+            this.bbStartTag = "size=" + sizeString;
+            this.htmlStartTag = "font size=\"" + sizeString + "\"";
+        }
+
+        public float getSize() { return size; }
+
+        @Nonnull
+        public SizeUnit getUnit() { return unit; }
+
+        @Nonnull
+        @Override
+        public String getTag(Markup markup, boolean start) {
+            Preconditions.checkNotNull(markup);
+            if (start) {
+                return markup == Markup.BB ? bbStartTag : htmlStartTag;
+            } else {
+                return markup == Markup.BB ? "size" : "font";
             }
-        };
+        }
     }
 
     /**
@@ -216,22 +383,35 @@ public class FormattedString implements CharSequence {
      * Create a new builder instance.
      */
     public static FormattedStringBuilder builder() {
-        return new FormattedStringBuilder();
+        return new FormattedStringBuilder(16);
+    }
+
+    /**
+     * Create a new builder instance with room for the given amount of characters.
+     */
+    public static FormattedStringBuilder builder(int capacity) {
+        return new FormattedStringBuilder(capacity);
     }
 
     /**
      * Fast StringBuilder-like class that can be used for efficient string building.
      */
     public static class FormattedStringBuilder implements CharSequence {
-        private final StringBuilder text = new StringBuilder();
+        private final StringBuilder text;
         private final List<Tag> tags = Lists.newArrayList();
 
-        private FormattedStringBuilder() {}
+        private FormattedStringBuilder(int capacity) {
+            this.text = new StringBuilder(capacity);
+        }
 
         public void append(CharSequence text) {
             this.text.append(text);
         }
 
+        public void append(CharSequence text, int start, int end) {
+            this.text.append(text, start, end);
+        }
+
         public void append(char[] array, int off, int len) {
             this.text.append(array, off, len);
         }
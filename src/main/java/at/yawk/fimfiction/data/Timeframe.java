@@ -37,7 +37,7 @@ public interface Timeframe extends Identifiable {
             }
         }
 
-        static { IdentifiableMapper.addMapping(FimCharacter.class, values()); }
+        static { IdentifiableMapper.addMapping(Timeframe.class, values()); }
 
         /**
          * Returns a Timeframe for the ID generated by Identifiable#getId. This does not only return
@@ -2,6 +2,7 @@ package at.yawk.fimfiction.data;
 
 import com.google.common.base.Function;
 import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableCollection;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
@@ -191,7 +192,8 @@ public enum ValueType {
     }
 
     /**
-     * Copies or reuses the given instance of this value type ensuring that it is immutable.
+     * Copies or reuses the given instance of this value type ensuring that it is immutable. Immutable bundles,
+     * optionals and collections that only contain immutable values are reused.
      */
     public Object immutableCopy(Object original) {
         Preconditions.checkState(getType().isInstance(original));
@@ -209,11 +211,11 @@ public enum ValueType {
         case CHARACTER:
         case CATEGORY:
         case TIMEFRAME:
+        case STORY_STATUS:
             return original;
         case DATE:
             return ((Date) original).clone();
         case USER:
-        case STORY_STATUS:
         case CHAPTER:
         case STORY:
         case SHELF:
@@ -223,14 +225,15 @@ public enum ValueType {
         case OPTIONAL_STRING:
             assert childType != null;
             Optional optional = (Optional) original;
-            return optional.exists() ?
-                    Optional.existing(childType.immutableCopy(optional.get()), (Class) childType.getType()) :
-                    Optional.missing(childType.getType());
+            if (isImmutable(optional)) { return original; }
+            return Optional.existing(childType.immutableCopy(optional.get()), (Class) childType.getType());
         case LIST_CHAPTER:
         case LIST_STORY:
+        case SET_SHELF:
         case SET_CHARACTER:
         case SET_CATEGORY:
             assert childType != null;
+            if (isImmutable(original)) { return original; }
             Iterable<Object> v = Iterables.transform((Iterable<?>) original, new Function<Object, Object>() {
                 @Nullable
                 @Override
@@ -244,6 +247,81 @@ public enum ValueType {
         throw new AssertionError(name());
     }
 
+    /**
+     * Returns whether #immutableCopy would return the given instance of this value type as is.
+     */
+    boolean isImmutable(@Nonnull Object value) {
+        switch (this) {
+        case DATE:
+            return false;
+        case USER:
+        case CHAPTER:
+        case STORY:
+        case SHELF:
+            return ((Bundle) value)._immutable();
+        case OPTIONAL_USER:
+        case OPTIONAL_URL:
+        case OPTIONAL_STRING:
+            assert childType != null;
+            Optional optional = (Optional) value;
+            return !optional.exists() || childType.isImmutable(optional.get());
+        case LIST_CHAPTER:
+        case LIST_STORY:
+        case SET_SHELF:
+        case SET_CHARACTER:
+        case SET_CATEGORY:
+            assert childType != null;
+            if (!(value instanceof ImmutableCollection)) { return false; }
+            for (Object element : (Iterable<?>) value) {
+                if (element != null && !childType.isImmutable(element)) { return false; }
+            }
+            return true;
+        default:
+            return true;
+        }
+    }
+
+    /**
+     * Returns whether values of this type stay immutable once they were frozen or copied by #immutableCopy, so a
+     * mutable copy of an immutable bundle may share them. Frozen dates are still mutable Date objects.
+     */
+    boolean isShareable() {
+        return this != DATE;
+    }
+
+    /**
+     * Makes the given instance of this value type immutable in place where possible (see Bundle#freeze) and
+     * returns it. Values that cannot be made immutable in place, such as mutable collections, are copied.
+     */
+    @Nonnull
+    Object freeze(@Nonnull Object original) {
+        switch (this) {
+        case USER:
+        case CHAPTER:
+        case STORY:
+        case SHELF:
+            return ((Bundle) original).freeze();
+        case OPTIONAL_USER:
+            Optional optional = (Optional) original;
+            if (optional.exists()) { ((Bundle) optional.get()).freeze(); }
+            return original;
+        case LIST_CHAPTER:
+        case LIST_STORY:
+        case SET_SHELF:
+            if (!(original instanceof ImmutableCollection)) { return immutableCopy(original); }
+            for (Object element : (Iterable<?>) original) {
+                if (element != null) { ((Bundle) element).freeze(); }
+            }
+            return original;
+        case SET_CHARACTER:
+        case SET_CATEGORY:
+            return original instanceof ImmutableCollection ? original : immutableCopy(original);
+        default:
+            // dates are handed over along with the bundle, everything else is immutable anyway
+            return original;
+        }
+    }
+
     @Nonnull
     @Override
     public String toString() {
@@ -1,31 +1,40 @@
 package at.yawk.fimfiction.json;
 
+import at.yawk.fimfiction.core.Dates;
 import at.yawk.fimfiction.core.FormattedStringParser;
 import at.yawk.fimfiction.data.*;
+import com.google.common.base.Charsets;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
-import java.io.IOException;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import java.io.*;
 import java.net.MalformedURLException;
 import java.net.URL;
-import java.text.DateFormat;
 import java.text.ParseException;
-import java.text.SimpleDateFormat;
 import java.util.Collection;
 import java.util.List;
-import java.util.TimeZone;
+import java.util.Map;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import org.xml.sax.SAXException;
 
 /**
- * Helper class to deserialize JsonObject into Bundle instances of a specific type.
+ * Helper class to deserialize JsonObject into Bundle instances of a specific type. Bundles can also be read directly
+ * from a stream as written by Serializer, without building a JsonObject tree first.
  *
  * @author Jonas Konrad (yawkat)
  */
 public class Deserializer {
+    /**
+     * Keys of each bundle type by ID, used when reading from a stream.
+     */
+    private final Map<Class<?>, Map<String, Key>> keysByBundleType = Maps.newConcurrentMap();
+
     @Nonnull
     public <B extends Bundle<B, K>, K extends Key> B deserializeBundle(@Nonnull JsonObject object,
                                                                        @Nonnull Class<B> type)
@@ -47,6 +56,159 @@ public class Deserializer {
         return target;
     }
 
+    /**
+     * Reads a bundle of the given type from the next JSON object of the given reader. Unknown members are skipped.
+     */
+    @Nonnull
+    @SuppressWarnings("unchecked")
+    public <B extends Bundle<B, K>, K extends Key> B deserializeBundle(@Nonnull JsonReader reader,
+                                                                       @Nonnull Class<B> type)
+            throws IOException, ParseException, SAXException {
+        Preconditions.checkNotNull(reader);
+        Preconditions.checkNotNull(type);
+
+        B target = createBundle(type);
+        Map<String, Key> keys = getKeys(target);
+        reader.beginObject();
+        while (reader.hasNext()) {
+            K key = (K) keys.get(reader.nextName());
+            if (key == null) {
+                reader.skipValue();
+            } else if (key.getType() == ValueType.NUMBER && reader.peek() == JsonToken.NUMBER) {
+                // avoid boxing
+                String number = reader.nextString();
+                try {
+                    target.setLong(key, Long.parseLong(number));
+                } catch (NumberFormatException e) {
+                    target.set(key, Double.parseDouble(number));
+                }
+            } else if (key.getType() == ValueType.BOOLEAN && reader.peek() == JsonToken.BOOLEAN) {
+                target.setBoolean(key, reader.nextBoolean());
+            } else {
+                target.set(key, readValue(reader, key.getType()));
+            }
+        }
+        reader.endObject();
+        return target;
+    }
+
+    /**
+     * Reads a JSON array of bundles of the given type as written by Serializer#serializeBundles and passes them to
+     * the callback one at a time, so only one bundle is held in memory at once. The reader is not closed.
+     *
+     * @return the amount of bundles read.
+     */
+    public <B extends Bundle<B, K>, K extends Key> int deserializeBundles(@Nonnull Reader in,
+                                                                          @Nonnull Class<B> type,
+                                                                          @Nonnull Callback<? super B> callback)
+            throws IOException, ParseException, SAXException {
+        Preconditions.checkNotNull(callback);
+
+        JsonReader reader = new JsonReader(in);
+        int count = 0;
+        reader.beginArray();
+        while (reader.hasNext()) {
+            callback.onBundle(deserializeBundle(reader, type));
+            count++;
+        }
+        reader.endArray();
+        return count;
+    }
+
+    /**
+     * Same as #deserializeBundles(Reader, Class, Callback) but reads UTF-8 from the given stream.
+     */
+    public <B extends Bundle<B, K>, K extends Key> int deserializeBundles(@Nonnull InputStream in,
+                                                                          @Nonnull Class<B> type,
+                                                                          @Nonnull Callback<? super B> callback)
+            throws IOException, ParseException, SAXException {
+        return deserializeBundles(new BufferedReader(new InputStreamReader(in, Charsets.UTF_8)), type, callback);
+    }
+
+    @Nonnull
+    @SuppressWarnings("unchecked")
+    private Object readValue(@Nonnull JsonReader reader, @Nonnull ValueType type)
+            throws IOException, SAXException, ParseException {
+        if (type.isContainer()) {
+            assert type.getElementType() != null;
+            if (type.getType() == Optional.class) {
+                if (reader.peek() == JsonToken.NULL) {
+                    reader.nextNull();
+                    return Optional.missing(type.getElementType().getType());
+                }
+                return Optional.existing(readValue(reader, type.getElementType()));
+            } else if (Collection.class.isAssignableFrom(type.getType())) {
+                checkToken(reader, JsonToken.BEGIN_ARRAY);
+                Collection<Object> d = type.getType() == List.class ? Lists.newArrayList() : Sets.newHashSet();
+                reader.beginArray();
+                while (reader.hasNext()) { d.add(readValue(reader, type.getElementType())); }
+                reader.endArray();
+                return d;
+            }
+        } else if (Bundle.class.isAssignableFrom(type.getType())) {
+            checkToken(reader, JsonToken.BEGIN_OBJECT);
+            return deserializeBundle(reader, (Class<? extends Bundle>) type.getType());
+        } else {
+            if (type == ValueType.BOOLEAN) {
+                checkToken(reader, JsonToken.BOOLEAN);
+                return reader.nextBoolean();
+            }
+            if (type == ValueType.NUMBER) {
+                checkToken(reader, JsonToken.NUMBER);
+                return parseNumber(reader.nextString());
+            }
+            checkToken(reader, JsonToken.STRING);
+            String value = reader.nextString();
+            if (type == ValueType.URL) {
+                try {
+                    return new URL(value);
+                } catch (MalformedURLException e) {
+                    throw new IllegalArgumentException(e);
+                }
+            }
+            if (type == ValueType.STRING) { return value; }
+            if (type == ValueType.FORMATTED_STRING) { return FormattedStringParser.parseHtml(value); }
+            if (type == ValueType.DATE) { return Dates.parseIso(value); }
+            if (Identifiable.class.isAssignableFrom(type.getType())) {
+                Object identifiable = findIdentifiable((Class<? extends Identifiable>) type.getType(), value);
+                if (identifiable == null) {
+                    throw new IllegalArgumentException("Unknown " + type + " value: " + value);
+                }
+                return identifiable;
+            }
+        }
+
+        throw new UnsupportedOperationException(type + " is not supported for serialization.");
+    }
+
+    private static void checkToken(@Nonnull JsonReader reader, @Nonnull JsonToken expected) throws IOException {
+        JsonToken actual = reader.peek();
+        Preconditions.checkArgument(actual == expected, "Expected %s but was %s", expected, actual);
+    }
+
+    @Nonnull
+    private Map<String, Key> getKeys(@Nonnull Bundle<?, ?> bundle) {
+        Map<String, Key> keys = keysByBundleType.get(bundle.getClass());
+        if (keys == null) {
+            keys = Maps.newHashMap();
+            for (Key key : bundle.getPossibleKeys()) { keys.put(key.getId(), key); }
+            keysByBundleType.put(bundle.getClass(), keys);
+        }
+        return keys;
+    }
+
+    /**
+     * Numbers are read as Long if possible, Double otherwise.
+     */
+    @Nonnull
+    private static Number parseNumber(@Nonnull String number) {
+        try {
+            return Long.parseLong(number);
+        } catch (NumberFormatException e) {
+            return Double.parseDouble(number);
+        }
+    }
+
     @Nonnull
     @SuppressWarnings("unchecked")
     private Object deserializeValue(@Nonnull ValueType type, @Nonnull JsonElement element)
@@ -89,7 +251,7 @@ public class Deserializer {
             }
             if (type == ValueType.NUMBER) {
                 Preconditions.checkArgument(element.getAsJsonPrimitive().isNumber());
-                return element.getAsNumber();
+                return parseNumber(element.getAsString());
             }
             if (type == ValueType.URL) {
                 Preconditions.checkArgument(element.getAsJsonPrimitive().isString());
@@ -109,7 +271,7 @@ public class Deserializer {
             }
             if (type == ValueType.DATE) {
                 Preconditions.checkArgument(element.getAsJsonPrimitive().isString());
-                return createIsoDateFormat().parse(element.getAsJsonPrimitive().getAsString());
+                return Dates.parseIso(element.getAsJsonPrimitive().getAsString());
             }
             if (Identifiable.class.isAssignableFrom(type.getType())) {
                 Preconditions.checkArgument(element.getAsJsonPrimitive().isString());
@@ -146,9 +308,10 @@ public class Deserializer {
                 "Unsupported identifiable type: " + type.getSimpleName() + " [value=" + id + "]");
     }
 
-    static DateFormat createIsoDateFormat() {
-        DateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm'Z'");
-        dateFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
-        return dateFormat;
+    /**
+     * Receives the bundles read by #deserializeBundles.
+     */
+    public static interface Callback<B> {
+        void onBundle(@Nonnull B bundle);
     }
 }
@@ -1,14 +1,19 @@
 package at.yawk.fimfiction.json;
 
+import at.yawk.fimfiction.core.Dates;
 import at.yawk.fimfiction.data.*;
+import com.google.common.base.Charsets;
 import com.google.common.base.Preconditions;
 import com.google.gson.*;
+import com.google.gson.stream.JsonWriter;
+import java.io.*;
 import java.util.Date;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 
 /**
- * Helper class to serialize Bundle instances to JSON objects.
+ * Helper class to serialize Bundle instances to JSON objects. Bundles can either be converted to a JsonObject tree
+ * or written directly to a stream, which avoids holding a second copy of the data in memory.
  *
  * @author Jonas Konrad (yawkat)
  */
@@ -26,6 +31,47 @@ public class Serializer {
         return result;
     }
 
+    /**
+     * Writes the given bundle as a JSON object to the given writer. The output is the same as that of
+     * #serializeBundle(Bundle).
+     */
+    public <K extends Key> void serializeBundle(@Nonnull Bundle<?, K> bundle, @Nonnull JsonWriter writer)
+            throws IOException {
+        Preconditions.checkNotNull(bundle);
+        Preconditions.checkNotNull(writer);
+
+        writer.beginObject();
+        for (K key : bundle.getSetKeys()) {
+            writer.name(key.getId());
+            writeValue(writer, key.getType(), bundle.get(key));
+        }
+        writer.endObject();
+    }
+
+    /**
+     * Writes the given bundles as a JSON array. The bundles are requested from the iterable one at a time, so a lazy
+     * Iterable can be used to export any amount of bundles while only one of them is held in memory. The writer is
+     * flushed but not closed.
+     */
+    public void serializeBundles(@Nonnull Iterable<? extends Bundle<?, ?>> bundles, @Nonnull Writer out)
+            throws IOException {
+        Preconditions.checkNotNull(bundles);
+
+        JsonWriter writer = new JsonWriter(out);
+        writer.beginArray();
+        for (Bundle<?, ?> bundle : bundles) { serializeBundle(bundle, writer); }
+        writer.endArray();
+        writer.flush();
+    }
+
+    /**
+     * Same as #serializeBundles(Iterable, Writer) but writes UTF-8 to the given stream.
+     */
+    public void serializeBundles(@Nonnull Iterable<? extends Bundle<?, ?>> bundles, @Nonnull OutputStream out)
+            throws IOException {
+        serializeBundles(bundles, new BufferedWriter(new OutputStreamWriter(out, Charsets.UTF_8)));
+    }
+
     @Nonnull
     private JsonElement serializeValue(@Nonnull ValueType type, @Nonnull Object o) {
         JsonElement simple = serializeSimpleValue(type, o);
@@ -58,7 +104,7 @@ public class Serializer {
             if (type == ValueType.URL) { return new JsonPrimitive(o.toString()); }
             if (type == ValueType.STRING) { return new JsonPrimitive((String) o); }
             if (type == ValueType.DATE) {
-                return new JsonPrimitive(Deserializer.createIsoDateFormat().format((Date) o));
+                return new JsonPrimitive(Dates.formatIso((Date) o));
             }
             if (type == ValueType.FORMATTED_STRING) {
                 return new JsonPrimitive(((FormattedString) o).buildFormattedText(FormattedString.Markup.HTML));
@@ -69,4 +115,59 @@ public class Serializer {
         }
         return null;
     }
+
+    private void writeValue(@Nonnull JsonWriter writer, @Nonnull ValueType type, @Nonnull Object o)
+            throws IOException {
+        if (type.isContainer()) {
+            assert type.getElementType() != null;
+            if (type.getType() == Optional.class) {
+                if (((Optional) o).exists()) {
+                    writeValue(writer, type.getElementType(), ((Optional) o).get());
+                } else {
+                    writer.nullValue();
+                }
+                return;
+            } else if (Iterable.class.isAssignableFrom(type.getType())) {
+                writer.beginArray();
+                for (Object element : (Iterable<?>) o) { writeValue(writer, type.getElementType(), element); }
+                writer.endArray();
+                return;
+            }
+        } else {
+            if (type == ValueType.BOOLEAN) {
+                writer.value((Boolean) o);
+                return;
+            }
+            if (type == ValueType.NUMBER) {
+                writer.value((Number) o);
+                return;
+            }
+            if (type == ValueType.URL) {
+                writer.value(o.toString());
+                return;
+            }
+            if (type == ValueType.STRING) {
+                writer.value((String) o);
+                return;
+            }
+            if (type == ValueType.DATE) {
+                writer.value(Dates.formatIso((Date) o));
+                return;
+            }
+            if (type == ValueType.FORMATTED_STRING) {
+                writer.value(((FormattedString) o).buildFormattedText(FormattedString.Markup.HTML));
+                return;
+            }
+            if (Identifiable.class.isAssignableFrom(type.getType())) {
+                writer.value(((Identifiable) o).getId());
+                return;
+            }
+            if (Bundle.class.isAssignableFrom(type.getType())) {
+                serializeBundle((Bundle<?, ?>) o, writer);
+                return;
+            }
+        }
+
+        throw new UnsupportedOperationException(type + " is not supported for serialization.");
+    }
 }
@@ -0,0 +1,63 @@
+package at.yawk.fimfiction.net;
+
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.http.client.cache.CacheResponseStatus;
+
+/**
+ * Counters of the response cache of a SessionManager. All values are totals since the session manager was created.
+ *
+ * @author Jonas Konrad (yawkat)
+ */
+public class CacheStatistics {
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong revalidations = new AtomicLong();
+    private final AtomicLong moduleResponses = new AtomicLong();
+
+    CacheStatistics() {}
+
+    void record(CacheResponseStatus status) {
+        switch (status) {
+        case CACHE_HIT:
+            hits.incrementAndGet();
+            break;
+        case CACHE_MISS:
+            misses.incrementAndGet();
+            break;
+        case VALIDATED:
+            revalidations.incrementAndGet();
+            break;
+        case CACHE_MODULE_RESPONSE:
+            moduleResponses.incrementAndGet();
+            break;
+        }
+    }
+
+    /**
+     * Requests that were answered from the cache without contacting the server.
+     */
+    public long getHits() { return hits.get(); }
+
+    /**
+     * Requests that were not cached or could not be revalidated and were fetched completely.
+     */
+    public long getMisses() { return misses.get(); }
+
+    /**
+     * Requests that were answered from the cache after a conditional request to the server returned 304 Not
+     * Modified.
+     */
+    public long getRevalidations() { return revalidations.get(); }
+
+    /**
+     * Requests that were answered by the cache itself without a usable entry, for example with 504 Gateway Timeout
+     * for only-if-cached requests.
+     */
+    public long getModuleResponses() { return moduleResponses.get(); }
+
+    @Override
+    public String toString() {
+        return "CacheStatistics{hits=" + getHits() + ", misses=" + getMisses() + ", revalidations=" +
+               getRevalidations() + ", moduleResponses=" + getModuleResponses() + '}';
+    }
+}
@@ -0,0 +1,41 @@
+package at.yawk.fimfiction.net;
+
+import java.net.URI;
+import javax.annotation.Nonnull;
+
+/**
+ * Kinds of Fimfiction endpoints that are rate limited separately.
+ *
+ * @author Jonas Konrad (yawkat)
+ */
+public enum EndpointClass {
+    /**
+     * Search, story and RSS pages that are rendered as a whole.
+     */
+    SEARCH,
+    /**
+     * The JSON story APIs.
+     */
+    API,
+    /**
+     * Account actions such as rating, bookshelves and login.
+     */
+    AJAX,
+    /**
+     * Everything else, for example downloads.
+     */
+    OTHER;
+
+    /**
+     * Returns the endpoint class of the given request URI.
+     */
+    @Nonnull
+    public static EndpointClass forUri(@Nonnull URI uri) {
+        String path = uri.getRawPath();
+        if (path == null) { return OTHER; }
+        if (path.startsWith("/api/")) { return API; }
+        if (path.startsWith("/ajax/") || path.equals("/rate.php")) { return AJAX; }
+        if (path.equals("/index.php") || path.startsWith("/story/") || path.startsWith("/rss/")) { return SEARCH; }
+        return OTHER;
+    }
+}
@@ -0,0 +1,44 @@
+package at.yawk.fimfiction.net;
+
+import java.util.concurrent.TimeUnit;
+import javax.annotation.Nonnull;
+import org.apache.http.conn.HttpClientConnectionManager;
+
+/**
+ * Daemon thread that periodically closes expired and idle connections of a connection manager so the pool does not
+ * hand out connections the server already dropped.
+ *
+ * @author Jonas Konrad (yawkat)
+ */
+class IdleConnectionEvictor extends Thread {
+    @Nonnull private final HttpClientConnectionManager connectionManager;
+    private final long intervalMillis;
+    private final long maxIdleMillis;
+
+    IdleConnectionEvictor(@Nonnull HttpClientConnectionManager connectionManager,
+                          long intervalMillis,
+                          long maxIdleMillis) {
+        super("Fimfiction idle connection evictor");
+        setDaemon(true);
+        this.connectionManager = connectionManager;
+        this.intervalMillis = intervalMillis;
+        this.maxIdleMillis = maxIdleMillis;
+    }
+
+    @Override
+    public void run() {
+        try {
+            while (!isInterrupted()) {
+                Thread.sleep(intervalMillis);
+                connectionManager.closeExpiredConnections();
+                connectionManager.closeIdleConnections(maxIdleMillis, TimeUnit.MILLISECONDS);
+            }
+        } catch (InterruptedException ignored) {
+            // shutdown
+        }
+    }
+
+    void shutdown() {
+        interrupt();
+    }
+}
@@ -3,22 +3,35 @@ package at.yawk.fimfiction.net;
 import com.google.common.base.Charsets;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.io.Closeable;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.io.UnsupportedEncodingException;
 import java.net.MalformedURLException;
 import java.net.URI;
 import java.net.URL;
 import java.net.URLEncoder;
 import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
+import org.apache.http.HttpHeaders;
 import org.apache.http.HttpResponse;
 import org.apache.http.NameValuePair;
 import org.apache.http.client.HttpClient;
 import org.apache.http.client.entity.UrlEncodedFormEntity;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.concurrent.FutureCallback;
 import org.apache.http.message.BasicNameValuePair;
+import org.apache.http.nio.client.HttpAsyncClient;
 import org.apache.http.util.EntityUtils;
 
 /**
@@ -27,8 +40,27 @@ import org.apache.http.util.EntityUtils;
  * @author Jonas Konrad (yawkat)
  */
 public class NetUtil {
+    @Nullable private static volatile RequestRateLimiter rateLimiter;
+    @Nullable private static ScheduledExecutorService delayedRequestScheduler;
+
     private NetUtil() {}
 
+    /**
+     * Sets the rate limiter that all requests made through this class pass, or null to disable rate limiting
+     * (default).
+     */
+    public static void setRateLimiter(@Nullable RequestRateLimiter rateLimiter) {
+        NetUtil.rateLimiter = rateLimiter;
+    }
+
+    /**
+     * Returns the current rate limiter or null if requests are not rate limited.
+     */
+    @Nullable
+    public static RequestRateLimiter getRateLimiter() {
+        return rateLimiter;
+    }
+
     /**
      * Use UTF-8 to URLEncode a String without throwing an exception.
      */
@@ -59,6 +91,21 @@ public class NetUtil {
         EntityUtils.consumeQuietly(response.getEntity());
     }
 
+    /**
+     * Silently close a HttpResponse without reading the rest of its body. Unlike #close this does not allow reuse of
+     * the connection, but it does not wait for a large body to be transferred either.
+     */
+    public static void abort(@Nonnull HttpResponse response) {
+        Preconditions.checkNotNull(response);
+        if (response instanceof Closeable) {
+            try {
+                ((Closeable) response).close();
+            } catch (IOException ignored) {}
+        } else {
+            close(response);
+        }
+    }
+
     /**
      * Builds a URL out of a String or returns null if it is malformed.
      */
@@ -87,14 +134,32 @@ public class NetUtil {
      * Perform a HTTP request to a URI.
      */
     public static HttpResponse get(HttpClient client, String uri) throws IOException {
-        return client.execute(new HttpGet(uri));
+        return execute(client, new HttpGet(uri));
     }
 
     /**
      * Perform a HTTP request to a URI.
      */
     public static HttpResponse get(HttpClient client, URI uri) throws IOException {
-        return client.execute(new HttpGet(uri));
+        return execute(client, new HttpGet(uri));
+    }
+
+    /**
+     * Perform a HTTP request for the part of a resource starting at the given byte offset. The range is only
+     * requested if the resource still matches the given validator, a strong ETag or Last-Modified date of an earlier
+     * response, which is sent as If-Range. The server may ignore the range and respond with the full resource, which
+     * can be told apart by the status code (200 instead of 206).
+     */
+    public static HttpResponse get(HttpClient client, URI uri, long offset, @Nonnull String validator)
+            throws IOException {
+        Preconditions.checkArgument(offset >= 0);
+        Preconditions.checkNotNull(validator);
+        HttpGet get = new HttpGet(uri);
+        if (offset > 0) {
+            get.setHeader(HttpHeaders.RANGE, "bytes=" + offset + "-");
+            get.setHeader(HttpHeaders.IF_RANGE, validator);
+        }
+        return execute(client, get);
     }
 
     /**
@@ -103,6 +168,43 @@ public class NetUtil {
      * even amount of Strings.
      */
     public static HttpResponse post(HttpClient client, String uri, String... properties) throws IOException {
+        return execute(client, createPost(uri, properties));
+    }
+
+    /**
+     * Perform a non-blocking HTTP request to a URI. If a rate limiter is set, the request is sent once it allows it
+     * without blocking the calling thread. The returned future completes once the full response body was
+     * received.
+     */
+    @Nonnull
+    public static ListenableFuture<HttpResponse> getAsync(@Nonnull HttpAsyncClient client, @Nonnull URI uri) {
+        return execute(client, new HttpGet(uri));
+    }
+
+    /**
+     * Perform a non-blocking HTTP request to a URI.
+     *
+     * @see #getAsync(org.apache.http.nio.client.HttpAsyncClient, java.net.URI)
+     */
+    @Nonnull
+    public static ListenableFuture<HttpResponse> getAsync(@Nonnull HttpAsyncClient client, @Nonnull String uri) {
+        return execute(client, new HttpGet(uri));
+    }
+
+    /**
+     * Perform a non-blocking POST request. The properties follow the same rules as in #post.
+     *
+     * @see #post(org.apache.http.client.HttpClient, String, String...)
+     */
+    @Nonnull
+    public static ListenableFuture<HttpResponse> postAsync(@Nonnull HttpAsyncClient client,
+                                                           @Nonnull String uri,
+                                                           String... properties) {
+        return execute(client, createPost(uri, properties));
+    }
+
+    @Nonnull
+    private static HttpPost createPost(String uri, String... properties) {
         List<NameValuePair> body = Lists.newArrayList();
         Preconditions.checkNotNull(properties);
         Preconditions.checkArgument((properties.length % 2) == 0);
@@ -113,6 +215,74 @@ public class NetUtil {
 
         HttpPost post = new HttpPost(uri);
         post.setEntity(new UrlEncodedFormEntity(body, Charsets.UTF_8));
-        return client.execute(post);
+        return post;
+    }
+
+    @Nonnull
+    private static HttpResponse execute(@Nonnull HttpClient client, @Nonnull HttpUriRequest request)
+            throws IOException {
+        RequestRateLimiter rateLimiter = NetUtil.rateLimiter;
+        if (rateLimiter != null) {
+            try {
+                rateLimiter.acquire(request.getURI());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for the rate limiter");
+            }
+        }
+        return client.execute(request);
+    }
+
+    @Nonnull
+    private static ListenableFuture<HttpResponse> execute(@Nonnull final HttpAsyncClient client,
+                                                          @Nonnull final HttpUriRequest request) {
+        Preconditions.checkNotNull(client);
+
+        final SettableFuture<HttpResponse> future = SettableFuture.create();
+        Runnable send = new Runnable() {
+            @Override
+            public void run() {
+                if (future.isCancelled()) { return; }
+                client.execute(request, new FutureCallback<HttpResponse>() {
+                    @Override
+                    public void completed(HttpResponse result) {
+                        future.set(result);
+                    }
+
+                    @Override
+                    public void failed(Exception ex) {
+                        future.setException(ex);
+                    }
+
+                    @Override
+                    public void cancelled() {
+                        future.cancel(false);
+                    }
+                });
+            }
+        };
+
+        RequestRateLimiter rateLimiter = NetUtil.rateLimiter;
+        long delay = rateLimiter == null ? 0 : rateLimiter.reserve(request.getURI());
+        if (delay > 0) {
+            getDelayedRequestScheduler().schedule(send, delay, TimeUnit.NANOSECONDS);
+        } else {
+            send.run();
+        }
+        return future;
+    }
+
+    /**
+     * Returns the daemon thread that sends asynchronous requests delayed by the rate limiter.
+     */
+    @Nonnull
+    private static synchronized ScheduledExecutorService getDelayedRequestScheduler() {
+        if (delayedRequestScheduler == null) {
+            ThreadFactory threadFactory = new ThreadFactoryBuilder().setDaemon(true)
+                                                                    .setNameFormat("Fimfiction rate limiter")
+                                                                    .build();
+            delayedRequestScheduler = Executors.newSingleThreadScheduledExecutor(threadFactory);
+        }
+        return delayedRequestScheduler;
     }
 }
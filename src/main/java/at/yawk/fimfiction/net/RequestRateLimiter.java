@@ -0,0 +1,192 @@
+package at.yawk.fimfiction.net;
+
+import com.google.common.base.Preconditions;
+import java.net.URI;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * Client-side rate limiter for requests made through NetUtil. Every request takes one token from the bucket of its
+ * host and one from the bucket of its EndpointClass, if such buckets are configured; it is delayed until both are
+ * available.
+ * <p/>
+ * Blocking requests wait in #acquire(URI). Asynchronous requests #reserve(URI) their tokens and are sent after the
+ * returned delay without blocking a thread.
+ *
+ * @author Jonas Konrad (yawkat)
+ * @see NetUtil#setRateLimiter(RequestRateLimiter)
+ */
+public class RequestRateLimiter {
+    @Nullable private final Limit hostLimit;
+    private final ConcurrentMap<String, TokenBucket> hostBuckets = new ConcurrentHashMap<String, TokenBucket>();
+    private final Map<EndpointClass, TokenBucket> endpointBuckets =
+            new EnumMap<EndpointClass, TokenBucket>(EndpointClass.class);
+
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong delayedRequests = new AtomicLong();
+    private final AtomicLong totalWaitNanos = new AtomicLong();
+    private final AtomicLong maxWaitNanos = new AtomicLong();
+
+    private RequestRateLimiter(@Nonnull Builder builder) {
+        this.hostLimit = builder.hostLimit;
+        for (Map.Entry<EndpointClass, Limit> entry : builder.endpointLimits.entrySet()) {
+            endpointBuckets.put(entry.getKey(), entry.getValue().createBucket());
+        }
+    }
+
+    /**
+     * Creates a new builder without any limits.
+     */
+    @Nonnull
+    public static Builder builder() { return new Builder(); }
+
+    /**
+     * Reserves the tokens for a request to the given URI and returns the amount of nanoseconds the request has to
+     * be delayed.
+     */
+    public long reserve(@Nonnull URI uri) {
+        Preconditions.checkNotNull(uri);
+
+        TokenBucket hostBucket = getHostBucket(uri);
+        TokenBucket endpointBucket = endpointBuckets.get(EndpointClass.forUri(uri));
+        long wait;
+        synchronized (this) {
+            wait = Math.max(hostBucket == null ? 0 : hostBucket.reserve(),
+                            endpointBucket == null ? 0 : endpointBucket.reserve());
+        }
+        record(wait);
+        return wait;
+    }
+
+    /**
+     * Takes the tokens for a request to the given URI if they are available now and returns whether they were
+     * taken. Never waits.
+     */
+    public boolean tryAcquire(@Nonnull URI uri) {
+        Preconditions.checkNotNull(uri);
+
+        TokenBucket hostBucket = getHostBucket(uri);
+        TokenBucket endpointBucket = endpointBuckets.get(EndpointClass.forUri(uri));
+        synchronized (this) {
+            if ((hostBucket != null && !hostBucket.isAvailable()) ||
+                (endpointBucket != null && !endpointBucket.isAvailable())) {
+                return false;
+            }
+            if (hostBucket != null) { hostBucket.tryAcquire(); }
+            if (endpointBucket != null) { endpointBucket.tryAcquire(); }
+        }
+        record(0);
+        return true;
+    }
+
+    /**
+     * Waits until a request to the given URI may be sent.
+     */
+    public void acquire(@Nonnull URI uri) throws InterruptedException {
+        long wait = reserve(uri);
+        if (wait > 0) { TokenBucket.sleep(wait); }
+    }
+
+    /**
+     * Amount of requests that passed this limiter.
+     */
+    public long getRequests() { return requests.get(); }
+
+    /**
+     * Amount of requests that had to be delayed.
+     */
+    public long getDelayedRequests() { return delayedRequests.get(); }
+
+    /**
+     * Sum of the delays of all requests in nanoseconds.
+     */
+    public long getTotalWaitNanos() { return totalWaitNanos.get(); }
+
+    /**
+     * Longest delay of a single request in nanoseconds.
+     */
+    public long getMaxWaitNanos() { return maxWaitNanos.get(); }
+
+    @Nullable
+    private TokenBucket getHostBucket(@Nonnull URI uri) {
+        if (hostLimit == null) { return null; }
+        String host = uri.getHost();
+        if (host == null) { host = ""; }
+        TokenBucket bucket = hostBuckets.get(host);
+        if (bucket == null) {
+            TokenBucket created = hostLimit.createBucket();
+            bucket = hostBuckets.putIfAbsent(host, created);
+            if (bucket == null) { bucket = created; }
+        }
+        return bucket;
+    }
+
+    private void record(long wait) {
+        requests.incrementAndGet();
+        if (wait > 0) {
+            delayedRequests.incrementAndGet();
+            totalWaitNanos.addAndGet(wait);
+            long max;
+            do {
+                max = maxWaitNanos.get();
+            } while (wait > max && !maxWaitNanos.compareAndSet(max, wait));
+        }
+    }
+
+    /**
+     * Builder class for RequestRateLimiter instances.
+     */
+    public static class Builder {
+        @Nullable private Limit hostLimit;
+        private final Map<EndpointClass, Limit> endpointLimits = new EnumMap<EndpointClass, Limit>(EndpointClass.class);
+
+        private Builder() {}
+
+        /**
+         * Limits the requests to each host to the given rate, allowing bursts of up to burst requests.
+         */
+        @Nonnull
+        public Builder perHost(double permitsPerSecond, int burst) {
+            this.hostLimit = new Limit(permitsPerSecond, burst);
+            return this;
+        }
+
+        /**
+         * Limits the requests to the given endpoint class to the given rate, allowing bursts of up to burst
+         * requests. This limit applies in addition to the per-host limit.
+         */
+        @Nonnull
+        public Builder endpoint(@Nonnull EndpointClass endpointClass, double permitsPerSecond, int burst) {
+            Preconditions.checkNotNull(endpointClass);
+            endpointLimits.put(endpointClass, new Limit(permitsPerSecond, burst));
+            return this;
+        }
+
+        @Nonnull
+        public RequestRateLimiter build() {
+            return new RequestRateLimiter(this);
+        }
+    }
+
+    private static class Limit {
+        private final double permitsPerSecond;
+        private final int burst;
+
+        Limit(double permitsPerSecond, int burst) {
+            Preconditions.checkArgument(permitsPerSecond > 0);
+            Preconditions.checkArgument(burst > 0);
+            this.permitsPerSecond = permitsPerSecond;
+            this.burst = burst;
+        }
+
+        @Nonnull
+        TokenBucket createBucket() {
+            return new TokenBucket(permitsPerSecond, burst);
+        }
+    }
+}
@@ -1,29 +1,129 @@
 package at.yawk.fimfiction.net;
 
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import org.apache.http.HttpResponse;
 import org.apache.http.client.CookieStore;
 import org.apache.http.client.HttpClient;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.config.SocketConfig;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
 import org.apache.http.impl.client.BasicCookieStore;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
 import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.client.cache.CacheConfig;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
 import org.apache.http.impl.cookie.BasicClientCookie;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClients;
+import org.apache.http.nio.client.HttpAsyncClient;
+import org.apache.http.pool.PoolStats;
+import org.apache.http.protocol.HttpContext;
 
 /**
  * A session manager that can be used to store Fimfiction cookies and directly modify the view_mature cookie value.
+ * <p/>
+ * Requests are performed over a pool of persistent connections. The pool size, keep-alive behaviour,
+ * idle connection eviction and timeouts can be configured using #builder().
+ * <p/>
+ * For non-blocking requests, #getAsyncHttpClient() and #getWorkerExecutor() provide an asynchronous client sharing
+ * the cookies of this session and a bounded pool to parse responses on.
+ * <p/>
+ * Optionally, responses of the blocking client can be cached (see Builder#cache(int, long)). Cached responses that
+ * carry an ETag or Last-Modified header are revalidated with conditional requests so unchanged pages are not
+ * transferred again.
  *
  * @author Jonas Konrad (yawkat)
  */
-public class SessionManager {
+public class SessionManager implements Closeable {
     private final BasicClientCookie cookie = new BasicClientCookie("view_mature", "true");
-    private final HttpClient httpClient;
+    private final CookieStore cookieStore = new BasicCookieStore();
+    private final int maxConnectionsPerRoute;
+    private final int maxConnectionsTotal;
+    private final long keepAlive;
+    private final int workerThreads;
+    private final RequestConfig requestConfig;
+    private final PoolingHttpClientConnectionManager connectionManager;
+    private final CloseableHttpClient httpClient;
+    @Nullable private final IdleConnectionEvictor evictor;
+    @Nullable private final CacheStatistics cacheStatistics;
 
-    private SessionManager() {
+    @Nullable private CloseableHttpAsyncClient asyncHttpClient;
+    @Nullable private ExecutorService workerExecutor;
+
+    private SessionManager(@Nonnull Builder builder) {
+        // the builder may be reused and changed after #build, so the settings used later are copied
+        this.maxConnectionsPerRoute = builder.maxConnectionsPerRoute;
+        this.maxConnectionsTotal = builder.maxConnectionsTotal;
+        this.keepAlive = builder.keepAlive;
+        this.workerThreads = builder.workerThreads;
         cookie.setDomain("www.fimfiction.net");
 
-        CookieStore cookieStore = new BasicCookieStore();
         cookieStore.addCookie(cookie);
-        httpClient = HttpClientBuilder.create().setDefaultCookieStore(cookieStore).build();
+
+        connectionManager = new PoolingHttpClientConnectionManager(builder.connectionTimeToLive,
+                                                                   TimeUnit.MILLISECONDS);
+        connectionManager.setMaxTotal(builder.maxConnectionsTotal);
+        connectionManager.setDefaultMaxPerRoute(builder.maxConnectionsPerRoute);
+        connectionManager.setDefaultSocketConfig(SocketConfig.custom()
+                                                             .setSoTimeout(builder.socketTimeout)
+                                                             .setSoKeepAlive(true)
+                                                             .setTcpNoDelay(true)
+                                                             .build());
+
+        requestConfig = RequestConfig.custom()
+                                     .setConnectTimeout(builder.connectTimeout)
+                                     .setSocketTimeout(builder.socketTimeout)
+                                     .setConnectionRequestTimeout(builder.connectionRequestTimeout)
+                                     .build();
+
+        HttpClientBuilder clientBuilder;
+        if (builder.maxCacheEntries > 0) {
+            cacheStatistics = new CacheStatistics();
+            clientBuilder = new StatisticsCachingHttpClientBuilder(cacheStatistics)
+                    .setCacheConfig(CacheConfig.custom()
+                                               .setMaxCacheEntries(builder.maxCacheEntries)
+                                               .setMaxObjectSize(builder.maxCachedObjectSize)
+                                               .setSharedCache(false)
+                                               .setAsynchronousWorkersMax(0)
+                                               .build());
+        } else {
+            cacheStatistics = null;
+            clientBuilder = HttpClientBuilder.create();
+        }
+        httpClient = clientBuilder.setDefaultCookieStore(cookieStore)
+                                  .setConnectionManager(connectionManager)
+                                  .setDefaultRequestConfig(requestConfig)
+                                  .setKeepAliveStrategy(new FallbackKeepAliveStrategy(builder.keepAlive))
+                                  .build();
+
+        if (builder.evictionInterval > 0) {
+            evictor = new IdleConnectionEvictor(connectionManager, builder.evictionInterval, builder.maxIdleTime);
+            evictor.start();
+        } else {
+            evictor = null;
+        }
     }
 
-    public static SessionManager create() {return new SessionManager();}
+    /**
+     * Creates a new session manager with the default pool configuration.
+     */
+    public static SessionManager create() { return builder().build(); }
+
+    /**
+     * Creates a new builder that can be used to configure the connection pool of a session manager.
+     */
+    @Nonnull
+    public static Builder builder() { return new Builder(); }
 
     /**
      * Sets the mature filter value (defaults to show).
@@ -38,4 +138,229 @@ public class SessionManager {
     public HttpClient getHttpClient() {
         return httpClient;
     }
+
+    /**
+     * Returns the asynchronous HttpClient sharing the cookies and timeouts of this session. The client and its I/O
+     * threads are created on first use.
+     */
+    @Nonnull
+    public synchronized HttpAsyncClient getAsyncHttpClient() {
+        if (asyncHttpClient == null) {
+            asyncHttpClient = HttpAsyncClients.custom()
+                                              .setDefaultCookieStore(cookieStore)
+                                              .setMaxConnPerRoute(maxConnectionsPerRoute)
+                                              .setMaxConnTotal(maxConnectionsTotal)
+                                              .setDefaultRequestConfig(requestConfig)
+                                              .setKeepAliveStrategy(new FallbackKeepAliveStrategy(keepAlive))
+                                              .build();
+            asyncHttpClient.start();
+        }
+        return asyncHttpClient;
+    }
+
+    /**
+     * Returns a bounded pool of daemon threads that can be used to parse responses of asynchronous requests. The
+     * pool is created on first use.
+     *
+     * @see Builder#workerThreads(int)
+     */
+    @Nonnull
+    public synchronized ExecutorService getWorkerExecutor() {
+        if (workerExecutor == null) {
+            ThreadFactory threadFactory = new ThreadFactoryBuilder().setDaemon(true)
+                                                                    .setNameFormat("Fimfiction worker #%d")
+                                                                    .build();
+            workerExecutor = Executors.newFixedThreadPool(workerThreads, threadFactory);
+        }
+        return workerExecutor;
+    }
+
+    /**
+     * Returns a snapshot of the connection pool statistics (leased, available and pending connections as well as
+     * the maximum pool size) over all routes.
+     */
+    @Nonnull
+    public PoolStats getPoolStats() {
+        return connectionManager.getTotalStats();
+    }
+
+    /**
+     * Returns the hit, miss and revalidation counters of the response cache, or null if caching is disabled.
+     */
+    @Nullable
+    public CacheStatistics getCacheStatistics() {
+        return cacheStatistics;
+    }
+
+    /**
+     * Stops the idle connection evictor and worker threads and closes all pooled connections. The HttpClients of
+     * this session manager cannot be used afterwards.
+     */
+    @Override
+    public void close() throws IOException {
+        if (evictor != null) { evictor.shutdown(); }
+        httpClient.close();
+        synchronized (this) {
+            if (asyncHttpClient != null) { asyncHttpClient.close(); }
+            if (workerExecutor != null) { workerExecutor.shutdown(); }
+        }
+    }
+
+    /**
+     * Builder class for SessionManager instances. All durations are in milliseconds, a timeout of 0 is interpreted
+     * as infinite.
+     */
+    public static class Builder {
+        private int maxConnectionsPerRoute = 10;
+        private int maxConnectionsTotal = 20;
+        private long connectionTimeToLive = -1;
+        private long keepAlive = 30000;
+        private long evictionInterval = 5000;
+        private long maxIdleTime = 30000;
+        private int connectTimeout = 10000;
+        private int socketTimeout = 30000;
+        private int connectionRequestTimeout = 10000;
+        private int workerThreads = Runtime.getRuntime().availableProcessors();
+        private int maxCacheEntries = 0;
+        private long maxCachedObjectSize = 0;
+
+        private Builder() {}
+
+        /**
+         * Maximum amount of concurrent connections to a single host (defaults to 10).
+         */
+        @Nonnull
+        public Builder maxConnectionsPerRoute(int maxConnectionsPerRoute) {
+            Preconditions.checkArgument(maxConnectionsPerRoute > 0);
+            this.maxConnectionsPerRoute = maxConnectionsPerRoute;
+            return this;
+        }
+
+        /**
+         * Maximum amount of concurrent connections over all hosts (defaults to 20).
+         */
+        @Nonnull
+        public Builder maxConnectionsTotal(int maxConnectionsTotal) {
+            Preconditions.checkArgument(maxConnectionsTotal > 0);
+            this.maxConnectionsTotal = maxConnectionsTotal;
+            return this;
+        }
+
+        /**
+         * Maximum lifetime of a pooled connection regardless of its keep-alive duration. A negative value means
+         * connections may live forever (default).
+         */
+        @Nonnull
+        public Builder connectionTimeToLive(long connectionTimeToLive) {
+            this.connectionTimeToLive = connectionTimeToLive;
+            return this;
+        }
+
+        /**
+         * Keep-alive duration used when the server does not send a Keep-Alive header (defaults to 30 seconds). A
+         * negative value keeps such connections alive indefinitely.
+         */
+        @Nonnull
+        public Builder keepAlive(long keepAlive) {
+            this.keepAlive = keepAlive;
+            return this;
+        }
+
+        /**
+         * Configures the background eviction of expired and idle connections. Every interval,
+         * expired connections and connections that were idle for longer than maxIdleTime are closed (defaults to
+         * every 5 seconds and 30 seconds). An interval of 0 disables the eviction thread.
+         */
+        @Nonnull
+        public Builder evictIdleConnections(long interval, long maxIdleTime) {
+            Preconditions.checkArgument(interval >= 0);
+            Preconditions.checkArgument(maxIdleTime >= 0);
+            this.evictionInterval = interval;
+            this.maxIdleTime = maxIdleTime;
+            return this;
+        }
+
+        /**
+         * Timeout for establishing a connection (defaults to 10 seconds).
+         */
+        @Nonnull
+        public Builder connectTimeout(int connectTimeout) {
+            Preconditions.checkArgument(connectTimeout >= 0);
+            this.connectTimeout = connectTimeout;
+            return this;
+        }
+
+        /**
+         * Timeout for waiting for data on an established connection (defaults to 30 seconds).
+         */
+        @Nonnull
+        public Builder socketTimeout(int socketTimeout) {
+            Preconditions.checkArgument(socketTimeout >= 0);
+            this.socketTimeout = socketTimeout;
+            return this;
+        }
+
+        /**
+         * Timeout for leasing a connection from the pool (defaults to 10 seconds).
+         */
+        @Nonnull
+        public Builder connectionRequestTimeout(int connectionRequestTimeout) {
+            Preconditions.checkArgument(connectionRequestTimeout >= 0);
+            this.connectionRequestTimeout = connectionRequestTimeout;
+            return this;
+        }
+
+        /**
+         * Amount of threads in the worker pool used for parsing asynchronous responses (defaults to the amount of
+         * available processors).
+         */
+        @Nonnull
+        public Builder workerThreads(int workerThreads) {
+            Preconditions.checkArgument(workerThreads > 0);
+            this.workerThreads = workerThreads;
+            return this;
+        }
+
+        /**
+         * Enables an in-memory cache for responses of the blocking HttpClient, keyed by URL and evicting the least
+         * recently used entries when more than maxEntries responses are stored. Responses larger than maxObjectSize
+         * bytes are not cached. The cache is private to this session, so pages that differ between logged in users
+         * may be cached as well. Disabled by default.
+         *
+         * @see SessionManager#getCacheStatistics()
+         */
+        @Nonnull
+        public Builder cache(int maxEntries, long maxObjectSize) {
+            Preconditions.checkArgument(maxEntries > 0);
+            Preconditions.checkArgument(maxObjectSize > 0);
+            this.maxCacheEntries = maxEntries;
+            this.maxCachedObjectSize = maxObjectSize;
+            return this;
+        }
+
+        /**
+         * Creates the session manager. If idle connection eviction is enabled, this starts the eviction thread.
+         */
+        @Nonnull
+        public SessionManager build() {
+            return new SessionManager(this);
+        }
+    }
+
+    /**
+     * Keep-alive strategy that respects the Keep-Alive header sent by the server and uses a fixed duration otherwise.
+     */
+    private static class FallbackKeepAliveStrategy implements ConnectionKeepAliveStrategy {
+        private final long fallback;
+
+        FallbackKeepAliveStrategy(long fallback) {
+            this.fallback = fallback;
+        }
+
+        @Override
+        public long getKeepAliveDuration(HttpResponse response, HttpContext context) {
+            long duration = DefaultConnectionKeepAliveStrategy.INSTANCE.getKeepAliveDuration(response, context);
+            return duration < 0 ? fallback : duration;
+        }
+    }
 }
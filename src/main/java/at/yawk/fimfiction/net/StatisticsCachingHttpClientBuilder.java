@@ -0,0 +1,65 @@
+package at.yawk.fimfiction.net;
+
+import java.io.IOException;
+import javax.annotation.Nonnull;
+import org.apache.http.HttpException;
+import org.apache.http.client.cache.CacheResponseStatus;
+import org.apache.http.client.cache.HeaderConstants;
+import org.apache.http.client.cache.HttpCacheContext;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpExecutionAware;
+import org.apache.http.client.methods.HttpRequestWrapper;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.impl.client.cache.CachingHttpClientBuilder;
+import org.apache.http.impl.execchain.ClientExecChain;
+
+/**
+ * CachingHttpClientBuilder that records the cache response status of every request in a CacheStatistics instance.
+ * <p/>
+ * Responses to URLs with a query string (which includes all fimfiction pages) are only cached when they are
+ * explicitly cacheable. Origin responses that carry an ETag or Last-Modified validator but no caching headers are
+ * therefore marked as immediately stale (max-age=0, must-revalidate) before they reach the cache, so they are stored
+ * and revalidated with a conditional request every time they are used.
+ *
+ * @author Jonas Konrad (yawkat)
+ */
+class StatisticsCachingHttpClientBuilder extends CachingHttpClientBuilder {
+    @Nonnull private final CacheStatistics statistics;
+
+    StatisticsCachingHttpClientBuilder(@Nonnull CacheStatistics statistics) {
+        this.statistics = statistics;
+    }
+
+    @Override
+    protected ClientExecChain decorateMainExec(final ClientExecChain mainExec) {
+        final ClientExecChain cachingExec = super.decorateMainExec(new ClientExecChain() {
+            @Override
+            public CloseableHttpResponse execute(HttpRoute route,
+                                                 HttpRequestWrapper request,
+                                                 HttpClientContext clientContext,
+                                                 HttpExecutionAware execAware) throws IOException, HttpException {
+                CloseableHttpResponse response = mainExec.execute(route, request, clientContext, execAware);
+                if ((response.containsHeader(HeaderConstants.ETAG) ||
+                     response.containsHeader(HeaderConstants.LAST_MODIFIED)) &&
+                    !response.containsHeader(HeaderConstants.CACHE_CONTROL) &&
+                    !response.containsHeader(HeaderConstants.EXPIRES)) {
+                    response.setHeader(HeaderConstants.CACHE_CONTROL, "max-age=0, must-revalidate");
+                }
+                return response;
+            }
+        });
+        return new ClientExecChain() {
+            @Override
+            public CloseableHttpResponse execute(HttpRoute route,
+                                                 HttpRequestWrapper request,
+                                                 HttpClientContext clientContext,
+                                                 HttpExecutionAware execAware) throws IOException, HttpException {
+                CloseableHttpResponse response = cachingExec.execute(route, request, clientContext, execAware);
+                CacheResponseStatus status = HttpCacheContext.adapt(clientContext).getCacheResponseStatus();
+                if (status != null) { statistics.record(status); }
+                return response;
+            }
+        };
+    }
+}
@@ -0,0 +1,86 @@
+package at.yawk.fimfiction.net;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Ticker;
+import javax.annotation.Nonnull;
+
+/**
+ * Token bucket that refills at a fixed rate up to a maximum burst size. Tokens can be reserved ahead of time: a
+ * reservation always succeeds and returns how long the caller has to wait before using its token, so concurrent
+ * callers are spaced out in the order they reserved.
+ *
+ * @author Jonas Konrad (yawkat)
+ */
+public class TokenBucket {
+    @Nonnull private final Ticker ticker;
+    private final double tokensPerNano;
+    private final double burst;
+
+    private double tokens;
+    private long lastRefill;
+
+    /**
+     * Creates a new, full bucket.
+     *
+     * @param permitsPerSecond refill rate.
+     * @param burst            maximum amount of tokens that can be used without waiting.
+     */
+    public TokenBucket(double permitsPerSecond, int burst) {
+        this(permitsPerSecond, burst, Ticker.systemTicker());
+    }
+
+    TokenBucket(double permitsPerSecond, int burst, @Nonnull Ticker ticker) {
+        Preconditions.checkArgument(permitsPerSecond > 0);
+        Preconditions.checkArgument(burst > 0);
+        this.ticker = ticker;
+        this.tokensPerNano = permitsPerSecond / 1e9;
+        this.burst = burst;
+        this.tokens = burst;
+        this.lastRefill = ticker.read();
+    }
+
+    /**
+     * Reserves one token and returns the amount of nanoseconds until it may be used (0 if it is available now).
+     */
+    public synchronized long reserve() {
+        refill();
+        tokens--;
+        return tokens >= 0 ? 0 : (long) Math.ceil(-tokens / tokensPerNano);
+    }
+
+    /**
+     * Takes one token if it is available now and returns whether it was taken. Never waits.
+     */
+    public synchronized boolean tryAcquire() {
+        refill();
+        if (tokens < 1) { return false; }
+        tokens--;
+        return true;
+    }
+
+    /**
+     * Returns whether a token is available now without taking it.
+     */
+    synchronized boolean isAvailable() {
+        refill();
+        return tokens >= 1;
+    }
+
+    /**
+     * Waits until one token is available and takes it.
+     */
+    public void acquire() throws InterruptedException {
+        long wait = reserve();
+        if (wait > 0) { sleep(wait); }
+    }
+
+    private void refill() {
+        long now = ticker.read();
+        tokens = Math.min(burst, tokens + (now - lastRefill) * tokensPerNano);
+        lastRefill = now;
+    }
+
+    static void sleep(long nanos) throws InterruptedException {
+        Thread.sleep(nanos / 1000000, (int) (nanos % 1000000));
+    }
+}
@@ -0,0 +1,312 @@
+package at.yawk.fimfiction.store;
+
+import at.yawk.fimfiction.core.Download;
+import at.yawk.fimfiction.data.Story;
+import at.yawk.fimfiction.net.NetUtil;
+import com.google.common.base.Charsets;
+import com.google.common.base.Preconditions;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.io.Files;
+import java.io.*;
+import java.net.URISyntaxException;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.HttpClient;
+
+/**
+ * Archive of downloaded stories that stores every distinct download only once.
+ * <p/>
+ * Downloads are stored as blobs named after the SHA-256 hash of their content. An index maps every archived version
+ * of a story, identified by story ID, Download.Format and Story#DATE_UPDATED, to the hash of its content. Archiving
+ * a download that is byte-identical to an earlier one only adds an index entry, and archiving a story version that is
+ * already indexed does not request it at all.
+ * <p/>
+ * The index is an append-only text file with one line per entry: <code>id format updated hash</code>, the update
+ * date in milliseconds. It is held in memory while the archive is open. Blobs are written to a temporary file and
+ * synced to the disk before they are renamed, and new index entries are synced after they are appended, so after a
+ * crash the index never refers to an incomplete blob. Temporary files left behind by a crash are not removed.
+ * <p/>
+ * Instances are thread-safe.
+ *
+ * @author Jonas Konrad (yawkat)
+ */
+public class StoryArchive implements Closeable {
+    static final String INDEX_FILE_NAME = "archive.idx";
+    private static final String BLOB_DIRECTORY_NAME = "blobs";
+    private static final String TEMPORARY_SUFFIX = ".tmp";
+    private static final Pattern SEPARATOR = Pattern.compile(" ");
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    /**
+     * Downloads up to this size are hashed in memory so duplicates are never written to the disk. Larger ones are
+     * written to a temporary file while they are hashed.
+     */
+    private static final int MEMORY_LIMIT = 1024 * 1024;
+
+    @Nonnull private final File directory;
+    @Nonnull private final File blobDirectory;
+    @Nonnull private final FileOutputStream indexOut;
+    @Nonnull private final Writer index;
+    private final Map<String, String> hashes = new HashMap<String, String>();
+    private final Set<String> blobs = new HashSet<String>();
+    private boolean closed = false;
+
+    private StoryArchive(@Nonnull File directory, @Nonnull FileOutputStream indexOut) {
+        this.directory = directory;
+        this.blobDirectory = new File(directory, BLOB_DIRECTORY_NAME);
+        this.indexOut = indexOut;
+        this.index = new OutputStreamWriter(indexOut, Charsets.UTF_8);
+    }
+
+    /**
+     * Opens the archive in the given directory, creating it if necessary.
+     */
+    @Nonnull
+    public static StoryArchive open(@Nonnull File directory) throws IOException {
+        Preconditions.checkNotNull(directory);
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Could not create " + directory);
+        }
+
+        File indexFile = new File(directory, INDEX_FILE_NAME);
+        Map<String, String> hashes = new HashMap<String, String>();
+        if (indexFile.exists()) {
+            for (String line : Files.readLines(indexFile, Charsets.UTF_8)) {
+                String[] parts = SEPARATOR.split(line);
+                // the last line may be incomplete after a crash
+                if (parts.length == 4 && parts[3].length() == 64) {
+                    hashes.put(key(parts[0], parts[1], parts[2]), parts[3]);
+                }
+            }
+            terminateLastLine(indexFile);
+        }
+
+        StoryArchive archive = new StoryArchive(directory, new FileOutputStream(indexFile, true));
+        archive.hashes.putAll(hashes);
+        archive.blobs.addAll(hashes.values());
+        return archive;
+    }
+
+    /**
+     * Appends a line break to the file if its last line is incomplete so new entries start on their own line.
+     */
+    private static void terminateLastLine(@Nonnull File file) throws IOException {
+        RandomAccessFile access = new RandomAccessFile(file, "rw");
+        try {
+            long length = access.length();
+            if (length > 0) {
+                access.seek(length - 1);
+                if (access.read() != '\n') { access.write('\n'); }
+            }
+        } finally {
+            access.close();
+        }
+    }
+
+    /**
+     * Returns the hash of the archived content of the given story version or null if it is not archived.
+     */
+    @Nullable
+    public synchronized String getHash(int storyId, @Nonnull Download.Format format, @Nonnull Date updated) {
+        Preconditions.checkNotNull(format);
+        Preconditions.checkNotNull(updated);
+        return hashes.get(key(storyId, format, updated));
+    }
+
+    /**
+     * Returns whether the given story version is archived.
+     */
+    public boolean contains(int storyId, @Nonnull Download.Format format, @Nonnull Date updated) {
+        return getHash(storyId, format, updated) != null;
+    }
+
+    /**
+     * Returns the file the content with the given hash is stored in. The file must not be modified.
+     */
+    @Nonnull
+    public File getBlob(@Nonnull String hash) {
+        Preconditions.checkArgument(hash.length() == 64, "Not a SHA-256 hash: %s", hash);
+        return new File(new File(blobDirectory, hash.substring(0, 2)), hash);
+    }
+
+    /**
+     * Opens the archived content of the given story version.
+     *
+     * @return the content or null if the story version is not archived.
+     */
+    @Nullable
+    public InputStream open(int storyId, @Nonnull Download.Format format, @Nonnull Date updated)
+            throws IOException {
+        String hash = getHash(storyId, format, updated);
+        return hash == null ? null : new FileInputStream(getBlob(hash));
+    }
+
+    /**
+     * Archives the given story in the given format unless the version of the story given by its DATE_UPDATED is
+     * already archived.
+     *
+     * @return the hash of the archived content.
+     * @throws IllegalArgumentException if the story has no DATE_UPDATED.
+     * @throws IOException              if the download fails.
+     */
+    @Nonnull
+    public String fetch(@Nonnull HttpClient httpClient, @Nonnull Story story, @Nonnull Download.Format format)
+            throws IOException {
+        Preconditions.checkNotNull(httpClient);
+        Preconditions.checkArgument(story.has(Story.StoryKey.DATE_UPDATED), "Missing DATE_UPDATED");
+
+        int id = story.getInt(Story.StoryKey.ID);
+        Date updated = story.get(Story.StoryKey.DATE_UPDATED);
+        String hash = getHash(id, format, updated);
+        if (hash != null) { return hash; }
+
+        HttpResponse response;
+        try {
+            response = NetUtil.get(httpClient, Download.getStoryDownloadUrl(story, format).toURI());
+        } catch (URISyntaxException e) {
+            throw new IllegalArgumentException(e);
+        }
+        boolean complete = false;
+        try {
+            if (response.getStatusLine().getStatusCode() != HttpStatus.SC_OK || response.getEntity() == null) {
+                throw new IOException("Unexpected response " + response.getStatusLine() + " for story " + id);
+            }
+            hash = put(id, format, updated, response.getEntity().getContent());
+            complete = true;
+        } finally {
+            if (complete) {
+                NetUtil.close(response);
+            } else {
+                NetUtil.abort(response);
+            }
+        }
+        return hash;
+    }
+
+    /**
+     * Archives the given content as the given story version. The stream is read to its end and closed.
+     *
+     * @return the hash of the content.
+     */
+    @Nonnull
+    public String put(int storyId, @Nonnull Download.Format format, @Nonnull Date updated, @Nonnull InputStream in)
+            throws IOException {
+        Preconditions.checkNotNull(format);
+        Preconditions.checkNotNull(updated);
+        Preconditions.checkNotNull(in);
+
+        Hasher hasher = Hashing.sha256().newHasher();
+        ByteArrayOutputStream memory = new ByteArrayOutputStream();
+        File temporary = null;
+        FileOutputStream spill = null;
+        try {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                hasher.putBytes(buffer, 0, read);
+                if (spill == null && memory.size() + read > MEMORY_LIMIT) {
+                    temporary = createTemporaryFile();
+                    spill = new FileOutputStream(temporary);
+                    memory.writeTo(spill);
+                    memory = null;
+                }
+                if (spill == null) {
+                    memory.write(buffer, 0, read);
+                } else {
+                    spill.write(buffer, 0, read);
+                }
+            }
+
+            String hash = hasher.hash().toString();
+            if (!hasBlob(hash)) {
+                if (temporary == null) {
+                    temporary = createTemporaryFile();
+                    spill = new FileOutputStream(temporary);
+                    memory.writeTo(spill);
+                }
+                // the blob has to be complete on the disk before it is renamed and referenced by the index
+                spill.getFD().sync();
+                spill.close();
+                spill = null;
+                storeBlob(temporary, hash);
+            }
+            addEntry(storyId, format, updated, hash);
+            return hash;
+        } finally {
+            in.close();
+            if (spill != null) { spill.close(); }
+            if (temporary != null && temporary.exists() && !temporary.delete()) { temporary.deleteOnExit(); }
+        }
+    }
+
+    private synchronized boolean hasBlob(@Nonnull String hash) {
+        return blobs.contains(hash) || getBlob(hash).exists();
+    }
+
+    private void storeBlob(@Nonnull File temporary, @Nonnull String hash) throws IOException {
+        File blob = getBlob(hash);
+        File parent = blob.getParentFile();
+        if (!parent.isDirectory() && !parent.mkdirs()) { throw new IOException("Could not create " + parent); }
+        // another thread may have stored the same content in the meantime
+        if (!temporary.renameTo(blob) && !blob.exists()) {
+            throw new IOException("Could not rename " + temporary + " to " + blob);
+        }
+    }
+
+    private synchronized void addEntry(int storyId, @Nonnull Download.Format format, @Nonnull Date updated,
+                                       @Nonnull String hash) throws IOException {
+        if (closed) { throw new IOException("Closed"); }
+        String key = key(storyId, format, updated);
+        if (hash.equals(hashes.get(key))) { return; }
+        index.write(key + " " + hash + "\n");
+        index.flush();
+        indexOut.getFD().sync();
+        hashes.put(key, hash);
+        blobs.add(hash);
+    }
+
+    @Nonnull
+    private File createTemporaryFile() throws IOException {
+        return File.createTempFile("blob", TEMPORARY_SUFFIX, directory);
+    }
+
+    /**
+     * @return The amount of archived story versions.
+     */
+    public synchronized int getEntryCount() {
+        return hashes.size();
+    }
+
+    /**
+     * @return The amount of distinct contents stored for those versions.
+     */
+    public synchronized int getBlobCount() {
+        return blobs.size();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) { return; }
+        closed = true;
+        index.close();
+    }
+
+    @Nonnull
+    private static String key(int storyId, @Nonnull Download.Format format, @Nonnull Date updated) {
+        return key(Integer.toString(storyId), format.name(), Long.toString(updated.getTime()));
+    }
+
+    @Nonnull
+    private static String key(@Nonnull String storyId, @Nonnull String format, @Nonnull String updated) {
+        return storyId + " " + format + " " + updated;
+    }
+}
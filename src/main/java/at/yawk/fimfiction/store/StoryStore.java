@@ -0,0 +1,508 @@
+package at.yawk.fimfiction.store;
+
+import at.yawk.fimfiction.binary.BinaryDeserializer;
+import at.yawk.fimfiction.binary.BinarySerializer;
+import at.yawk.fimfiction.data.Story;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.AbstractIterator;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * Disk-backed storage of stories by ID. Only the index is kept in (memory-mapped) memory, stories are read from disk
+ * on every #get and can be kept across restarts.
+ * <p/>
+ * The store consists of two files in its directory: an append-only log of stories serialized with BinarySerializer
+ * and an index that maps every story ID to the position of its latest record in the log. Replacing a story appends a
+ * new record, the old one remains as garbage in the log until #compact is called. If the index is missing or was not
+ * updated before a crash, it is rebuilt from the log when the store is opened.
+ * <p/>
+ * Instances are thread-safe. Every #get and #scan returns new Story instances that may be modified by the caller.
+ *
+ * @author Jonas Konrad (yawkat)
+ */
+public class StoryStore implements Closeable {
+    static final String LOG_FILE_NAME = "stories.log";
+    static final String INDEX_FILE_NAME = "stories.idx";
+    private static final String TEMPORARY_SUFFIX = ".tmp";
+
+    /**
+     * Size of the record prefix: payload length and story ID.
+     */
+    private static final int RECORD_HEADER_SIZE = 8;
+    /**
+     * Size of the index header: the log length covered by the index and the amount of live bytes in the log.
+     */
+    private static final int INDEX_HEADER_SIZE = 16;
+    private static final int INITIAL_INDEX_CAPACITY = 1024;
+    /**
+     * Mapped buffers are limited to 2 GiB.
+     */
+    private static final int MAX_INDEX_CAPACITY = (Integer.MAX_VALUE - INDEX_HEADER_SIZE) / 8;
+
+    private final BinarySerializer serializer = new BinarySerializer();
+    @Nonnull private final File directory;
+
+    private RandomAccessFile logFile;
+    private FileChannel log;
+    private BinaryDeserializer deserializer;
+    private int headerLength;
+    private long logLength;
+    /**
+     * Bytes of the log that belong to the header and the latest record of each story.
+     */
+    private long liveBytes;
+
+    private RandomAccessFile indexFile;
+    private MappedByteBuffer index;
+    /**
+     * Amount of story IDs the index has room for.
+     */
+    private int indexCapacity;
+
+    /**
+     * Incremented whenever the log is replaced so running scans can notice.
+     */
+    private int generation;
+    private boolean closed;
+
+    private StoryStore(@Nonnull File directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Opens the store in the given directory, creating it if it does not exist yet.
+     *
+     * @throws IOException if the directory cannot be created or the log is corrupt.
+     */
+    @Nonnull
+    public static StoryStore open(@Nonnull File directory) throws IOException {
+        Preconditions.checkNotNull(directory);
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Could not create directory " + directory);
+        }
+
+        StoryStore store = new StoryStore(directory);
+        boolean success = false;
+        try {
+            store.load();
+            success = true;
+        } finally {
+            if (!success) { store.closeFiles(); }
+        }
+        return store;
+    }
+
+    private void load() throws IOException {
+        File logPath = new File(directory, LOG_FILE_NAME);
+        File temporaryLog = new File(directory, LOG_FILE_NAME + TEMPORARY_SUFFIX);
+        if (!logPath.exists() && temporaryLog.exists()) {
+            // #compact was interrupted after the old log was removed, the compacted log is complete
+            rename(temporaryLog, logPath);
+        } else {
+            // #compact was interrupted before the compacted log was complete
+            deleteIfExists(temporaryLog);
+        }
+        // the index is rebuilt from the log
+        deleteIfExists(new File(directory, INDEX_FILE_NAME + TEMPORARY_SUFFIX));
+
+        byte[] currentHeader = createHeader();
+        logFile = new RandomAccessFile(logPath, "rw");
+        log = logFile.getChannel();
+        logLength = log.size();
+        byte[] header;
+        if (logLength == 0) {
+            header = currentHeader;
+            writeFully(log, ByteBuffer.wrap(header), 0);
+            logLength = header.length;
+        } else {
+            header = readHeader(log);
+        }
+        headerLength = header.length;
+        deserializer = BinaryDeserializer.readHeader(new ByteArrayInputStream(header, 4, header.length - 4));
+
+        indexFile = new RandomAccessFile(new File(directory, INDEX_FILE_NAME), "rw");
+        indexCapacity = Math.max((int) ((indexFile.length() - INDEX_HEADER_SIZE) / 8), 0);
+        index = indexFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, indexSize(indexCapacity));
+        long covered = index.getLong(0);
+        liveBytes = index.getLong(8);
+        if (covered < header.length || covered > logLength) {
+            // missing or belongs to a different log
+            for (int i = 0; i < indexCapacity; i++) { setOffset(i, 0); }
+            covered = header.length;
+            liveBytes = header.length;
+        }
+        replay(covered);
+
+        if (!Arrays.equals(header, currentHeader)) {
+            // written by a different version, new records have to use the same schema as the old ones
+            compact();
+        }
+    }
+
+    /**
+     * Adds the records after the given log position to the index. A partial record at the end of the log, which
+     * is left by a crash during #put, is removed.
+     */
+    private void replay(long position) throws IOException {
+        ByteBuffer recordHeader = ByteBuffer.allocate(RECORD_HEADER_SIZE);
+        while (position < logLength) {
+            recordHeader.clear();
+            int length = -1;
+            if (logLength - position >= RECORD_HEADER_SIZE) {
+                readFully(log, recordHeader, position);
+                length = recordHeader.getInt(0);
+            }
+            if (length < 0 || position + RECORD_HEADER_SIZE + length > logLength) {
+                log.truncate(position);
+                logLength = position;
+                break;
+            }
+            updateIndex(recordHeader.getInt(4), position, RECORD_HEADER_SIZE + length);
+            position += RECORD_HEADER_SIZE + length;
+        }
+        writeIndexHeader();
+    }
+
+    /**
+     * Returns the story with the given ID or null if there is none.
+     */
+    @Nullable
+    public Story get(int id) throws IOException {
+        byte[] record;
+        BinaryDeserializer deserializer;
+        synchronized (this) {
+            checkOpen();
+            long offset = getOffset(id);
+            if (offset == 0) { return null; }
+            record = readRecord(offset);
+            // replaced by #compact
+            deserializer = this.deserializer;
+        }
+        // deserialize outside of the lock so concurrent reads only contend for the disk access
+        return deserialize(deserializer, record);
+    }
+
+    /**
+     * @return true if there is a story with the given ID in this store.
+     */
+    public synchronized boolean contains(int id) {
+        checkOpen();
+        return getOffset(id) != 0;
+    }
+
+    /**
+     * Stores the given story, replacing any previously stored story with the same ID.
+     *
+     * @throws at.yawk.fimfiction.core.MissingKeyException if the story has no ID.
+     */
+    public void put(@Nonnull Story story) throws IOException {
+        Preconditions.checkNotNull(story);
+        int id = story.getInt(Story.StoryKey.ID);
+        Preconditions.checkArgument(id >= 0 && id < MAX_INDEX_CAPACITY, "Invalid story ID: %s", id);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        DataOutputStream data = new DataOutputStream(out);
+        data.writeInt(0);
+        data.writeInt(id);
+        serializer.writeBundle(story, out);
+        byte[] record = out.toByteArray();
+        ByteBuffer buffer = ByteBuffer.wrap(record);
+        buffer.putInt(0, record.length - RECORD_HEADER_SIZE);
+
+        synchronized (this) {
+            checkOpen();
+            long position = logLength;
+            writeFully(log, buffer, position);
+            logLength += record.length;
+            updateIndex(id, position, record.length);
+            writeIndexHeader();
+        }
+    }
+
+    /**
+     * Returns all stories of this store in the order they were last stored. The stories are read lazily so only one
+     * of them has to be held in memory at a time. The iteration fails with a ConcurrentModificationException if the
+     * store is compacted or closed meanwhile; stories stored meanwhile may or may not be returned.
+     */
+    @Nonnull
+    public Iterable<Story> scan() {
+        return new Iterable<Story>() {
+            @Override
+            public Iterator<Story> iterator() {
+                return new ScanIterator();
+            }
+        };
+    }
+
+    /**
+     * Rewrites the log so it only contains the latest record of each story.
+     */
+    public synchronized void compact() throws IOException {
+        checkOpen();
+
+        File temporaryLog = new File(directory, LOG_FILE_NAME + TEMPORARY_SUFFIX);
+        File temporaryIndex = new File(directory, INDEX_FILE_NAME + TEMPORARY_SUFFIX);
+        byte[] header = createHeader();
+        boolean schemaChanged = logLength < header.length || !Arrays.equals(header, readHeader(log));
+
+        long[] offsets = new long[indexCapacity];
+        long newLength = header.length;
+        FileOutputStream fileOut = new FileOutputStream(temporaryLog);
+        OutputStream out = new BufferedOutputStream(fileOut);
+        try {
+            out.write(header);
+            DataOutputStream data = new DataOutputStream(out);
+            for (int id = 0; id < indexCapacity; id++) {
+                long offset = getOffset(id);
+                if (offset == 0) { continue; }
+                byte[] record = readRecord(offset);
+                if (schemaChanged) {
+                    ByteArrayOutputStream payload = new ByteArrayOutputStream();
+                    serializer.writeBundle(deserialize(deserializer, record), payload);
+                    record = payload.toByteArray();
+                }
+                offsets[id] = newLength;
+                data.writeInt(record.length);
+                data.writeInt(id);
+                data.write(record);
+                newLength += RECORD_HEADER_SIZE + record.length;
+            }
+            out.flush();
+            // the compacted log replaces the old one, so it has to be on the disk before the rename
+            fileOut.getFD().sync();
+        } finally {
+            out.close();
+        }
+
+        RandomAccessFile newIndexFile = new RandomAccessFile(temporaryIndex, "rw");
+        try {
+            MappedByteBuffer newIndex =
+                    newIndexFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, indexSize(indexCapacity));
+            newIndex.putLong(0, newLength);
+            newIndex.putLong(8, newLength);
+            for (int id = 0; id < indexCapacity; id++) { newIndex.putLong(INDEX_HEADER_SIZE + id * 8, offsets[id]); }
+            newIndex.force();
+        } finally {
+            newIndexFile.close();
+        }
+
+        // without an index the log is replayed on the next start, so a crash between the renames is harmless. The
+        // old log is replaced by the rename and never deleted before, so there always is a complete log.
+        closeFiles();
+        File logPath = new File(directory, LOG_FILE_NAME);
+        File indexPath = new File(directory, INDEX_FILE_NAME);
+        deleteIfExists(indexPath);
+        replace(temporaryLog, logPath);
+        rename(temporaryIndex, indexPath);
+
+        generation++;
+        closed = false;
+        load();
+    }
+
+    /**
+     * @return The current size of the log in bytes.
+     */
+    public synchronized long getLogSize() {
+        return logLength;
+    }
+
+    /**
+     * @return The fraction of the log that is occupied by replaced stories and would be freed by #compact.
+     */
+    public synchronized double getGarbageRatio() {
+        return logLength == 0 ? 0 : (double) (logLength - liveBytes) / logLength;
+    }
+
+    /**
+     * Writes all changes to the disk.
+     */
+    public synchronized void flush() throws IOException {
+        checkOpen();
+        log.force(false);
+        index.force();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) { return; }
+        try {
+            flush();
+        } finally {
+            closeFiles();
+        }
+    }
+
+    private void closeFiles() throws IOException {
+        closed = true;
+        try {
+            if (logFile != null) { logFile.close(); }
+        } finally {
+            if (indexFile != null) { indexFile.close(); }
+        }
+    }
+
+    private void checkOpen() {
+        Preconditions.checkState(!closed, "Store is closed");
+    }
+
+    // index
+
+    private static long indexSize(int capacity) {
+        return INDEX_HEADER_SIZE + capacity * 8L;
+    }
+
+    private long getOffset(int id) {
+        return id >= 0 && id < indexCapacity ? index.getLong(INDEX_HEADER_SIZE + id * 8) : 0;
+    }
+
+    private void setOffset(int id, long offset) {
+        index.putLong(INDEX_HEADER_SIZE + id * 8, offset);
+    }
+
+    private void updateIndex(int id, long offset, int recordLength) throws IOException {
+        if (id >= indexCapacity) {
+            int capacity = Math.max(indexCapacity, INITIAL_INDEX_CAPACITY);
+            while (capacity <= id) { capacity = capacity > MAX_INDEX_CAPACITY / 2 ? MAX_INDEX_CAPACITY : capacity * 2; }
+            // the mapped region grows the file
+            index = indexFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, indexSize(capacity));
+            indexCapacity = capacity;
+        }
+        long previous = getOffset(id);
+        if (previous != 0) { liveBytes -= RECORD_HEADER_SIZE + readRecordLength(previous); }
+        liveBytes += recordLength;
+        setOffset(id, offset);
+    }
+
+    private void writeIndexHeader() {
+        index.putLong(0, logLength);
+        index.putLong(8, liveBytes);
+    }
+
+    // log
+
+    private byte[] createHeader() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        DataOutputStream data = new DataOutputStream(out);
+        data.writeInt(0);
+        serializer.writeHeader(out);
+        byte[] header = out.toByteArray();
+        ByteBuffer.wrap(header).putInt(0, header.length - 4);
+        return header;
+    }
+
+    /**
+     * Reads the header including its length prefix.
+     */
+    @Nonnull
+    private static byte[] readHeader(@Nonnull FileChannel log) throws IOException {
+        ByteBuffer length = ByteBuffer.allocate(4);
+        readFully(log, length, 0);
+        int headerLength = length.getInt(0);
+        if (headerLength < 0 || headerLength > log.size() - 4) { throw new IOException("Corrupt log header"); }
+        ByteBuffer header = ByteBuffer.allocate(4 + headerLength);
+        readFully(log, header, 0);
+        return header.array();
+    }
+
+    private int readRecordLength(long offset) throws IOException {
+        ByteBuffer length = ByteBuffer.allocate(4);
+        readFully(log, length, offset);
+        return length.getInt(0);
+    }
+
+    /**
+     * Reads the payload of the record at the given position.
+     */
+    @Nonnull
+    private byte[] readRecord(long offset) throws IOException {
+        ByteBuffer record = ByteBuffer.allocate(readRecordLength(offset));
+        readFully(log, record, offset + RECORD_HEADER_SIZE);
+        return record.array();
+    }
+
+    @Nonnull
+    private static Story deserialize(@Nonnull BinaryDeserializer deserializer, @Nonnull byte[] record)
+            throws IOException {
+        return deserializer.readBundle(record, Story.class);
+    }
+
+    private static void readFully(@Nonnull FileChannel channel, @Nonnull ByteBuffer buffer, long position)
+            throws IOException {
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, position);
+            if (read < 0) { throw new EOFException(); }
+            position += read;
+        }
+    }
+
+    private static void writeFully(@Nonnull FileChannel channel, @Nonnull ByteBuffer buffer, long position)
+            throws IOException {
+        while (buffer.hasRemaining()) { position += channel.write(buffer, position); }
+    }
+
+    private static void deleteIfExists(@Nonnull File file) throws IOException {
+        if (file.exists() && !file.delete()) { throw new IOException("Could not delete " + file); }
+    }
+
+    private static void rename(@Nonnull File from, @Nonnull File to) throws IOException {
+        if (!from.renameTo(to)) { throw new IOException("Could not rename " + from + " to " + to); }
+    }
+
+    /**
+     * Renames the file over an existing one. This is atomic on POSIX systems. Where the target cannot be replaced,
+     * it is deleted first; #load then finds only the temporary file and completes the rename.
+     */
+    private static void replace(@Nonnull File from, @Nonnull File to) throws IOException {
+        if (!from.renameTo(to)) {
+            deleteIfExists(to);
+            rename(from, to);
+        }
+    }
+
+    /**
+     * Reads the log from front to back and skips records that have been replaced.
+     */
+    private class ScanIterator extends AbstractIterator<Story> {
+        private final int expectedGeneration;
+        private final BinaryDeserializer deserializer;
+        private long position;
+
+        ScanIterator() {
+            synchronized (StoryStore.this) {
+                checkOpen();
+                expectedGeneration = generation;
+                deserializer = StoryStore.this.deserializer;
+                position = headerLength;
+            }
+        }
+
+        @Override
+        protected Story computeNext() {
+            try {
+                byte[] record = null;
+                synchronized (StoryStore.this) {
+                    if (closed || generation != expectedGeneration) { throw new ConcurrentModificationException(); }
+                    while (record == null && position < logLength) {
+                        ByteBuffer recordHeader = ByteBuffer.allocate(RECORD_HEADER_SIZE);
+                        readFully(log, recordHeader, position);
+                        int length = recordHeader.getInt(0);
+                        if (getOffset(recordHeader.getInt(4)) == position) { record = readRecord(position); }
+                        position += RECORD_HEADER_SIZE + length;
+                    }
+                }
+                return record == null ? endOfData() : deserialize(deserializer, record);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,332 @@
+package at.yawk.fimfiction.store;
+
+import at.yawk.fimfiction.core.Meta;
+import at.yawk.fimfiction.core.MetaBatch;
+import at.yawk.fimfiction.core.Search;
+import at.yawk.fimfiction.core.SearchUrl;
+import at.yawk.fimfiction.data.Order;
+import at.yawk.fimfiction.data.SearchParameters;
+import at.yawk.fimfiction.data.SearchResult;
+import at.yawk.fimfiction.data.Story;
+import com.google.common.base.Charsets;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.io.Files;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import org.apache.http.client.HttpClient;
+import org.xml.sax.SAXException;
+
+/**
+ * Keeps a StoryStore up to date with the stories of a search by only fetching stories that changed since the last
+ * sync.
+ * <p/>
+ * The search is ordered by update date and paged through until a page contains a story that was last updated before
+ * the watermark, the newest update date seen in the previous sync. Stories of those pages are compared to the stored
+ * versions and only the ones that are missing or differ in update date, word count or chapter count are requested
+ * with Meta. A sync therefore costs one search request per page of updated stories plus one meta request per changed
+ * story. The first sync has no watermark and reads the whole search.
+ * <p/>
+ * The watermark is written to its own file after every sync. Search pages only give the update date with a precision
+ * of days, so stories of the watermark day are checked again on the next sync. If a meta request fails, the
+ * watermark is not moved past the failed story so it is retried next time.
+ * <p/>
+ * Instances are not thread-safe.
+ *
+ * @author Jonas Konrad (yawkat)
+ */
+public class StorySync {
+    private static final String TEMPORARY_SUFFIX = ".tmp";
+    /**
+     * Counts that are shown on search pages and change when a story is updated.
+     */
+    private static final Set<Story.StoryKey> COMPARED_COUNTS =
+            ImmutableSet.of(Story.StoryKey.WORD_COUNT, Story.StoryKey.CHAPTER_COUNT);
+
+    private final StoryStore store;
+    private final File watermarkFile;
+
+    private SearchParameters parameters = SearchParameters.createImmutable();
+    private boolean withContent = false;
+    private int concurrency = 4;
+    private double requestsPerSecond = 0;
+
+    private StorySync(@Nonnull StoryStore store, @Nonnull File watermarkFile) {
+        this.store = store;
+        this.watermarkFile = watermarkFile;
+    }
+
+    /**
+     * Creates a new sync that writes to the given store and keeps its watermark in the given file. The file does not
+     * have to exist yet.
+     */
+    @Nonnull
+    public static StorySync create(@Nonnull StoryStore store, @Nonnull File watermarkFile) {
+        Preconditions.checkNotNull(store);
+        Preconditions.checkNotNull(watermarkFile);
+        return new StorySync(store, watermarkFile);
+    }
+
+    /**
+     * Sets the search to sync. The order of the parameters is replaced with Order#UPDATE_DATE. Defaults to all
+     * stories.
+     *
+     * @return this object.
+     */
+    @Nonnull
+    public StorySync parameters(@Nonnull SearchParameters parameters) {
+        Preconditions.checkNotNull(parameters);
+        this.parameters = parameters;
+        return this;
+    }
+
+    /**
+     * Request the chapter list of changed stories as well.
+     *
+     * @return this object.
+     * @see MetaBatch#content()
+     */
+    @Nonnull
+    public StorySync content() {
+        this.withContent = true;
+        return this;
+    }
+
+    /**
+     * Set the maximum amount of parallel meta requests. Defaults to 4.
+     *
+     * @return this object.
+     * @see MetaBatch#concurrency(int)
+     */
+    @Nonnull
+    public StorySync concurrency(int concurrency) {
+        Preconditions.checkArgument(concurrency > 0);
+        this.concurrency = concurrency;
+        return this;
+    }
+
+    /**
+     * Limit the meta requests to the given amount per second. A value of 0 disables the limit (default).
+     *
+     * @return this object.
+     * @see MetaBatch#rateLimit(double)
+     */
+    @Nonnull
+    public StorySync rateLimit(double requestsPerSecond) {
+        Preconditions.checkArgument(requestsPerSecond >= 0);
+        this.requestsPerSecond = requestsPerSecond;
+        return this;
+    }
+
+    /**
+     * @return The update date up to which the store is known to be in sync or null if no sync has completed yet.
+     */
+    @Nullable
+    public Date getWatermark() throws IOException {
+        if (!watermarkFile.exists()) { return null; }
+        String text = Files.toString(watermarkFile, Charsets.UTF_8).trim();
+        try {
+            return new Date(Long.parseLong(text));
+        } catch (NumberFormatException e) {
+            throw new IOException("Invalid watermark in " + watermarkFile + ": " + text);
+        }
+    }
+
+    /**
+     * Performs the sync, blocking until all changed stories have been requested and stored.
+     *
+     * @throws IOException          if a search page cannot be requested or the watermark cannot be written. Failed
+     *                              meta requests do not abort the sync, they are listed in the result instead.
+     * @throws InterruptedException if the calling thread is interrupted while waiting for the meta requests. The
+     *                              watermark is not changed in that case.
+     */
+    @Nonnull
+    public SyncResult sync(@Nonnull HttpClient httpClient) throws IOException, SAXException, InterruptedException {
+        Preconditions.checkNotNull(httpClient);
+
+        Date watermark = getWatermark();
+        SearchParameters ordered = parameters.mutableCopy().set(SearchParameters.SearchParameter.ORDER,
+                                                                Order.UPDATE_DATE);
+        SearchUrl.CompiledSearchParameters compiled = SearchUrl.CompiledSearchParameters.compile(ordered);
+
+        // update date of every listed story, in listing order
+        Map<Integer, Date> listed = new LinkedHashMap<Integer, Date>();
+        List<Integer> changed = new ArrayList<Integer>();
+        Date newest = watermark;
+        int pages = 0;
+        boolean reachedWatermark = false;
+        while (!reachedWatermark) {
+            SearchResult page = Search.create().full().parameters(compiled, pages).search(httpClient);
+            pages++;
+            List<Story> stories = page.get(SearchResult.SearchResultKey.STORIES);
+            if (stories.isEmpty()) { break; }
+
+            for (Story story : stories) {
+                int id = story.getInt(Story.StoryKey.ID);
+                Date updated = getUpdateDate(story);
+                if (updated != null) {
+                    if (watermark != null && updated.before(watermark)) {
+                        // the rest of this page may still be newer if the listing is not strictly ordered
+                        reachedWatermark = true;
+                        continue;
+                    }
+                    if (newest == null || updated.after(newest)) { newest = updated; }
+                }
+                if (listed.containsKey(id)) { continue; } // moved to a later page while paging
+                listed.put(id, updated);
+                if (isChanged(story, store.get(id))) { changed.add(id); }
+            }
+        }
+
+        final ConcurrentMap<Integer, Exception> failures = new ConcurrentHashMap<Integer, Exception>();
+        final AtomicInteger updated = new AtomicInteger();
+        MetaBatch batch = Meta.batch(changed).concurrency(concurrency).rateLimit(requestsPerSecond);
+        if (withContent) { batch.content(); }
+        batch.request(httpClient, new MetaBatch.Callback() {
+            @Override
+            public void onResult(int storyId, @Nonnull Story story) {
+                try {
+                    store.put(story);
+                    updated.incrementAndGet();
+                } catch (IOException e) {
+                    failures.put(storyId, e);
+                }
+            }
+
+            @Override
+            public void onFailure(int storyId, @Nonnull Exception cause) {
+                failures.put(storyId, cause);
+            }
+        });
+
+        // retry failed stories next time by keeping the watermark below them
+        for (Integer failed : failures.keySet()) {
+            Date failedDate = listed.get(failed);
+            if (failedDate == null) {
+                newest = watermark;
+                break;
+            }
+            if (newest != null && failedDate.before(newest)) { newest = failedDate; }
+        }
+        if (newest != null && !newest.equals(watermark)) { writeWatermark(newest); }
+        store.flush();
+
+        return new SyncResult(pages,
+                              listed.size(),
+                              changed.size(),
+                              updated.get(),
+                              Collections.unmodifiableMap(new LinkedHashMap<Integer, Exception>(failures)),
+                              newest);
+    }
+
+    private void writeWatermark(@Nonnull Date watermark) throws IOException {
+        File temporary = new File(watermarkFile.getPath() + TEMPORARY_SUFFIX);
+        Files.write(Long.toString(watermark.getTime()), temporary, Charsets.UTF_8);
+        if (!temporary.renameTo(watermarkFile)) {
+            // renameTo does not replace existing files on some platforms
+            if (watermarkFile.exists() && !watermarkFile.delete()) {
+                throw new IOException("Could not delete " + watermarkFile);
+            }
+            if (!temporary.renameTo(watermarkFile)) {
+                throw new IOException("Could not rename " + temporary + " to " + watermarkFile);
+            }
+        }
+    }
+
+    /**
+     * Compares a story of a search page to the stored version.
+     */
+    private static boolean isChanged(@Nonnull Story listed, @Nullable Story stored) {
+        if (stored == null) { return true; }
+        Date listedUpdate = getUpdateDate(listed);
+        Date storedUpdate = getUpdateDate(stored);
+        if (listedUpdate != null && (storedUpdate == null || listedUpdate.after(storedUpdate))) { return true; }
+        for (Story.StoryKey key : COMPARED_COUNTS) {
+            if (listed.has(key) && (!stored.has(key) || listed.getLong(key) != stored.getLong(key))) { return true; }
+        }
+        return false;
+    }
+
+    @Nullable
+    private static Date getUpdateDate(@Nonnull Story story) {
+        return story.has(Story.StoryKey.DATE_UPDATED) ? story.<Date>get(Story.StoryKey.DATE_UPDATED) : null;
+    }
+
+    /**
+     * Statistics of a completed sync.
+     */
+    public static class SyncResult {
+        private final int pageCount;
+        private final int listedCount;
+        private final int changedCount;
+        private final int updatedCount;
+        private final Map<Integer, Exception> failures;
+        @Nullable private final Date watermark;
+
+        SyncResult(int pageCount, int listedCount, int changedCount, int updatedCount,
+                   @Nonnull Map<Integer, Exception> failures, @Nullable Date watermark) {
+            this.pageCount = pageCount;
+            this.listedCount = listedCount;
+            this.changedCount = changedCount;
+            this.updatedCount = updatedCount;
+            this.failures = failures;
+            this.watermark = watermark;
+        }
+
+        /**
+         * @return The amount of search pages that were requested.
+         */
+        public int getPageCount() {
+            return pageCount;
+        }
+
+        /**
+         * @return The amount of distinct stories on those pages that were updated after the previous watermark.
+         */
+        public int getListedCount() {
+            return listedCount;
+        }
+
+        /**
+         * @return The amount of listed stories that were missing or outdated in the store and were requested.
+         */
+        public int getChangedCount() {
+            return changedCount;
+        }
+
+        /**
+         * @return The amount of changed stories that were requested and stored successfully.
+         */
+        public int getUpdatedCount() {
+            return updatedCount;
+        }
+
+        /**
+         * @return The story IDs whose meta requests failed with the cause of the failure.
+         */
+        @Nonnull
+        public Map<Integer, Exception> getFailures() {
+            return failures;
+        }
+
+        /**
+         * @return The watermark that will be used by the next sync.
+         */
+        @Nullable
+        public Date getWatermark() {
+            return watermark;
+        }
+    }
+}
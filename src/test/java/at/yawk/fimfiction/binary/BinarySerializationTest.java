@@ -0,0 +1,153 @@
+package at.yawk.fimfiction.binary;
+
+import static org.junit.Assert.*;
+
+import at.yawk.fimfiction.data.*;
+import at.yawk.fimfiction.json.Deserializer;
+import at.yawk.fimfiction.json.Serializer;
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableSet;
+import com.google.gson.JsonParser;
+import java.io.*;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import org.junit.Test;
+
+/**
+ * Checks that bundles survive a round trip through BinarySerializer and BinaryDeserializer. FormattedString has no
+ * value equality, so bundles are compared by their JSON.
+ *
+ * @author Jonas Konrad (yawkat)
+ */
+public class BinarySerializationTest {
+    private final Serializer json = new Serializer();
+    private final BinarySerializer serializer = new BinarySerializer();
+
+    private static Story loadStory() throws Exception {
+        InputStream stream =
+                BinarySerializationTest.class.getResourceAsStream("/at/yawk/fimfiction/core/test_story.json");
+        try {
+            return new Deserializer().deserializeBundle(
+                    new JsonParser().parse(new InputStreamReader(stream, Charsets.UTF_8)).getAsJsonObject(),
+                    Story.class);
+        } finally {
+            stream.close();
+        }
+    }
+
+    @Test
+    public void testJsonStory() throws Exception {
+        Story story = loadStory();
+        byte[] bytes = serializer.serializeBundle(story);
+        Story read = BinaryDeserializer.deserializeBundle(bytes, Story.class);
+        assertEquals(json.serializeBundle(story), json.serializeBundle(read));
+
+        // without the header, which is written once per stream
+        ByteArrayOutputStream record = new ByteArrayOutputStream();
+        serializer.writeBundle(story, record);
+        assertTrue(record.size() * 2 < json.serializeBundle(story).toString().getBytes(Charsets.UTF_8).length);
+    }
+
+    @Test
+    public void testAllValueTypes() throws Exception {
+        Date date = new Date(1312398540123L);
+        FormattedString description = FormattedString.create(
+                "Bold and big",
+                new FormattedString.Tag(FormattedString.SimpleFormatting.BOLD, 0, true),
+                new FormattedString.Tag(FormattedString.SimpleFormatting.BOLD, 4, false),
+                new FormattedString.Tag(FormattedString.size(1.5F, FormattedString.SizeUnit.EM), 9, true),
+                new FormattedString.Tag(FormattedString.size(1.5F, FormattedString.SizeUnit.EM), 12, false));
+        FimCharacter generic = FimCharacter.DefaultCharacter.getOrCreateCharacter(
+                1000, new URL("http://example.com/character.png"));
+        Shelf shelf = Shelf.createMutable().setInt(Shelf.ShelfKey.ID, 3).set(Shelf.ShelfKey.NAME, "Shelf");
+        Story story = Story.createMutable()
+                           .setInt(Story.StoryKey.ID, -5)
+                           .setLong(Story.StoryKey.VIEW_COUNT_TOTAL, Long.MAX_VALUE)
+                           .set(Story.StoryKey.WORD_COUNT, 1.25)
+                           .set(Story.StoryKey.TITLE, "T\u00eftle \ud83d\udc34")
+                           .set(Story.StoryKey.URL, new URL("http://www.fimfiction.net/story/5"))
+                           .set(Story.StoryKey.URL_COVER, Optional.missing(URL.class))
+                           .set(Story.StoryKey.URL_THUMBNAIL, Optional.existing(new URL("http://example.com/t.png")))
+                           .set(Story.StoryKey.DESCRIPTION, description)
+                           .set(Story.StoryKey.DATE_UPDATED, date)
+                           .setBoolean(Story.StoryKey.SEX, true)
+                           .setBoolean(Story.StoryKey.GORE, false)
+                           .set(Story.StoryKey.STATUS, StoryStatus.COMPLETED)
+                           .set(Story.StoryKey.FAVORITE_STATE, FavoriteState.FAVORITED_WITH_EMAIL)
+                           .set(Story.StoryKey.CATEGORIES, ImmutableSet.of(Category.ROMANCE, Category.DARK))
+                           .set(Story.StoryKey.CHARACTERS, ImmutableSet.of(
+                                   FimCharacter.DefaultCharacter.TWILIGHT_SPARKLE, generic))
+                           .set(Story.StoryKey.AUTHOR, User.createMutable()
+                                                           .setInt(User.UserKey.ID, 1)
+                                                           .set(User.UserKey.BIOGRAPHY, FormattedString.create("")))
+                           .set(Story.StoryKey.CHAPTERS, Arrays.asList(
+                                   Chapter.createMutable().setInt(Chapter.ChapterKey.ID, 1),
+                                   Chapter.createMutable().set(Chapter.ChapterKey.DATE_MODIFIED, date)))
+                           .set(Story.StoryKey.SHELVES_ADDED, ImmutableSet.of(shelf));
+        SearchParameters parameters = SearchParameters.createMutable()
+                                                      .set(SearchParameters.SearchParameter.ORDER, Order.RATING)
+                                                      .set(SearchParameters.SearchParameter.PUBLISH_TIMEFRAME,
+                                                           Timeframe.DefaultTimeframe.ONE_WEEK)
+                                                      .set(SearchParameters.SearchParameter.SHELF, shelf);
+
+        Story read = BinaryDeserializer.deserializeBundle(serializer.serializeBundle(story), Story.class);
+        assertEquals(json.serializeBundle(story), json.serializeBundle(read));
+        assertEquals(story.getSetKeys(), read.getSetKeys());
+        // unlike JSON, numbers keep their type and dates their milliseconds
+        assertEquals(Integer.valueOf(-5), read.get(Story.StoryKey.ID));
+        assertEquals(Long.valueOf(Long.MAX_VALUE), read.get(Story.StoryKey.VIEW_COUNT_TOTAL));
+        assertEquals(Double.valueOf(1.25), read.get(Story.StoryKey.WORD_COUNT));
+        assertEquals(date, read.get(Story.StoryKey.DATE_UPDATED));
+        Set<String> characterIds = new HashSet<String>();
+        for (FimCharacter character : read.<Set<FimCharacter>>get(Story.StoryKey.CHARACTERS)) {
+            characterIds.add(character.getId());
+        }
+        assertEquals(ImmutableSet.of(FimCharacter.DefaultCharacter.TWILIGHT_SPARKLE.getId(), generic.getId()),
+                     characterIds);
+
+        SearchParameters readParameters = BinaryDeserializer.deserializeBundle(
+                serializer.serializeBundle(parameters), SearchParameters.class);
+        assertEquals(parameters, readParameters);
+    }
+
+    @Test
+    public void testStream() throws Exception {
+        Story story = loadStory();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        serializer.serializeBundles(Arrays.asList(story, story.mutableCopy().setInt(Story.StoryKey.ID, 11)), out);
+
+        final List<Story> read = new ArrayList<Story>();
+        int count = BinaryDeserializer.deserializeBundles(
+                new ByteArrayInputStream(out.toByteArray()), Story.class, new BinaryDeserializer.Callback<Story>() {
+                    @Override
+                    public void onBundle(Story bundle) {
+                        read.add(bundle);
+                    }
+                });
+        assertEquals(2, count);
+        assertEquals(json.serializeBundle(story), json.serializeBundle(read.get(0)));
+        assertEquals(11, read.get(1).getInt(Story.StoryKey.ID));
+    }
+
+    @Test
+    public void testInvalid() throws Exception {
+        try {
+            BinaryDeserializer.deserializeBundle(serializer.serializeBundle(User.createMutable()), Story.class);
+            fail();
+        } catch (IOException expected) {}
+        try {
+            BinaryDeserializer.deserializeBundle("{}".getBytes(Charsets.UTF_8), Story.class);
+            fail();
+        } catch (IOException expected) {}
+        byte[] bytes = serializer.serializeBundle(loadStory());
+        try {
+            BinaryDeserializer.deserializeBundle(Arrays.copyOf(bytes, bytes.length - 1), Story.class);
+            fail();
+        } catch (EOFException expected) {}
+    }
+}
@@ -0,0 +1,70 @@
+package at.yawk.fimfiction.core;
+
+import static org.junit.Assert.*;
+
+import at.yawk.fimfiction.data.Shelf;
+import at.yawk.fimfiction.data.Story;
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.ExecutionException;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.junit.Test;
+
+/**
+ * @author Jonas Konrad (yawkat)
+ */
+public class AccountActionsTest {
+    private static final Shelf SHELF =
+            Shelf.createMutable().set(Shelf.ShelfKey.ID, 3).set(Shelf.ShelfKey.NAME, "Shelf");
+    private static final Story STORY = Story.createMutable()
+                                            .set(Story.StoryKey.ID, 10)
+                                            .set(Story.StoryKey.SHELVES_ADDED, Collections.<Shelf>emptySet())
+                                            .set(Story.StoryKey.SHELVES_NOT_ADDED, Collections.<Shelf>emptySet());
+
+    @Test
+    public void testSetShelfAsync() throws Exception {
+        StubHttpAsyncClient client = new StubHttpAsyncClient(new StubHttpClient() {
+            @Override
+            protected CloseableHttpResponse handle(HttpRequest request) {
+                return response(HttpStatus.SC_OK, "{\"added\": true}".getBytes(Charsets.UTF_8));
+            }
+        });
+
+        ListenableFuture<Story> future =
+                AccountActions.setShelfAsync(client, MoreExecutors.sameThreadExecutor(), STORY, SHELF, true);
+        assertEquals(ImmutableSet.of(SHELF), future.get().get(Story.StoryKey.SHELVES_ADDED));
+        assertEquals(Arrays.asList("/ajax/bookshelf_items/post.php"), client.requests);
+    }
+
+    @Test
+    public void testSetShelfAsyncFailure() throws Exception {
+        StubHttpAsyncClient client = new StubHttpAsyncClient(new StubHttpClient() {
+            @Override
+            protected CloseableHttpResponse handle(HttpRequest request) throws IOException {
+                throw new IOException("Connection refused");
+            }
+        });
+
+        ListenableFuture<Story> future =
+                AccountActions.setShelfAsync(client, MoreExecutors.sameThreadExecutor(), STORY, SHELF, true);
+        try {
+            future.get();
+            fail();
+        } catch (ExecutionException expected) {
+            assertTrue(expected.getCause() instanceof IOException);
+        }
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void testSetShelfAsyncWithoutStory() {
+        AccountActions.setShelfAsync(new StubHttpAsyncClient(null), MoreExecutors.sameThreadExecutor(), null, SHELF,
+                                     true);
+    }
+}
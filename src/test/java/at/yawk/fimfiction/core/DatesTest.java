@@ -0,0 +1,80 @@
+package at.yawk.fimfiction.core;
+
+import static org.junit.Assert.*;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+import org.junit.Test;
+
+/**
+ * Compares Dates with the SimpleDateFormat patterns it replaces.
+ *
+ * @author Jonas Konrad (yawkat)
+ */
+public class DatesTest {
+    private static final String[] SUFFIXES = { "st", "nd", "rd", "th" };
+
+    @Test
+    public void testParseDay() throws ParseException {
+        SimpleDateFormat format = new SimpleDateFormat("d MMM yyyy", Locale.ENGLISH);
+        Calendar calendar = Calendar.getInstance();
+        calendar.clear();
+        calendar.set(2008, Calendar.JANUARY, 1);
+        while (calendar.get(Calendar.YEAR) < 2017) {
+            String day = format.format(calendar.getTime());
+            String withSuffix = day.replaceFirst(" ", SUFFIXES[calendar.get(Calendar.DAY_OF_MONTH) % 4] + " ");
+            Date expected = format.parse(day);
+            assertEquals(day, expected, Dates.parseDay(day));
+            assertEquals(withSuffix, expected, Dates.parseDay(withSuffix));
+            calendar.add(Calendar.DAY_OF_MONTH, 1);
+        }
+        assertEquals(format.parse("3 Aug 2011"), Dates.parseDay(" 3rd August 2011\n"));
+    }
+
+    @Test
+    public void testParseIso() throws ParseException {
+        SimpleDateFormat rss = new SimpleDateFormat("yyyy-MM-dd'T'HHmmssZ", Locale.ENGLISH);
+        assertEquals(rss.parse("2013-10-01T182200+0000"), Dates.parseIso("2013-10-01T18:22:00+00:00"));
+        assertEquals(rss.parse("2013-10-01T182259-0430"), Dates.parseIso("2013-10-01T18:22:59-04:30"));
+        assertEquals(rss.parse("1999-02-28T235959+0100"), Dates.parseIso("1999-02-28T23:59:59+0100"));
+        assertEquals(new Date(rss.parse("2013-10-01T182200+0000").getTime() + 250),
+                     Dates.parseIso("2013-10-01T18:22:00.25Z"));
+    }
+
+    @Test
+    public void testFormatIso() throws ParseException {
+        SimpleDateFormat iso = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm'Z'");
+        iso.setTimeZone(TimeZone.getTimeZone("UTC"));
+        // about a week in steps of a bit more than 7 minutes, repeated every 19 days
+        for (long time = 0; time < 60L * 365 * 24 * 60 * 60 * 1000; time += 19L * 24 * 60 * 60 * 1000) {
+            for (long offset = 0; offset < 7 * 24 * 60 * 60 * 1000; offset += 7 * 60 * 1000 + 13) {
+                Date date = new Date(time + offset);
+                String expected = iso.format(date);
+                assertEquals(expected, Dates.formatIso(date));
+                assertEquals(iso.parse(expected), Dates.parseIso(expected));
+            }
+        }
+        assertEquals(iso.format(new Date(-1)), Dates.formatIso(new Date(-1)));
+    }
+
+    @Test
+    public void testInvalid() {
+        for (String invalid : new String[]{ "", "Feb 2011", "10th 2011", "10th Fab 2011", "10th Feb" }) {
+            try {
+                Dates.parseDay(invalid);
+                fail(invalid);
+            } catch (ParseException expected) {}
+        }
+        for (String invalid : new String[]{ "", "2011-08-03", "2011-08-03T19:09", "2011-08-03T19:09Zx",
+                                            "2011-08-03T19:09+1" }) {
+            try {
+                Dates.parseIso(invalid);
+                fail(invalid);
+            } catch (ParseException expected) {}
+        }
+    }
+}
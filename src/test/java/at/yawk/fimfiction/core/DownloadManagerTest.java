@@ -0,0 +1,122 @@
+package at.yawk.fimfiction.core;
+
+import static org.junit.Assert.*;
+
+import at.yawk.fimfiction.data.Story;
+import com.google.common.io.Files;
+import com.google.common.util.concurrent.ListenableFuture;
+import java.io.File;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * @author Jonas Konrad (yawkat)
+ */
+public class DownloadManagerTest {
+    @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+    private final byte[] data = new byte[5000];
+    private DownloadTest.StubClient client;
+    private DownloadManager manager;
+
+    @Before
+    public void setUp() {
+        client = new DownloadTest.StubClient(data);
+        manager = DownloadManager.create(client, folder.getRoot()).concurrency(3);
+    }
+
+    @After
+    public void tearDown() {
+        manager.close();
+    }
+
+    private static Story story(int id, long updated) {
+        return Story.createMutable().set(Story.StoryKey.ID, id).set(Story.StoryKey.DATE_UPDATED, new Date(updated));
+    }
+
+    @Test
+    public void testDownload() throws Exception {
+        client.gate = new CountDownLatch(1);
+        ListenableFuture<File> text = manager.submit(story(1, 1000000), Download.Format.TEXT);
+        ListenableFuture<File> epub = manager.submit(story(1, 1000000), Download.Format.EPUB);
+        assertSame(text, manager.submit(story(1, 1000000), Download.Format.TEXT));
+        ListenableFuture<File> other = manager.submit(story(2, 1000000), Download.Format.TEXT);
+        assertEquals(3, manager.getQueueDepth());
+        client.gate.countDown();
+
+        assertEquals(new File(folder.getRoot(), "1.txt"), text.get());
+        assertEquals(new File(folder.getRoot(), "1.epub"), epub.get());
+        assertEquals(new File(folder.getRoot(), "2.txt"), other.get());
+        assertArrayEquals(data, Files.toByteArray(epub.get()));
+        assertEquals(1000000, text.get().lastModified());
+        assertEquals(3, client.requests.size());
+        assertEquals(0, manager.getQueueDepth());
+        assertEquals(3, manager.getCompletedCount());
+        assertEquals(3 * data.length, manager.getTransferredBytes());
+        assertTrue(manager.getBytesPerSecond() > 0);
+    }
+
+    @Test
+    public void testSkipUnchanged() throws Exception {
+        manager.submit(story(1, 1000000), Download.Format.HTML).get();
+        manager.submit(story(1, 1000000), Download.Format.HTML).get();
+        assertEquals(1, client.requests.size());
+        assertEquals(1, manager.getSkippedCount());
+
+        manager.submit(story(1, 2000000), Download.Format.HTML).get();
+        assertEquals(2, client.requests.size());
+        assertEquals(2, manager.getCompletedCount());
+    }
+
+    @Test
+    public void testFailure() throws Exception {
+        client.failAfter = 0;
+        try {
+            manager.submit(story(1, 1000000), Download.Format.TEXT).get();
+            fail();
+        } catch (ExecutionException expected) {}
+        assertEquals(1, manager.getFailureCount());
+        assertFalse(new File(folder.getRoot(), "1.txt").exists());
+        assertEquals(0, manager.getQueueDepth());
+    }
+
+    @Test
+    public void testPartialOfOtherVersion() throws Exception {
+        client.failAfter = 2000;
+        try {
+            manager.submit(story(1, 1000000), Download.Format.TEXT).get();
+            fail();
+        } catch (ExecutionException expected) {}
+
+        // the server sends the same validator for the updated story
+        byte[] updated = new byte[3000];
+        updated[0] = 1;
+        client.data = updated;
+        client.failAfter = -1;
+        File file = manager.submit(story(1, 2000000), Download.Format.TEXT).get();
+        assertArrayEquals(updated, Files.toByteArray(file));
+        assertEquals(Arrays.asList(null, null), client.ranges);
+        assertFalse(new File(file.getPath() + DownloadManager.PARTIAL_VERSION_SUFFIX).exists());
+    }
+
+    @Test
+    public void testResumeSameVersion() throws Exception {
+        client.failAfter = 2000;
+        try {
+            manager.submit(story(1, 1000000), Download.Format.TEXT).get();
+            fail();
+        } catch (ExecutionException expected) {}
+
+        client.failAfter = -1;
+        File file = manager.submit(story(1, 1000000), Download.Format.TEXT).get();
+        assertArrayEquals(data, Files.toByteArray(file));
+        assertEquals(Arrays.asList(null, "bytes=2000-"), client.ranges);
+    }
+}
@@ -1,16 +1,38 @@
 package at.yawk.fimfiction.core;
 
-import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.*;
 
 import at.yawk.fimfiction.data.Chapter;
 import at.yawk.fimfiction.data.Story;
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import org.apache.http.*;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.entity.InputStreamEntity;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
 /**
  * @author Yawkat
  */
 public class DownloadTest {
+    private static final Story STORY = Story.createMutable().set(Story.StoryKey.ID, 10);
+
+    @Rule public TemporaryFolder folder = new TemporaryFolder();
+
     @Test
     public void testGetStoryDownloadUrlText() throws Exception {
         for (int i = 0; i < 200000; i++) {
@@ -60,4 +82,208 @@ public class DownloadTest {
     public void testGetChapterDownloadUrlEpub() throws Exception {
         Download.getChapterDownloadUrl(Chapter.createMutable().set(Chapter.ChapterKey.ID, 0), Download.Format.EPUB);
     }
+
+    @Test
+    public void testFetch() throws Exception {
+        byte[] data = data(200000);
+        StubClient client = new StubClient(data);
+        File target = new File(folder.getRoot(), "story.epub");
+        final List<long[]> progress = new ArrayList<long[]>();
+
+        long size = Download.fetch(client, STORY, Download.Format.EPUB, target, new Download.ProgressListener() {
+            @Override
+            public void onProgress(long transferred, long total, double bytesPerSecond) {
+                progress.add(new long[]{ transferred, total });
+            }
+        });
+        assertEquals(data.length, size);
+        assertArrayEquals(data, Files.toByteArray(target));
+        assertFalse(new File(target.getPath() + Download.PARTIAL_SUFFIX).exists());
+        assertEquals(Arrays.asList("/download_epub.php?story=10"), client.requests);
+        assertArrayEquals(new long[]{ data.length, data.length }, progress.get(progress.size() - 1));
+    }
+
+    @Test
+    public void testResume() throws Exception {
+        byte[] data = data(200000);
+        StubClient client = new StubClient(data);
+        client.failAfter = 70000;
+        File target = new File(folder.getRoot(), "story.txt");
+        File partial = new File(target.getPath() + Download.PARTIAL_SUFFIX);
+
+        try {
+            Download.fetch(client, STORY, Download.Format.TEXT, target);
+            fail();
+        } catch (IOException expected) {}
+        assertFalse(target.exists());
+        assertEquals(70000, partial.length());
+
+        client.failAfter = -1;
+        assertEquals(data.length, Download.fetch(client, STORY, Download.Format.TEXT, target));
+        assertArrayEquals(data, Files.toByteArray(target));
+        assertEquals(Arrays.asList(null, "bytes=70000-"), client.ranges);
+        assertFalse(new File(target.getPath() + Download.VALIDATOR_SUFFIX).exists());
+    }
+
+    @Test
+    public void testResumeChanged() throws Exception {
+        StubClient client = new StubClient(data(200000));
+        client.failAfter = 70000;
+        File target = new File(folder.getRoot(), "story.txt");
+        try {
+            Download.fetch(client, STORY, Download.Format.TEXT, target);
+            fail();
+        } catch (IOException expected) {}
+
+        // the story was updated before the download is resumed
+        byte[] changed = data(150000);
+        changed[0]++;
+        client.data = changed;
+        client.etag = "\"2\"";
+        client.failAfter = -1;
+        assertEquals(changed.length, Download.fetch(client, STORY, Download.Format.TEXT, target));
+        assertArrayEquals(changed, Files.toByteArray(target));
+        // the range was requested, but the server sent the whole new version
+        assertEquals(Arrays.asList(null, "bytes=70000-"), client.ranges);
+    }
+
+    @Test
+    public void testResumeWithoutValidator() throws Exception {
+        byte[] data = data(200000);
+        StubClient client = new StubClient(data);
+        client.etag = null;
+        client.failAfter = 70000;
+        File target = new File(folder.getRoot(), "story.txt");
+        try {
+            Download.fetch(client, STORY, Download.Format.TEXT, target);
+            fail();
+        } catch (IOException expected) {}
+
+        client.failAfter = -1;
+        assertEquals(data.length, Download.fetch(client, STORY, Download.Format.TEXT, target));
+        assertArrayEquals(data, Files.toByteArray(target));
+        // nothing to validate the partial file against, so it is not resumed
+        assertEquals(Arrays.asList(null, null), client.ranges);
+    }
+
+    @Test
+    public void testRangeIgnored() throws Exception {
+        byte[] data = data(1000);
+        StubClient client = new StubClient(data);
+        client.supportsRanges = false;
+        File target = new File(folder.getRoot(), "story.html");
+        Files.write(new byte[500], new File(target.getPath() + Download.PARTIAL_SUFFIX));
+        Files.write(client.etag, new File(target.getPath() + Download.VALIDATOR_SUFFIX), Charsets.UTF_8);
+
+        assertEquals(data.length, Download.fetch(client, STORY, Download.Format.HTML, target));
+        assertArrayEquals(data, Files.toByteArray(target));
+    }
+
+    @Test
+    public void testAlreadyComplete() throws Exception {
+        byte[] data = data(1000);
+        StubClient client = new StubClient(data);
+        File target = new File(folder.getRoot(), "story.html");
+        Files.write(data, new File(target.getPath() + Download.PARTIAL_SUFFIX));
+        Files.write(client.etag, new File(target.getPath() + Download.VALIDATOR_SUFFIX), Charsets.UTF_8);
+
+        assertEquals(data.length, Download.fetch(client, STORY, Download.Format.HTML, target));
+        assertArrayEquals(data, Files.toByteArray(target));
+        assertEquals(Arrays.asList("bytes=1000-"), client.ranges);
+    }
+
+    private static byte[] data(int length) {
+        byte[] data = new byte[length];
+        new Random(0).nextBytes(data);
+        return data;
+    }
+
+    /**
+     * Serves the same data for every request and supports open ranges conditional on its ETag.
+     */
+    static class StubClient extends StubHttpClient {
+        volatile byte[] data;
+        /**
+         * ETag of the data or null to send none.
+         */
+        volatile String etag = "\"1\"";
+        final List<String> ranges = Collections.synchronizedList(new ArrayList<String>());
+        volatile boolean supportsRanges = true;
+        /**
+         * Amount of bytes after which the response body fails, -1 to send everything.
+         */
+        volatile int failAfter = -1;
+        /**
+         * Requests wait for this latch if set.
+         */
+        volatile CountDownLatch gate;
+
+        StubClient(byte[] data) {
+            this.data = data;
+        }
+
+        @Override
+        protected CloseableHttpResponse handle(HttpRequest request) throws IOException {
+            CountDownLatch gate = this.gate;
+            if (gate != null) {
+                try {
+                    gate.await();
+                } catch (InterruptedException e) {
+                    throw new InterruptedIOException();
+                }
+            }
+            byte[] data = this.data;
+            String etag = this.etag;
+            Header range = request.getFirstHeader(HttpHeaders.RANGE);
+            ranges.add(range == null ? null : range.getValue());
+            Header ifRange = request.getFirstHeader(HttpHeaders.IF_RANGE);
+            boolean rangeValid = range != null && supportsRanges && ifRange != null &&
+                                 ifRange.getValue().equals(etag);
+
+            int offset = 0;
+            StubHttpClient.StubResponse response;
+            if (rangeValid) {
+                offset = Integer.parseInt(range.getValue().replaceAll("\\D", ""));
+                if (offset >= data.length) {
+                    response = new StubHttpClient.StubResponse(HttpStatus.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+                    response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes */" + data.length);
+                    return response;
+                }
+                response = new StubHttpClient.StubResponse(HttpStatus.SC_PARTIAL_CONTENT);
+                response.setHeader(HttpHeaders.CONTENT_RANGE,
+                                   "bytes " + offset + "-" + (data.length - 1) + "/" + data.length);
+            } else {
+                response = new StubHttpClient.StubResponse(HttpStatus.SC_OK);
+            }
+            if (etag != null) { response.setHeader(HttpHeaders.ETAG, etag); }
+            InputStream body = new ByteArrayInputStream(data, offset, data.length - offset);
+            if (failAfter >= 0) { body = new FailingInputStream(body, failAfter); }
+            response.setEntity(new InputStreamEntity(body, data.length - offset));
+            return response;
+        }
+    }
+
+    private static class FailingInputStream extends InputStream {
+        private final InputStream delegate;
+        private int remaining;
+
+        FailingInputStream(InputStream delegate, int failAfter) {
+            this.delegate = delegate;
+            this.remaining = failAfter;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return read(b, 0, 1) == -1 ? -1 : b[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (remaining == 0) { throw new IOException("Connection reset"); }
+            int read = delegate.read(b, off, Math.min(len, remaining));
+            if (read > 0) { remaining -= read; }
+            return read;
+        }
+    }
 }
@@ -0,0 +1,152 @@
+package at.yawk.fimfiction.core;
+
+import static org.junit.Assert.*;
+
+import at.yawk.fimfiction.data.FormattedString;
+import com.google.common.base.Charsets;
+import com.google.common.io.Resources;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import org.ccil.cowan.tagsoup.Parser;
+import org.junit.Test;
+import org.xml.sax.InputSource;
+import org.xml.sax.XMLReader;
+
+/**
+ * @author Jonas Konrad (yawkat)
+ */
+public class FormattedStringParserTest {
+    @Test
+    public void testParseBb() {
+        FormattedString string = FormattedStringParser.parseBb("a[B]b[/b] [url=x]c[/url][SIZE=2EM]d[/size][center]");
+        assertEquals("ab cd", string.toString());
+        assertEquals("a[b]b[/b] c[size=2.0em]d[/size][center]", string.buildFormattedText(FormattedString.Markup.BB));
+    }
+
+    @Test
+    public void testParseBbChapter() throws Exception {
+        String bb = Resources.toString(getClass().getResource("formatted/chapter.bb"), Charsets.UTF_8);
+        assertParsedEqual(bb, FormattedStringParser.parseBb(bb), parseBbReference(bb));
+    }
+
+    @Test
+    public void testParseBbRandom() {
+        String alphabet = "[]/=.biusBIUSize123emptxcenter \n\u0130";
+        Random random = new Random(0);
+        for (int i = 0; i < 20000; i++) {
+            StringBuilder input = new StringBuilder();
+            int length = random.nextInt(30);
+            for (int j = 0; j < length; j++) { input.append(alphabet.charAt(random.nextInt(alphabet.length()))); }
+            String bb = input.toString();
+            assertParsedEqual(bb, FormattedStringParser.parseBb(bb), parseBbReference(bb));
+        }
+    }
+
+    @Test
+    public void testParseHtml() {
+        FormattedString string = FormattedStringParser.parseHtml(
+                "  <p>a<I>b</i> <s>c<u>d</s>e</p><p><center>f</center><!-- <b> --><br/>" +
+                "<font size=\"1.5em\">g</font><span style='color: red; font-size: 12pt'>h</span>" +
+                "&amp;&lt;&#39; &unknown; 1 < 2</b>");
+        assertEquals("ab cde\nf\ngh&<' &unknown; 1 < 2", string.toString());
+        assertEquals("a<i>b</i> <s>c<u>d</u></s>e<br/><center>f</center><br/>" +
+                     "<font size=\"1.5em\">g</font><font size=\"12.0pt\">h</font>&amp;&lt;' &amp;unknown; 1 &lt; 2",
+                     string.buildFormattedText(FormattedString.Markup.HTML));
+    }
+
+    @Test
+    public void testParseHtmlChapter() throws Exception {
+        String html = Resources.toString(getClass().getResource("formatted/chapter.html"), Charsets.UTF_8);
+        assertParsedEqual(html, FormattedStringParser.parseHtml(html), parseHtmlReference(html));
+    }
+
+    @Test
+    public void testParseHtmlRoundtrip() throws Exception {
+        String html = Resources.toString(getClass().getResource("formatted/chapter.html"), Charsets.UTF_8);
+        FormattedString string = FormattedStringParser.parseHtml(html);
+        FormattedString roundtrip =
+                FormattedStringParser.parseHtml(string.buildFormattedText(FormattedString.Markup.HTML));
+        assertParsedEqual(html, roundtrip, string);
+    }
+
+    private static void assertParsedEqual(String input, FormattedString actual, FormattedString expected) {
+        assertEquals(input, expected.toString(), actual.toString());
+        assertEquals(input, describeTags(expected), describeTags(actual));
+    }
+
+    private static List<String> describeTags(FormattedString string) {
+        List<String> tags = new ArrayList<String>();
+        for (FormattedString.Tag tag : string.getTags()) {
+            tags.add(tag.getIndex() + " " + tag.isStart() + " " +
+                     tag.getFormatting().getTag(FormattedString.Markup.BB, true));
+        }
+        return tags;
+    }
+
+    /**
+     * Parses HTML with a full TagSoup parser, as FormattedStringParser#parseHtml did before.
+     */
+    private static FormattedString parseHtmlReference(String val) throws Exception {
+        XMLReader reader = new Parser();
+        FormattedStringParser.FormattedStringHandler handler = new FormattedStringParser.FormattedStringHandler();
+        reader.setContentHandler(handler);
+        reader.parse(new InputSource(new StringReader(val)));
+        return handler.build();
+    }
+
+    /**
+     * The substring based parser FormattedStringParser#parseBb replaced.
+     */
+    private static FormattedString parseBbReference(String val) {
+        FormattedString.FormattedStringBuilder builder = FormattedString.builder();
+        int i = 0;
+        while (true) {
+            int nextPara = val.indexOf('[', i);
+            if (nextPara == -1) {
+                builder.append(val.substring(i));
+                break;
+            }
+            builder.append(val.substring(i, nextPara));
+            i = nextPara;
+            nextPara = val.indexOf(']', i);
+            if (nextPara == -1) {
+                builder.append(val.substring(i));
+                break;
+            }
+            boolean start = val.charAt(i + 1) != '/';
+            String tag = val.substring(i + (start ? 1 : 2), nextPara).toLowerCase();
+            for (FormattedString.Formatting formatting : FormattedString.SimpleFormatting.values()) {
+                if (formatting.getTag(FormattedString.Markup.BB, start).equals(tag)) {
+                    builder.append(formatting, start);
+                    break;
+                }
+            }
+            if (tag.startsWith("size=")) {
+                try {
+                    FormattedString.SizeUnit unit;
+                    String num;
+                    if (tag.endsWith("em")) {
+                        unit = FormattedString.SizeUnit.EM;
+                        num = tag.substring(5, tag.length() - 2);
+                    } else if (tag.endsWith("pt")) {
+                        unit = FormattedString.SizeUnit.PT;
+                        num = tag.substring(5, tag.length() - 2);
+                    } else if (tag.endsWith("px")) {
+                        unit = FormattedString.SizeUnit.PX;
+                        num = tag.substring(5, tag.length() - 2);
+                    } else {
+                        unit = FormattedString.SizeUnit.PX;
+                        num = tag.substring(5);
+                    }
+                    builder.append(FormattedString.size(Float.parseFloat(num), unit), start);
+                } catch (NumberFormatException ignored) {}
+            } else if ("size".equals(tag)) {
+                builder.append(FormattedString.size(0, FormattedString.SizeUnit.PX), start);
+            }
+            i = nextPara + 1;
+        }
+        return builder.build();
+    }
+}
@@ -0,0 +1,94 @@
+package at.yawk.fimfiction.core;
+
+import static org.junit.Assert.*;
+
+import at.yawk.fimfiction.data.Shelf;
+import at.yawk.fimfiction.data.Story;
+import at.yawk.fimfiction.json.Serializer;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import java.io.InputStream;
+import org.ccil.cowan.tagsoup.Parser;
+import org.junit.Test;
+import org.xml.sax.InputSource;
+import org.xml.sax.XMLReader;
+
+/**
+ * Checks that search pages parsed with HtmlScanner yield the same result as with the TagSoup parser that was used
+ * before.
+ *
+ * @author Jonas Konrad (yawkat)
+ */
+public class HtmlScannerTest {
+    private static final String[] CORPUS = {
+            "search/category_page.html", "search/category_page_logged_out.html", "search/empty_page.html"
+    };
+
+    @Test
+    public void testParity() throws Exception {
+        for (String page : CORPUS) {
+            assertEquals(page, parseTagSoup(page), parseScanner(page));
+        }
+    }
+
+    @Test
+    public void testCategoryPage() throws Exception {
+        JsonObject result = parseScanner("search/category_page.html");
+        assertEquals(20, result.getAsJsonArray("stories").size());
+        assertEquals(21412, result.getAsJsonObject("logged_in").get("id").getAsInt());
+        assertEquals(3, result.getAsJsonArray("shelves").size());
+    }
+
+    @Test
+    public void testEmptyPage() throws Exception {
+        assertEquals(0, parseScanner("search/empty_page.html").getAsJsonArray("stories").size());
+    }
+
+    private static JsonObject parseTagSoup(String page) throws Exception {
+        SearchHtmlParser parser = new SearchHtmlParser();
+        InputStream stream = HtmlScannerTest.class.getResourceAsStream(page);
+        try {
+            InputSource source = new InputSource(stream);
+            source.setEncoding("UTF-8");
+            XMLReader reader = new Parser();
+            reader.setContentHandler(parser);
+            reader.parse(source);
+        } finally {
+            stream.close();
+        }
+        return toJson(parser);
+    }
+
+    private static JsonObject parseScanner(String page) throws Exception {
+        SearchHtmlParser parser = new SearchHtmlParser();
+        InputStream stream = HtmlScannerTest.class.getResourceAsStream(page);
+        try {
+            new HtmlScanner(stream, parser).scan();
+        } finally {
+            stream.close();
+        }
+        return toJson(parser);
+    }
+
+    private static JsonObject toJson(SearchHtmlParser parser) {
+        Serializer serializer = new Serializer();
+        JsonObject result = new JsonObject();
+        JsonArray stories = new JsonArray();
+        for (Story story : parser.finishedStories) {
+            stories.add(serializer.serializeBundle(story));
+        }
+        result.add("stories", stories);
+        if (parser.loggedIn != null && parser.loggedIn.exists()) {
+            result.add("logged_in", serializer.serializeBundle(parser.loggedIn.get()));
+        }
+        result.addProperty("nonce", parser.nonce);
+        if (parser.globalShelves != null) {
+            JsonArray shelves = new JsonArray();
+            for (Shelf shelf : parser.globalShelves) {
+                shelves.add(serializer.serializeBundle(shelf));
+            }
+            result.add("shelves", shelves);
+        }
+        return result;
+    }
+}
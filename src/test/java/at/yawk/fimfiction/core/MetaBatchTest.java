@@ -0,0 +1,171 @@
+package at.yawk.fimfiction.core;
+
+import static org.junit.Assert.*;
+
+import at.yawk.fimfiction.data.Story;
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.io.Resources;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.junit.Test;
+
+/**
+ * @author Jonas Konrad (yawkat)
+ */
+public class MetaBatchTest {
+    private static final Pattern META = Pattern.compile("story=(\\d+)$");
+
+    @Test
+    public void testResultsAndFailures() throws Exception {
+        StubClient client = new StubClient(20);
+        client.failingIds.add(7);
+        client.failingIds.add(13);
+        RecordingCallback callback = new RecordingCallback();
+
+        Meta.batch(range(1, 20)).concurrency(3).request(client, callback);
+
+        assertEquals(18, callback.results.size());
+        for (int id : range(1, 20)) {
+            if (id != 7 && id != 13) {
+                assertEquals(id, callback.results.get(id).getInt(Story.StoryKey.ID));
+            }
+        }
+        assertEquals(ImmutableSet.of(7, 13), callback.failures);
+        assertEquals(20, client.requests.size());
+        assertEquals(3, client.maxInFlight.get());
+    }
+
+    @Test
+    public void testRateLimit() throws Exception {
+        StubClient client = new StubClient(0);
+        RecordingCallback callback = new RecordingCallback();
+
+        long start = System.nanoTime();
+        Meta.batch(range(1, 5)).concurrency(5).rateLimit(20).request(client, callback);
+        long elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        // 5 requests at 20 per second without burst: at least 4 gaps of 50ms
+        assertTrue("Took " + elapsed + "ms", elapsed >= 190);
+        assertEquals(5, callback.results.size());
+    }
+
+    @Test
+    public void testExecutor() throws Exception {
+        StubClient client = new StubClient(0);
+        ExecutorService executor = Executors.newFixedThreadPool(
+                2, new ThreadFactoryBuilder().setNameFormat("Test worker #%d").build());
+        try {
+            Meta.batch(range(1, 4)).concurrency(2).executor(executor).request(client, new RecordingCallback());
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals(4, client.threads.size());
+        for (String thread : client.threads) { assertTrue(thread, thread.startsWith("Test worker #")); }
+    }
+
+    @Test
+    public void testCallbackThrows() throws Exception {
+        StubClient client = new StubClient(10);
+        // the worker requesting the first story is stuck until it is cancelled, so the failure has to be noticed
+        // while waiting for it
+        client.blockedId = 1;
+        try {
+            Meta.batch(range(1, 200)).concurrency(3).request(client, new MetaBatch.Callback() {
+                @Override
+                public void onResult(int storyId, Story story) {
+                    throw new IllegalStateException();
+                }
+
+                @Override
+                public void onFailure(int storyId, Exception cause) {}
+            });
+            fail();
+        } catch (IllegalStateException expected) {}
+        // the batch stops after the requests that were running when the first callback threw
+        assertTrue(client.requests.size() + " requests", client.requests.size() <= 6);
+        assertTrue(client.unblocked.await(1, TimeUnit.SECONDS));
+    }
+
+    private static List<Integer> range(int from, int to) {
+        List<Integer> list = new ArrayList<Integer>();
+        for (int i = from; i <= to; i++) { list.add(i); }
+        return list;
+    }
+
+    private static class RecordingCallback implements MetaBatch.Callback {
+        final ConcurrentHashMap<Integer, Story> results = new ConcurrentHashMap<Integer, Story>();
+        final Set<Integer> failures = new ConcurrentSkipListSet<Integer>();
+
+        @Override
+        public void onResult(int storyId, Story story) {
+            results.put(storyId, story);
+        }
+
+        @Override
+        public void onFailure(int storyId, Exception cause) {
+            assertTrue(cause instanceof IOException);
+            failures.add(storyId);
+        }
+    }
+
+    /**
+     * Serves the API story fixture for every meta request, holding each request for a while to measure how many
+     * run at the same time. The request for blockedId is held until it is interrupted.
+     */
+    private static class StubClient extends StubHttpClient {
+        final Set<Integer> failingIds = new ConcurrentSkipListSet<Integer>();
+        final List<String> threads = new ArrayList<String>();
+        final AtomicInteger inFlight = new AtomicInteger();
+        final AtomicInteger maxInFlight = new AtomicInteger();
+        final CountDownLatch unblocked = new CountDownLatch(1);
+        volatile int blockedId = -1;
+        private final long delayMillis;
+
+        StubClient(long delayMillis) {
+            this.delayMillis = delayMillis;
+        }
+
+        @Override
+        protected CloseableHttpResponse handle(HttpRequest request) throws IOException {
+            synchronized (threads) { threads.add(Thread.currentThread().getName()); }
+            int current = inFlight.incrementAndGet();
+            try {
+                int max;
+                do {
+                    max = maxInFlight.get();
+                } while (current > max && !maxInFlight.compareAndSet(max, current));
+                Matcher meta = META.matcher(request.getRequestLine().getUri());
+                if (!meta.find()) { throw new IOException("Unexpected request " + request.getRequestLine()); }
+                int id = Integer.parseInt(meta.group(1));
+                try {
+                    Thread.sleep(id == blockedId ? 5000 : delayMillis);
+                } catch (InterruptedException e) {
+                    if (id == blockedId) { unblocked.countDown(); }
+                    throw new IOException(e);
+                }
+                if (failingIds.contains(id)) { throw new IOException("Story " + id + " failed"); }
+                String json = Resources.toString(MetaBatchTest.class.getResource("api/story.json"), Charsets.UTF_8);
+                return response(HttpStatus.SC_OK,
+                                json.replace("\"id\": 10,", "\"id\": " + id + ",").getBytes(Charsets.UTF_8));
+            } finally {
+                inFlight.decrementAndGet();
+            }
+        }
+    }
+}
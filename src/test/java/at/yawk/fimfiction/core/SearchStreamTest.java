@@ -0,0 +1,160 @@
+package at.yawk.fimfiction.core;
+
+import static org.junit.Assert.*;
+
+import at.yawk.fimfiction.data.SearchParameters;
+import at.yawk.fimfiction.data.Story;
+import com.google.common.io.Resources;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.junit.Test;
+
+/**
+ * @author Jonas Konrad (yawkat)
+ */
+public class SearchStreamTest {
+    private static final Pattern PAGE = Pattern.compile("&page=(\\d+)$");
+
+    @Test
+    public void testPaging() {
+        StubClient client = new StubClient();
+        Iterator<Story> iterator = stream(client, 1).iterator();
+        assertEquals(0, client.requests.size());
+
+        // the first page and one page ahead
+        Set<Integer> ids = new HashSet<Integer>();
+        ids.add(iterator.next().getInt(Story.StoryKey.ID));
+        assertEquals(2, client.requests.size());
+
+        while (iterator.hasNext()) { assertTrue(ids.add(iterator.next().getInt(Story.StoryKey.ID))); }
+        assertEquals(32, ids.size());
+        // iteration ends on the empty third page without requesting a fourth one
+        assertEquals(3, client.requests.size());
+        assertFalse(iterator.hasNext());
+        assertEquals(3, client.requests.size());
+    }
+
+    @Test
+    public void testNoPrefetch() {
+        StubClient client = new StubClient();
+        Iterator<Story> iterator = stream(client, 0).iterator();
+        iterator.next();
+        assertEquals(1, client.requests.size());
+
+        int count = 1;
+        while (iterator.hasNext()) {
+            iterator.next();
+            count++;
+        }
+        assertEquals(32, count);
+        assertEquals(3, client.requests.size());
+    }
+
+    @Test
+    public void testPrefetchPastEnd() {
+        StubClient client = new StubClient();
+        int count = 0;
+        for (Story ignored : stream(client, 2)) { count++; }
+        assertEquals(32, count);
+        // the fourth page was requested ahead of the empty third one
+        assertEquals(4, client.requests.size());
+    }
+
+    @Test
+    public void testFailure() {
+        StubClient client = new StubClient();
+        client.failingPage = 2;
+        Iterator<Story> iterator = stream(client, 1).iterator();
+        int count = 0;
+        try {
+            while (iterator.hasNext()) {
+                iterator.next();
+                count++;
+            }
+            fail();
+        } catch (UncheckedExecutionException expected) {
+            assertTrue(expected.getCause() instanceof IOException);
+        }
+        assertTrue(count > 0);
+    }
+
+    @Test
+    public void testFailureCancelsPrefetch() throws InterruptedException {
+        StubClient client = new StubClient();
+        client.failingPage = 2;
+        client.blockedPage = 3;
+        ExecutorService executor = Executors.newCachedThreadPool();
+        try {
+            Iterator<Story> iterator = stream(client, 2, executor).iterator();
+            try {
+                while (iterator.hasNext()) { iterator.next(); }
+                fail();
+            } catch (UncheckedExecutionException expected) {}
+            // the third page was requested ahead and is cancelled, no further page is requested
+            assertTrue(client.unblocked.await(1, TimeUnit.SECONDS));
+            assertEquals(3, client.requests.size());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static Iterable<Story> stream(StubClient client, int prefetch) {
+        return stream(client, prefetch, MoreExecutors.sameThreadExecutor());
+    }
+
+    private static Iterable<Story> stream(StubClient client, int prefetch, ExecutorService executor) {
+        return Search.create().stream(client, SearchParameters.createImmutable(), executor, prefetch);
+    }
+
+    /**
+     * Serves the search page fixtures as the first two pages and an empty page for every following one. The
+     * request for blockedPage is held until it is interrupted.
+     */
+    private static class StubClient extends StubHttpClient {
+        final CountDownLatch blocked = new CountDownLatch(1);
+        final CountDownLatch unblocked = new CountDownLatch(1);
+        volatile int failingPage = -1;
+        volatile int blockedPage = -1;
+
+        @Override
+        protected CloseableHttpResponse handle(HttpRequest request) throws IOException {
+            Matcher page = PAGE.matcher(request.getRequestLine().getUri());
+            if (!page.find()) { throw new IOException("Unexpected request " + request.getRequestLine()); }
+            int number = Integer.parseInt(page.group(1));
+            if (number == failingPage) {
+                // fail only once the page requested ahead is running
+                try {
+                    if (blockedPage != -1) { blocked.await(1, TimeUnit.SECONDS); }
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+                throw new IOException("Page " + number + " failed");
+            }
+            if (number == blockedPage) {
+                blocked.countDown();
+                try {
+                    Thread.sleep(5000);
+                } catch (InterruptedException e) {
+                    unblocked.countDown();
+                    throw new IOException(e);
+                }
+            }
+            String name = number == 1 ? "search/category_page.html" :
+                    number == 2 ? "search/category_page_logged_out.html" : "search/empty_page.html";
+            return response(HttpStatus.SC_OK, Resources.toByteArray(SearchStreamTest.class.getResource(name)));
+        }
+    }
+}
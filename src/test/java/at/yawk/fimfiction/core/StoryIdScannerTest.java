@@ -0,0 +1,63 @@
+package at.yawk.fimfiction.core;
+
+import static org.junit.Assert.assertEquals;
+
+import at.yawk.fimfiction.data.Story;
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Test;
+
+/**
+ * @author Jonas Konrad (yawkat)
+ */
+public class StoryIdScannerTest {
+    @Test
+    public void testSameIdsAsFullParser() throws Exception {
+        for (String page : new String[]{ "search/category_page.html",
+                                         "search/category_page_logged_out.html",
+                                         "search/empty_page.html" }) {
+            SearchHtmlParser parser = new SearchHtmlParser();
+            InputStream stream = getClass().getResourceAsStream(page);
+            try {
+                new HtmlScanner(stream, parser).scan();
+            } finally {
+                stream.close();
+            }
+            List<Integer> expected = new ArrayList<Integer>();
+            for (Story story : parser.finishedStories) {
+                expected.add(story.getInt(Story.StoryKey.ID));
+            }
+
+            stream = getClass().getResourceAsStream(page);
+            try {
+                assertEquals(page, expected, scan(stream));
+            } finally {
+                stream.close();
+            }
+        }
+    }
+
+    @Test
+    public void testAttributeVariants() throws Exception {
+        String html = "<DIV id='story_12' CLASS=\"story_content_box\">" +
+                      "<div class=\"story_content_box other\" id=\"story_13\">" +
+                      "<div\nclass = story_content_box data-x=\"a > b\" id=story_14>" +
+                      "<divider class=\"story_content_box\" id=\"story_15\">" +
+                      "<div class=\"story_content_box\" id=\"story_16\"";
+        assertEquals(Arrays.asList(12, 14), scan(new ByteArrayInputStream(html.getBytes("UTF-8"))));
+    }
+
+    private static List<Integer> scan(InputStream stream) throws Exception {
+        final List<Integer> ids = new ArrayList<Integer>();
+        new StoryIdScanner(stream, new Search.IdCallback() {
+            @Override
+            public void onId(int id) {
+                ids.add(id);
+            }
+        }).scan();
+        return ids;
+    }
+}
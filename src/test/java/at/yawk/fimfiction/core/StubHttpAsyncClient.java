@@ -0,0 +1,80 @@
+package at.yawk.fimfiction.core;
+
+import com.google.common.util.concurrent.Futures;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Future;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.nio.client.HttpAsyncClient;
+import org.apache.http.nio.protocol.HttpAsyncRequestProducer;
+import org.apache.http.nio.protocol.HttpAsyncResponseConsumer;
+import org.apache.http.protocol.HttpContext;
+
+/**
+ * HttpAsyncClient for tests that answers requests on the calling thread through a StubHttpClient. Failures of the
+ * blocking stub are passed to the callback.
+ *
+ * @author Jonas Konrad (yawkat)
+ */
+public class StubHttpAsyncClient implements HttpAsyncClient {
+    public final List<String> requests = Collections.synchronizedList(new ArrayList<String>());
+    private final StubHttpClient delegate;
+
+    public StubHttpAsyncClient(StubHttpClient delegate) {
+        this.delegate = delegate;
+    }
+
+    @Override
+    public Future<HttpResponse> execute(HttpUriRequest request,
+                                        HttpContext context,
+                                        FutureCallback<HttpResponse> callback) {
+        requests.add(StubHttpClient.getPath(request));
+        HttpResponse response;
+        try {
+            response = delegate.handle(request);
+        } catch (Exception e) {
+            callback.failed(e);
+            return Futures.immediateFailedFuture(e);
+        }
+        callback.completed(response);
+        return Futures.immediateFuture(response);
+    }
+
+    @Override
+    public Future<HttpResponse> execute(HttpUriRequest request, FutureCallback<HttpResponse> callback) {
+        return execute(request, null, callback);
+    }
+
+    @Override
+    public <T> Future<T> execute(HttpAsyncRequestProducer requestProducer,
+                                 HttpAsyncResponseConsumer<T> responseConsumer,
+                                 HttpContext context,
+                                 FutureCallback<T> callback) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public <T> Future<T> execute(HttpAsyncRequestProducer requestProducer,
+                                 HttpAsyncResponseConsumer<T> responseConsumer,
+                                 FutureCallback<T> callback) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Future<HttpResponse> execute(HttpHost target,
+                                        HttpRequest request,
+                                        HttpContext context,
+                                        FutureCallback<HttpResponse> callback) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Future<HttpResponse> execute(HttpHost target, HttpRequest request, FutureCallback<HttpResponse> callback) {
+        throw new UnsupportedOperationException();
+    }
+}
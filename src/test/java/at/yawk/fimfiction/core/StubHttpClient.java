@@ -0,0 +1,87 @@
+package at.yawk.fimfiction.core;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpVersion;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.conn.ClientConnectionManager;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.message.BasicHttpResponse;
+import org.apache.http.params.BasicHttpParams;
+import org.apache.http.params.HttpParams;
+import org.apache.http.protocol.HttpContext;
+
+/**
+ * HttpClient for tests that answers requests without network access. Subclasses implement #handle; the path and
+ * query of every request is recorded in #requests.
+ *
+ * @author Jonas Konrad (yawkat)
+ */
+public abstract class StubHttpClient extends CloseableHttpClient {
+    public final List<String> requests = Collections.synchronizedList(new ArrayList<String>());
+
+    /**
+     * Answers the given request.
+     */
+    protected abstract CloseableHttpResponse handle(HttpRequest request) throws IOException;
+
+    @Override
+    protected CloseableHttpResponse doExecute(HttpHost target, HttpRequest request, HttpContext context)
+            throws IOException {
+        requests.add(getPath(request));
+        return handle(request);
+    }
+
+    /**
+     * Returns the path and query of the given request.
+     */
+    public static String getPath(HttpRequest request) {
+        return request.getRequestLine().getUri().replaceFirst("^https?://[^/]*", "");
+    }
+
+    /**
+     * Creates a response with the given status and body.
+     */
+    public static StubResponse response(int status, byte[] body) {
+        return response(status, new ByteArrayEntity(body));
+    }
+
+    /**
+     * Creates a response with the given status and entity, which may be null.
+     */
+    public static StubResponse response(int status, HttpEntity entity) {
+        StubResponse response = new StubResponse(status);
+        response.setEntity(entity);
+        return response;
+    }
+
+    @Override
+    @SuppressWarnings("deprecation")
+    public HttpParams getParams() {
+        return new BasicHttpParams();
+    }
+
+    @Override
+    @SuppressWarnings("deprecation")
+    public ClientConnectionManager getConnectionManager() {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void close() {}
+
+    public static class StubResponse extends BasicHttpResponse implements CloseableHttpResponse {
+        public StubResponse(int status) {
+            super(HttpVersion.HTTP_1_1, status, "");
+        }
+
+        @Override
+        public void close() {}
+    }
+}
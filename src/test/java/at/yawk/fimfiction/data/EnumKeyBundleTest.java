@@ -0,0 +1,156 @@
+package at.yawk.fimfiction.data;
+
+import static org.junit.Assert.*;
+
+import com.google.common.collect.ImmutableSet;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import org.junit.Test;
+
+/**
+ * @author Jonas Konrad (yawkat)
+ */
+public class EnumKeyBundleTest {
+    @Test
+    public void testSetKeys() {
+        Story story = Story.createMutable();
+        assertTrue(story.getSetKeys().isEmpty());
+
+        story.set(Story.StoryKey.TITLE, "Title").set(Story.StoryKey.ID, 5);
+        assertEquals(ImmutableSet.of(Story.StoryKey.ID, Story.StoryKey.TITLE), story.getSetKeys());
+        assertTrue(story.has(Story.StoryKey.TITLE));
+        assertFalse(story.has(Story.StoryKey.WORD_COUNT));
+
+        story.unset(Story.StoryKey.TITLE);
+        assertEquals(ImmutableSet.of(Story.StoryKey.ID), story.getSetKeys());
+        assertFalse(story.has(Story.StoryKey.TITLE));
+    }
+
+    @Test
+    public void testEquals() {
+        Story a = Story.createMutable().set(Story.StoryKey.ID, 5).set(Story.StoryKey.TITLE, "Title");
+        Story b = Story.createMutable().set(Story.StoryKey.TITLE, "Title").set(Story.StoryKey.ID, 5);
+        assertEquals(a, b);
+        assertEquals(a.hashCode(), b.hashCode());
+
+        b.unset(Story.StoryKey.TITLE);
+        assertFalse(a.equals(b));
+        b.set(Story.StoryKey.TITLE, "Other");
+        assertFalse(a.equals(b));
+    }
+
+    @Test
+    public void testImmutableHashCode() {
+        Story mutable = Story.createMutable().set(Story.StoryKey.ID, 5).set(Story.StoryKey.TITLE, "Title");
+        Story immutable = mutable.immutableCopy();
+        assertEquals(mutable.hashCode(), immutable.hashCode());
+        assertEquals(immutable.hashCode(), immutable.hashCode());
+        assertEquals(mutable, immutable);
+
+        mutable.set(Story.StoryKey.TITLE, "Other");
+        assertFalse(mutable.equals(immutable));
+        assertEquals(immutable, immutable.mutableCopy());
+    }
+
+    @Test
+    public void testImmutableCopyOfMutableCopy() {
+        Story immutable = Story.createMutable().set(Story.StoryKey.DATE_UPDATED, new Date(1000)).immutableCopy();
+        Story mutable = immutable.mutableCopy();
+        Story copy = mutable.immutableCopy();
+        Date date = mutable.get(Story.StoryKey.DATE_UPDATED);
+        assertNotSame(date, copy.get(Story.StoryKey.DATE_UPDATED));
+
+        date.setTime(5);
+        assertEquals(new Date(1000), copy.get(Story.StoryKey.DATE_UPDATED));
+    }
+
+    @Test
+    public void testMutableCopySharesImmutableValues() {
+        Chapter chapter = Chapter.createMutable().setInt(Chapter.ChapterKey.ID, 2);
+        Story immutable = Story.createMutable()
+                .set(Story.StoryKey.CHAPTERS, Arrays.asList(chapter))
+                .set(Story.StoryKey.DATE_UPDATED, new Date(1000))
+                .immutableCopy();
+        Story copy = immutable.mutableCopy().immutableCopy();
+        assertSame(immutable.get(Story.StoryKey.CHAPTERS), copy.get(Story.StoryKey.CHAPTERS));
+        assertNotSame(immutable.get(Story.StoryKey.DATE_UPDATED), copy.get(Story.StoryKey.DATE_UPDATED));
+    }
+
+    @Test
+    public void testPrimitives() {
+        Story story = Story.createMutable()
+                .setLong(Story.StoryKey.VIEW_COUNT_TOTAL, 1L << 40)
+                .setInt(Story.StoryKey.WORD_COUNT, 1000)
+                .setBoolean(Story.StoryKey.SEX, true);
+        assertEquals(1L << 40, story.getLong(Story.StoryKey.VIEW_COUNT_TOTAL));
+        assertEquals(Long.valueOf(1L << 40), story.get(Story.StoryKey.VIEW_COUNT_TOTAL));
+        assertEquals(1000, story.getInt(Story.StoryKey.WORD_COUNT));
+        assertEquals(Integer.valueOf(1000), story.get(Story.StoryKey.WORD_COUNT));
+        assertTrue(story.getBoolean(Story.StoryKey.SEX));
+        assertEquals(Boolean.TRUE, story.get(Story.StoryKey.SEX));
+
+        Story boxed = Story.createMutable()
+                .set(Story.StoryKey.VIEW_COUNT_TOTAL, 1L << 40)
+                .set(Story.StoryKey.WORD_COUNT, 1000)
+                .set(Story.StoryKey.SEX, true);
+        assertEquals(boxed, story);
+        assertEquals(boxed.hashCode(), story.hashCode());
+        assertEquals(story, story.immutableCopy());
+
+        // other numbers are stored as objects
+        story.set(Story.StoryKey.WORD_COUNT, 1.5);
+        assertEquals(1, story.getLong(Story.StoryKey.WORD_COUNT));
+        assertEquals(1.5, story.<Number>get(Story.StoryKey.WORD_COUNT));
+        story.unset(Story.StoryKey.SEX);
+        assertFalse(story.has(Story.StoryKey.SEX));
+        assertEquals(5, story.getLong(Story.StoryKey.SEX, 5));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testPrimitiveType() {
+        Story.createMutable().setInt(Story.StoryKey.TITLE, 5);
+    }
+
+    @Test
+    public void testFreeze() {
+        User author = User.createMutable().setInt(User.UserKey.ID, 1);
+        Chapter chapter = Chapter.createMutable().setInt(Chapter.ChapterKey.ID, 2);
+        Story story = Story.createMutable()
+                .set(Story.StoryKey.AUTHOR, author)
+                .set(Story.StoryKey.CHAPTERS, Arrays.asList(chapter));
+        List<?> chapters = story.get(Story.StoryKey.CHAPTERS);
+
+        assertSame(story, story.freeze());
+        assertSame(story, story.immutableCopy());
+        assertSame(author, story.get(Story.StoryKey.AUTHOR));
+        assertSame(chapters, story.get(Story.StoryKey.CHAPTERS));
+        try {
+            chapter.setInt(Chapter.ChapterKey.ID, 3);
+            fail();
+        } catch (UnsupportedOperationException expected) {}
+    }
+
+    @Test
+    public void testImmutableCopySharesImmutableValues() {
+        User author = User.createMutable().setInt(User.UserKey.ID, 1).immutableCopy();
+        Chapter frozen = Chapter.createMutable().setInt(Chapter.ChapterKey.ID, 2).freeze();
+        Story story = Story.createMutable()
+                .set(Story.StoryKey.AUTHOR, author)
+                .set(Story.StoryKey.CHAPTERS, Arrays.asList(frozen));
+        Story copy = story.immutableCopy();
+        assertSame(author, copy.get(Story.StoryKey.AUTHOR));
+        assertSame(story.get(Story.StoryKey.CHAPTERS), copy.get(Story.StoryKey.CHAPTERS));
+
+        Chapter mutable = Chapter.createMutable().setInt(Chapter.ChapterKey.ID, 3);
+        story.set(Story.StoryKey.CHAPTERS, Arrays.asList(frozen, mutable));
+        copy = story.immutableCopy();
+        List<Chapter> copiedChapters = copy.get(Story.StoryKey.CHAPTERS);
+        assertSame(frozen, copiedChapters.get(0));
+        assertNotSame(mutable, copiedChapters.get(1));
+        assertEquals(mutable, copiedChapters.get(1));
+        // the source is left mutable
+        assertSame(mutable, story.<List<?>>get(Story.StoryKey.CHAPTERS).get(1));
+        mutable.setInt(Chapter.ChapterKey.ID, 4);
+    }
+}
@@ -0,0 +1,98 @@
+package at.yawk.fimfiction.data;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.Random;
+import org.apache.commons.lang.StringEscapeUtils;
+import org.junit.Test;
+
+/**
+ * @author Jonas Konrad (yawkat)
+ */
+public class FormattedStringTest {
+    @Test
+    public void testBuildFormattedText() {
+        FormattedString.FormattedStringBuilder builder = FormattedString.builder();
+        builder.append("a<b>\n");
+        builder.append(FormattedString.SimpleFormatting.BOLD, true);
+        builder.append("\"\u00e9\u2019\u4e00\"");
+        builder.append(FormattedString.size(1.5F, FormattedString.SizeUnit.EM), true);
+        builder.append("&");
+        builder.append(FormattedString.size(1.5F, FormattedString.SizeUnit.EM), false);
+        builder.append(FormattedString.SimpleFormatting.BOLD, false);
+        FormattedString string = builder.build();
+
+        assertEquals("a&lt;b&gt;<br/><b>&quot;&eacute;&rsquo;&#19968;&quot;<font size=\"1.5em\">&amp;</font></b>",
+                     string.buildFormattedText(FormattedString.Markup.HTML));
+        assertEquals("a<b>\n[b]\"\u00e9\u2019\u4e00\"[size=1.5em]&[/size][/b]",
+                     string.buildFormattedText(FormattedString.Markup.BB));
+        assertSame(string.buildFormattedText(FormattedString.Markup.HTML),
+                   string.buildFormattedText(FormattedString.Markup.HTML));
+    }
+
+    @Test
+    public void testBuildFormattedTextRandom() {
+        Random random = new Random(0);
+        for (int i = 0; i < 2000; i++) {
+            FormattedString.FormattedStringBuilder builder = FormattedString.builder();
+            int length = random.nextInt(40);
+            for (int j = 0; j < length; j++) {
+                if (random.nextInt(8) == 0) {
+                    builder.append(FormattedString.SimpleFormatting.values()[random.nextInt(5)], random.nextBoolean());
+                }
+                // mostly ASCII, some characters from the whole BMP
+                builder.append(random.nextBoolean() ? (char) random.nextInt(0x80) : (char) random.nextInt(0x10000));
+            }
+            FormattedString string = builder.build();
+            assertEquals(buildHtmlReference(string), string.buildFormattedText(FormattedString.Markup.HTML));
+        }
+    }
+
+    @Test
+    public void testRenderTo() throws IOException {
+        Random random = new Random(1);
+        for (int i = 0; i < 200; i++) {
+            FormattedString.FormattedStringBuilder builder = FormattedString.builder();
+            for (int j = 0; j < 100; j++) {
+                builder.append(FormattedString.SimpleFormatting.values()[random.nextInt(5)], random.nextBoolean());
+                builder.append("<a\n&b>\u00e9\u4e00 text".substring(random.nextInt(13)));
+            }
+            FormattedString string = builder.build();
+            for (FormattedString.Markup markup : FormattedString.Markup.values()) {
+                StringBuilder appendable = new StringBuilder();
+                string.renderTo(markup, appendable);
+                StringWriter writer = new StringWriter();
+                string.renderTo(markup, writer);
+                // built last so the sinks are not served from the cache
+                String expected = string.buildFormattedText(markup);
+                assertEquals(expected, appendable.toString());
+                assertEquals(expected, writer.toString());
+
+                writer = new StringWriter();
+                string.renderTo(markup, writer);
+                assertEquals(expected, writer.toString());
+            }
+        }
+    }
+
+    /**
+     * The rendering FormattedString#buildFormattedText replaced.
+     */
+    private static String buildHtmlReference(FormattedString string) {
+        StringBuilder result = new StringBuilder();
+        int textPosition = 0;
+        for (FormattedString.Tag tag : string.getTags()) {
+            result.append(escape(string.subSequence(textPosition, tag.getIndex())));
+            textPosition = tag.getIndex();
+            result.append(tag.getTag(FormattedString.Markup.HTML));
+        }
+        result.append(escape(string.subSequence(textPosition, string.length())));
+        return result.toString();
+    }
+
+    private static String escape(CharSequence text) {
+        return StringEscapeUtils.escapeHtml(text.toString()).replace("\n", "<br/>");
+    }
+}
@@ -0,0 +1,30 @@
+package at.yawk.fimfiction.data;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+/**
+ * @author Jonas Konrad (yawkat)
+ */
+public class ValueTypeTest {
+    @Test
+    public void testImmutableCopyOfEnums() {
+        for (ValueType type : ValueType.values()) {
+            if (!type.getType().isEnum()) { continue; }
+            for (Object constant : type.getType().getEnumConstants()) {
+                assertSame(type + " " + constant, constant, type.immutableCopy(constant));
+                assertTrue(type + " " + constant, type.isImmutable(constant));
+            }
+        }
+    }
+
+    @Test
+    public void testImmutableCopyOfStoryStatus() {
+        Story story = Story.createMutable().setInt(Story.StoryKey.ID, 5)
+                           .set(Story.StoryKey.STATUS, StoryStatus.COMPLETED);
+        Story copy = story.immutableCopy();
+        assertSame(StoryStatus.COMPLETED, copy.get(Story.StoryKey.STATUS));
+        assertEquals(story, copy);
+    }
+}
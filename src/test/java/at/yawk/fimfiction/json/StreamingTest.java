@@ -0,0 +1,72 @@
+package at.yawk.fimfiction.json;
+
+import static org.junit.Assert.*;
+
+import at.yawk.fimfiction.data.Story;
+import com.google.common.base.Charsets;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import java.io.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Test;
+
+/**
+ * Checks that the streaming methods of Serializer and Deserializer agree with the JsonObject based ones.
+ *
+ * @author Jonas Konrad (yawkat)
+ */
+public class StreamingTest {
+    private static JsonObject loadJson() throws IOException {
+        InputStream stream = StreamingTest.class.getResourceAsStream("/at/yawk/fimfiction/core/test_story.json");
+        try {
+            return new JsonParser().parse(new InputStreamReader(stream, Charsets.UTF_8)).getAsJsonObject();
+        } finally {
+            stream.close();
+        }
+    }
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        Serializer serializer = new Serializer();
+        Deserializer deserializer = new Deserializer();
+        Story story = deserializer.deserializeBundle(loadJson(), Story.class);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        serializer.serializeBundles(Arrays.asList(story, story.mutableCopy().setInt(Story.StoryKey.ID, 11)), out);
+
+        JsonArray written = new JsonParser().parse(new String(out.toByteArray(), Charsets.UTF_8)).getAsJsonArray();
+        assertEquals(2, written.size());
+        assertEquals(serializer.serializeBundle(story), written.get(0));
+
+        final List<Story> read = new ArrayList<Story>();
+        int count = deserializer.deserializeBundles(
+                new ByteArrayInputStream(out.toByteArray()), Story.class, new Deserializer.Callback<Story>() {
+                    @Override
+                    public void onBundle(Story bundle) {
+                        read.add(bundle);
+                    }
+                });
+        assertEquals(2, count);
+        // FormattedString has no value equality, so compare the JSON
+        assertEquals(serializer.serializeBundle(story), serializer.serializeBundle(read.get(0)));
+        assertEquals(11, read.get(1).getInt(Story.StoryKey.ID));
+        assertEquals(story.getString(Story.StoryKey.TITLE), read.get(1).getString(Story.StoryKey.TITLE));
+    }
+
+    @Test
+    public void testUnknownMembersAreSkipped() throws Exception {
+        int count = new Deserializer().deserializeBundles(
+                new StringReader("[{\"unknown\":{\"a\":[1,2]},\"id\":5,\"title\":\"Title\"}]"), Story.class,
+                new Deserializer.Callback<Story>() {
+                    @Override
+                    public void onBundle(Story bundle) {
+                        assertEquals(5, bundle.getInt(Story.StoryKey.ID));
+                        assertEquals("Title", bundle.getString(Story.StoryKey.TITLE));
+                    }
+                });
+        assertEquals(1, count);
+    }
+}
@@ -0,0 +1,25 @@
+package at.yawk.fimfiction.net;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.ThreadPoolExecutor;
+import org.junit.Test;
+
+/**
+ * @author Jonas Konrad (yawkat)
+ */
+public class SessionManagerTest {
+    @Test
+    public void testBuilderReuse() throws Exception {
+        SessionManager.Builder builder = SessionManager.builder().workerThreads(3).evictIdleConnections(0, 0);
+        SessionManager first = builder.build();
+        SessionManager second = builder.workerThreads(5).build();
+        try {
+            assertEquals(3, ((ThreadPoolExecutor) first.getWorkerExecutor()).getMaximumPoolSize());
+            assertEquals(5, ((ThreadPoolExecutor) second.getWorkerExecutor()).getMaximumPoolSize());
+        } finally {
+            first.close();
+            second.close();
+        }
+    }
+}
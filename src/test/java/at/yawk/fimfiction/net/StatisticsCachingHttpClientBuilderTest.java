@@ -0,0 +1,133 @@
+package at.yawk.fimfiction.net;
+
+import static org.junit.Assert.*;
+
+import at.yawk.fimfiction.core.StubHttpClient;
+import com.google.common.base.Charsets;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpException;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.cache.HeaderConstants;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpExecutionAware;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpRequestWrapper;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.client.utils.DateUtils;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.cache.CacheConfig;
+import org.apache.http.impl.execchain.ClientExecChain;
+import org.apache.http.util.EntityUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author Jonas Konrad (yawkat)
+ */
+public class StatisticsCachingHttpClientBuilderTest {
+    private final CacheStatistics statistics = new CacheStatistics();
+    private final Origin origin = new Origin();
+    private CloseableHttpClient client;
+
+    @Before
+    public void setUp() {
+        client = new StatisticsCachingHttpClientBuilder(statistics) {
+            @Override
+            protected ClientExecChain decorateMainExec(ClientExecChain mainExec) {
+                // replace the network with the stub origin
+                return super.decorateMainExec(origin);
+            }
+        }.setCacheConfig(CacheConfig.custom().setSharedCache(false).build()).build();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        client.close();
+    }
+
+    @Test
+    public void testHit() throws IOException {
+        assertEquals("fresh", get("http://localhost/fresh?id=1"));
+        assertEquals("fresh", get("http://localhost/fresh?id=1"));
+
+        assertEquals(1, origin.requests.size());
+        assertEquals(1, statistics.getMisses());
+        assertEquals(1, statistics.getHits());
+        assertEquals(0, statistics.getRevalidations());
+    }
+
+    @Test
+    public void testRevalidation() throws IOException {
+        assertEquals("validated", get("http://localhost/validated?id=1"));
+        assertEquals("validated", get("http://localhost/validated?id=1"));
+
+        // stored although the origin sent no caching headers, then revalidated with the ETag
+        assertEquals(2, origin.requests.size());
+        assertNull(origin.requests.get(0));
+        assertEquals("\"v1\"", origin.requests.get(1));
+        assertEquals(1, statistics.getMisses());
+        assertEquals(0, statistics.getHits());
+        assertEquals(1, statistics.getRevalidations());
+    }
+
+    @Test
+    public void testUncacheable() throws IOException {
+        assertEquals("uncacheable", get("http://localhost/uncacheable?id=1"));
+        assertEquals("uncacheable", get("http://localhost/uncacheable?id=1"));
+
+        assertEquals(2, origin.requests.size());
+        assertEquals(2, statistics.getMisses());
+        assertEquals(0, statistics.getHits());
+        assertEquals(0, statistics.getRevalidations());
+    }
+
+    private String get(String uri) throws IOException {
+        CloseableHttpResponse response = client.execute(new HttpGet(uri));
+        try {
+            assertEquals(HttpStatus.SC_OK, response.getStatusLine().getStatusCode());
+            return EntityUtils.toString(response.getEntity(), Charsets.UTF_8);
+        } finally {
+            response.close();
+        }
+    }
+
+    /**
+     * Origin server: /fresh is cacheable for an hour, /validated only carries an ETag and /uncacheable neither.
+     * Records the If-None-Match header of every request.
+     */
+    private static class Origin implements ClientExecChain {
+        final List<String> requests = new ArrayList<String>();
+
+        @Override
+        public synchronized CloseableHttpResponse execute(HttpRoute route,
+                                                          HttpRequestWrapper request,
+                                                          HttpClientContext clientContext,
+                                                          HttpExecutionAware execAware)
+                throws IOException, HttpException {
+            String ifNoneMatch = request.containsHeader(HeaderConstants.IF_NONE_MATCH) ?
+                    request.getFirstHeader(HeaderConstants.IF_NONE_MATCH).getValue() : null;
+            requests.add(ifNoneMatch);
+
+            String path = StubHttpClient.getPath(request.getOriginal()).replaceFirst("\\?.*", "").substring(1);
+            CloseableHttpResponse response;
+            if (path.equals("validated") && "\"v1\"".equals(ifNoneMatch)) {
+                response = StubHttpClient.response(HttpStatus.SC_NOT_MODIFIED, (HttpEntity) null);
+            } else {
+                response = StubHttpClient.response(HttpStatus.SC_OK, path.getBytes(Charsets.UTF_8));
+            }
+            response.setHeader("Date", DateUtils.formatDate(new Date()));
+            if (path.equals("fresh")) {
+                response.setHeader(HeaderConstants.CACHE_CONTROL, "max-age=3600");
+            } else if (path.equals("validated")) {
+                response.setHeader(HeaderConstants.ETAG, "\"v1\"");
+            }
+            return response;
+        }
+    }
+}
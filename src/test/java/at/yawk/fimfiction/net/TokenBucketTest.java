@@ -0,0 +1,51 @@
+package at.yawk.fimfiction.net;
+
+import static org.junit.Assert.*;
+
+import com.google.common.base.Ticker;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+/**
+ * @author Jonas Konrad (yawkat)
+ */
+public class TokenBucketTest {
+    @Test
+    public void testBurstThenRate() {
+        FakeTicker ticker = new FakeTicker();
+        TokenBucket bucket = new TokenBucket(2, 3, ticker);
+
+        assertEquals(0, bucket.reserve());
+        assertEquals(0, bucket.reserve());
+        assertEquals(0, bucket.reserve());
+        // empty: every further token is half a second later than the one before
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(500), bucket.reserve());
+        assertEquals(TimeUnit.MILLISECONDS.toNanos(1000), bucket.reserve());
+
+        ticker.advance(TimeUnit.MILLISECONDS.toNanos(1000));
+        assertFalse(bucket.tryAcquire());
+        ticker.advance(TimeUnit.MILLISECONDS.toNanos(500));
+        assertTrue(bucket.tryAcquire());
+        assertFalse(bucket.tryAcquire());
+    }
+
+    @Test
+    public void testRefillIsCappedAtBurst() {
+        FakeTicker ticker = new FakeTicker();
+        TokenBucket bucket = new TokenBucket(10, 2, ticker);
+        ticker.advance(TimeUnit.SECONDS.toNanos(60));
+
+        assertTrue(bucket.tryAcquire());
+        assertTrue(bucket.tryAcquire());
+        assertFalse(bucket.tryAcquire());
+    }
+
+    private static class FakeTicker extends Ticker {
+        private long nanos;
+
+        void advance(long nanos) { this.nanos += nanos; }
+
+        @Override
+        public long read() { return nanos; }
+    }
+}
@@ -0,0 +1,106 @@
+package at.yawk.fimfiction.store;
+
+import static org.junit.Assert.*;
+
+import at.yawk.fimfiction.core.Download;
+import com.google.common.base.Charsets;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.Files;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Date;
+import java.util.Random;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * @author Jonas Konrad (yawkat)
+ */
+public class StoryArchiveTest {
+    @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+    private static InputStream content(String text) {
+        return new ByteArrayInputStream(text.getBytes(Charsets.UTF_8));
+    }
+
+    private static String read(StoryArchive archive, int id, Download.Format format, Date updated)
+            throws IOException {
+        InputStream in = archive.open(id, format, updated);
+        try {
+            return new String(ByteStreams.toByteArray(in), Charsets.UTF_8);
+        } finally {
+            in.close();
+        }
+    }
+
+    @Test
+    public void testDeduplication() throws IOException {
+        StoryArchive archive = StoryArchive.open(folder.getRoot());
+        try {
+            String first = archive.put(1, Download.Format.TEXT, new Date(1000), content("Chapter 1"));
+            // unchanged download of a newer version
+            assertEquals(first, archive.put(1, Download.Format.TEXT, new Date(2000), content("Chapter 1")));
+            String second = archive.put(1, Download.Format.TEXT, new Date(3000), content("Chapter 1, Chapter 2"));
+            assertFalse(first.equals(second));
+
+            assertEquals(3, archive.getEntryCount());
+            assertEquals(2, archive.getBlobCount());
+            assertEquals("Chapter 1", read(archive, 1, Download.Format.TEXT, new Date(2000)));
+            assertEquals("Chapter 1, Chapter 2", read(archive, 1, Download.Format.TEXT, new Date(3000)));
+            assertNull(archive.open(1, Download.Format.HTML, new Date(3000)));
+            assertTrue(archive.getBlob(first).isFile());
+        } finally {
+            archive.close();
+        }
+
+        archive = StoryArchive.open(folder.getRoot());
+        try {
+            assertEquals("Chapter 1, Chapter 2", read(archive, 1, Download.Format.TEXT, new Date(3000)));
+            assertEquals(3, archive.getEntryCount());
+            assertEquals(2, archive.getBlobCount());
+        } finally {
+            archive.close();
+        }
+    }
+
+    @Test
+    public void testLargeContent() throws IOException {
+        byte[] data = new byte[3 * 1024 * 1024];
+        new Random(0).nextBytes(data);
+        StoryArchive archive = StoryArchive.open(folder.getRoot());
+        try {
+            String hash = archive.put(2, Download.Format.EPUB, new Date(1000), new ByteArrayInputStream(data));
+            assertEquals(hash, archive.put(3, Download.Format.EPUB, new Date(1000), new ByteArrayInputStream(data)));
+            assertArrayEquals(data, Files.toByteArray(archive.getBlob(hash)));
+            assertEquals(1, archive.getBlobCount());
+        } finally {
+            archive.close();
+        }
+        // no temporary files are left over
+        assertEquals(2, folder.getRoot().list().length);
+    }
+
+    @Test
+    public void testIncompleteIndexLine() throws IOException {
+        StoryArchive archive = StoryArchive.open(folder.getRoot());
+        archive.put(1, Download.Format.TEXT, new Date(1000), content("One"));
+        archive.close();
+        Files.append("2 TEXT 1000 abc", new File(folder.getRoot(), StoryArchive.INDEX_FILE_NAME), Charsets.UTF_8);
+
+        archive = StoryArchive.open(folder.getRoot());
+        archive.put(3, Download.Format.TEXT, new Date(1000), content("Three"));
+        archive.close();
+
+        archive = StoryArchive.open(folder.getRoot());
+        try {
+            assertEquals(2, archive.getEntryCount());
+            assertFalse(archive.contains(2, Download.Format.TEXT, new Date(1000)));
+            assertEquals("Three", read(archive, 3, Download.Format.TEXT, new Date(1000)));
+        } finally {
+            archive.close();
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package at.yawk.fimfiction.store;
+
+import static org.junit.Assert.*;
+
+import at.yawk.fimfiction.data.Story;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * @author Jonas Konrad (yawkat)
+ */
+public class StoryStoreTest {
+    @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+    private static Story story(int id, String title) {
+        return Story.createMutable().setInt(Story.StoryKey.ID, id).set(Story.StoryKey.TITLE, title);
+    }
+
+    private static List<String> titles(StoryStore store) {
+        List<String> titles = new ArrayList<String>();
+        for (Story story : store.scan()) { titles.add(story.getString(Story.StoryKey.TITLE)); }
+        return titles;
+    }
+
+    @Test
+    public void testPutGet() throws IOException {
+        StoryStore store = StoryStore.open(folder.getRoot());
+        try {
+            assertNull(store.get(10));
+            store.put(story(10, "Ten"));
+            store.put(story(5000, "Five thousand"));
+            assertEquals("Ten", store.get(10).getString(Story.StoryKey.TITLE));
+            assertEquals("Five thousand", store.get(5000).getString(Story.StoryKey.TITLE));
+            assertTrue(store.contains(10));
+            assertFalse(store.contains(11));
+            assertNull(store.get(-1));
+            assertNull(store.get(Integer.MAX_VALUE));
+
+            store.put(story(10, "Ten again"));
+            assertEquals("Ten again", store.get(10).getString(Story.StoryKey.TITLE));
+            assertEquals(Arrays.asList("Five thousand", "Ten again"), titles(store));
+            assertTrue(store.getGarbageRatio() > 0);
+        } finally {
+            store.close();
+        }
+    }
+
+    @Test
+    public void testReopen() throws IOException {
+        StoryStore store = StoryStore.open(folder.getRoot());
+        store.put(story(1, "One"));
+        store.put(story(2, "Two"));
+        store.put(story(1, "One again"));
+        double garbageRatio = store.getGarbageRatio();
+        store.close();
+
+        store = StoryStore.open(folder.getRoot());
+        try {
+            assertEquals("One again", store.get(1).getString(Story.StoryKey.TITLE));
+            assertEquals("Two", store.get(2).getString(Story.StoryKey.TITLE));
+            assertEquals(garbageRatio, store.getGarbageRatio(), 0);
+        } finally {
+            store.close();
+        }
+    }
+
+    @Test
+    public void testCompact() throws IOException {
+        StoryStore store = StoryStore.open(folder.getRoot());
+        try {
+            for (int i = 0; i < 100; i++) { store.put(story(i % 10, "Story " + i)); }
+            long liveSize = Math.round(store.getLogSize() * (1 - store.getGarbageRatio()));
+            store.compact();
+            assertEquals(liveSize, store.getLogSize());
+            assertEquals(0, store.getGarbageRatio(), 0);
+            for (int i = 0; i < 10; i++) {
+                assertEquals("Story " + (90 + i), store.get(i).getString(Story.StoryKey.TITLE));
+            }
+            store.put(story(3, "Three"));
+            assertEquals("Three", store.get(3).getString(Story.StoryKey.TITLE));
+        } finally {
+            store.close();
+        }
+
+        store = StoryStore.open(folder.getRoot());
+        try {
+            assertEquals("Three", store.get(3).getString(Story.StoryKey.TITLE));
+            assertEquals(10, titles(store).size());
+        } finally {
+            store.close();
+        }
+    }
+
+    @Test
+    public void testRecovery() throws IOException {
+        StoryStore store = StoryStore.open(folder.getRoot());
+        store.put(story(1, "One"));
+        store.put(story(2, "Two"));
+        store.close();
+
+        // partially written record
+        RandomAccessFile log = new RandomAccessFile(new File(folder.getRoot(), StoryStore.LOG_FILE_NAME), "rw");
+        try {
+            log.setLength(log.length() - 1);
+        } finally {
+            log.close();
+        }
+        assertTrue(new File(folder.getRoot(), StoryStore.INDEX_FILE_NAME).delete());
+
+        store = StoryStore.open(folder.getRoot());
+        try {
+            assertEquals("One", store.get(1).getString(Story.StoryKey.TITLE));
+            assertNull(store.get(2));
+            store.put(story(2, "Two"));
+            assertEquals(Arrays.asList("One", "Two"), titles(store));
+        } finally {
+            store.close();
+        }
+    }
+
+    @Test
+    public void testInterruptedCompaction() throws IOException {
+        StoryStore store = StoryStore.open(folder.getRoot());
+        store.put(story(1, "One"));
+        store.put(story(1, "One again"));
+        store.put(story(2, "Two"));
+        store.compact();
+        store.close();
+
+        // crash after the old log was removed, before the compacted log was renamed
+        File log = new File(folder.getRoot(), StoryStore.LOG_FILE_NAME);
+        File temporaryLog = new File(folder.getRoot(), StoryStore.LOG_FILE_NAME + ".tmp");
+        assertTrue(log.renameTo(temporaryLog));
+        assertTrue(new File(folder.getRoot(), StoryStore.INDEX_FILE_NAME).delete());
+
+        store = StoryStore.open(folder.getRoot());
+        try {
+            assertFalse(temporaryLog.exists());
+            assertEquals(Arrays.asList("One again", "Two"), titles(store));
+        } finally {
+            store.close();
+        }
+    }
+}
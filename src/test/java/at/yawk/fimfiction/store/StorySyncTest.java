@@ -0,0 +1,141 @@
+package at.yawk.fimfiction.store;
+
+import static org.junit.Assert.*;
+
+import at.yawk.fimfiction.core.StubHttpClient;
+import com.google.common.base.Charsets;
+import com.google.common.io.Resources;
+import java.io.File;
+import java.io.IOException;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.Set;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * @author Jonas Konrad (yawkat)
+ */
+public class StorySyncTest {
+    private static final Pattern PAGE = Pattern.compile("&page=(\\d+)$");
+    private static final Pattern META = Pattern.compile("story=(\\d+)$");
+
+    @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+    private StoryStore store;
+    private File watermarkFile;
+    private StubClient client;
+
+    @Before
+    public void setUp() throws IOException {
+        store = StoryStore.open(folder.newFolder("store"));
+        watermarkFile = new File(folder.getRoot(), "watermark");
+        client = new StubClient();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        store.close();
+    }
+
+    @Test
+    public void testIncrementalSync() throws Exception {
+        StorySync sync = StorySync.create(store, watermarkFile);
+        assertNull(sync.getWatermark());
+
+        // no watermark: both pages and the empty third page are read
+        StorySync.SyncResult first = sync.sync(client);
+        assertEquals(3, first.getPageCount());
+        assertEquals(32, first.getListedCount());
+        assertEquals(32, first.getUpdatedCount());
+        assertTrue(first.getFailures().isEmpty());
+        assertEquals(3, client.searchRequests.get());
+        assertEquals(32, client.metaRequests.get());
+        assertEquals(date(2014, Calendar.NOVEMBER, 18), sync.getWatermark());
+        assertTrue(store.contains(1842));
+        assertTrue(store.contains(6628));
+
+        // only the first page reaches back to the watermark and only the story of the watermark day is compared
+        client.searchRequests.set(0);
+        client.metaRequests.set(0);
+        StorySync.SyncResult second = StorySync.create(store, watermarkFile).sync(client);
+        assertEquals(1, second.getPageCount());
+        assertEquals(1, second.getListedCount());
+        assertEquals(1, client.searchRequests.get());
+        assertEquals(second.getChangedCount(), client.metaRequests.get());
+        assertEquals(date(2014, Calendar.NOVEMBER, 18), second.getWatermark());
+    }
+
+    @Test
+    public void testFailure() throws Exception {
+        client.failingIds.add(2628);
+        StorySync.SyncResult result = StorySync.create(store, watermarkFile).sync(client);
+        assertEquals(31, result.getUpdatedCount());
+        assertEquals(1, result.getFailures().size());
+        assertTrue(result.getFailures().containsKey(2628));
+        assertFalse(store.contains(2628));
+        // kept at the failed story so it is retried
+        assertEquals(date(2014, Calendar.SEPTEMBER, 20), StorySync.create(store, watermarkFile).getWatermark());
+
+        client.failingIds.clear();
+        StorySync.create(store, watermarkFile).sync(client);
+        assertTrue(store.contains(2628));
+        assertEquals(date(2014, Calendar.NOVEMBER, 18), StorySync.create(store, watermarkFile).getWatermark());
+    }
+
+    private static Date date(int year, int month, int day) {
+        Calendar calendar = Calendar.getInstance();
+        calendar.clear();
+        calendar.set(year, month, day);
+        return calendar.getTime();
+    }
+
+    private static byte[] load(String name) throws IOException {
+        return Resources.toByteArray(StorySyncTest.class.getResource("/at/yawk/fimfiction/core/" + name));
+    }
+
+    /**
+     * Serves the search page fixtures as the first two pages and the API story fixture for every meta request.
+     */
+    private static class StubClient extends StubHttpClient {
+        final AtomicInteger searchRequests = new AtomicInteger();
+        final AtomicInteger metaRequests = new AtomicInteger();
+        final Set<Integer> failingIds = new ConcurrentSkipListSet<Integer>();
+
+        @Override
+        protected CloseableHttpResponse handle(HttpRequest request) throws IOException {
+            String uri = request.getRequestLine().getUri();
+            Matcher page = PAGE.matcher(uri);
+            if (page.find()) {
+                searchRequests.incrementAndGet();
+                int number = Integer.parseInt(page.group(1));
+                return respond(load(number == 1 ? "search/category_page.html" :
+                                            number == 2 ? "search/category_page_logged_out.html" :
+                                                    "search/empty_page.html"));
+            }
+            Matcher meta = META.matcher(uri);
+            if (meta.find()) {
+                metaRequests.incrementAndGet();
+                int id = Integer.parseInt(meta.group(1));
+                if (failingIds.contains(id)) { throw new IOException("Story " + id + " failed"); }
+                String json = new String(load("api/story.json"), Charsets.UTF_8);
+                return respond(json.replace("\"id\": 10,", "\"id\": " + id + ",").getBytes(Charsets.UTF_8));
+            }
+            throw new IOException("Unexpected request " + uri);
+        }
+
+        private static CloseableHttpResponse respond(byte[] body) {
+            return response(HttpStatus.SC_OK, body);
+        }
+    }
+}